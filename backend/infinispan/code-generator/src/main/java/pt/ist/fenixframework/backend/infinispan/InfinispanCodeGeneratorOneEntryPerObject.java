@@ -0,0 +1,178 @@
+package pt.ist.fenixframework.backend.infinispan;
+
+import java.io.PrintWriter;
+
+import pt.ist.fenixframework.dml.CompilerArgs;
+import pt.ist.fenixframework.dml.DomainClass;
+import pt.ist.fenixframework.dml.DomainModel;
+import pt.ist.fenixframework.dml.Role;
+import pt.ist.fenixframework.dml.Slot;
+import pt.ist.fenixframework.dml.ValueType;
+import pt.ist.fenixframework.dml.ValueTypeSerializationGenerator;
+
+/**
+ * Code generator that keeps the entire state of each domain object in a single Infinispan entry, under the object's OID,
+ * instead of one entry per slot. Each domain class gets a <code>DO_State</code> inner class with one field per slot and per
+ * role of multiplicity one. Slots hold their serialized form, and roles hold the OID of the related object (or of the
+ * collection that holds the related objects).
+ * 
+ * @see OneEntryDomainObject
+ */
+public class InfinispanCodeGeneratorOneEntryPerObject extends InfinispanCodeGenerator {
+
+    private static final String DO_STATE_SUPER = OneEntryDomainObject.class.getName() + ".DO_State";
+    private static final String ONE_ENTRY_DOMAIN_OBJECT_CLASS = OneEntryDomainObject.class.getName();
+
+    public InfinispanCodeGeneratorOneEntryPerObject(CompilerArgs compArgs, DomainModel domainModel) {
+        super(compArgs, domainModel);
+    }
+
+    @Override
+    protected String getDomainClassRoot() {
+        return ONE_ENTRY_DOMAIN_OBJECT_CLASS;
+    }
+
+    @Override
+    protected void generateBaseClassBody(DomainClass domClass, PrintWriter out) {
+        super.generateBaseClassBody(domClass, out);
+
+        generateMakeNewStateMethod(out);
+        generateDOStateInnerClass(domClass, out);
+    }
+
+    protected String getStateExpression(boolean forWriting) {
+        return "((DO_State)get$obj$state(" + forWriting + "))";
+    }
+
+    protected String getStateSlotTypeName(Slot slot) {
+        ValueType vt = slot.getSlotType();
+        if (vt.isBuiltin() || vt.isEnum()) {
+            return slot.getTypeName();
+        } else {
+            return ValueTypeSerializationGenerator.getSerializedFormTypeName(vt);
+        }
+    }
+
+    @Override
+    protected void generateInfinispanGetterBody(Slot slot, PrintWriter out, String cacheGetMethod) {
+        generateGetterDAPStatement(dC, slot.getName(), slot.getTypeName(), out);//DAP read stats update statement
+
+        String stateSlot = getStateExpression(false) + "." + slot.getName();
+        ValueType vt = slot.getSlotType();
+        if (vt.isBuiltin() || vt.isEnum()) {
+            print(out, "return " + stateSlot + ";");
+        } else {
+            print(out, "return " + VT_DESERIALIZER + ValueTypeSerializationGenerator.makeSafeValueTypeName(vt) + "(" + stateSlot
+                    + ");");
+        }
+    }
+
+    @Override
+    protected void generateInfinispanSetterBody(Slot slot, PrintWriter out) {
+        generateSetterDAPStatement(dC, slot.getName(), slot.getTypeName(), out);//DAP write stats update statement
+        generateSetterTxIntrospectorStatement(slot, out); // TxIntrospector
+
+        onNewline(out);
+        String slotName = slot.getName();
+        ValueType vt = slot.getSlotType();
+        String setterExpression;
+        if (vt.isBuiltin() || vt.isEnum()) {
+            setterExpression = slotName;
+        } else { // derived value type must be externalized
+            setterExpression = VT_SERIALIZER + ValueTypeSerializationGenerator.makeSafeValueTypeName(vt) + "(" + slotName + ")";
+        }
+
+        print(out, getStateExpression(true) + "." + slotName + " = " + setterExpression + ";");
+    }
+
+    @Override
+    protected void generateRoleSlotMethodsMultOneInternalSetter(Role role, PrintWriter out) {
+        String typeName = getTypeFullName(role.getType());
+        String slotName = role.getName();
+        String capitalizedSlotName = capitalize(slotName);
+        String setterName = "set" + capitalizedSlotName;
+
+        String methodModifiers = getMethodModifiers();
+
+        // internal setter, which does not inform the relation
+        newline(out);
+        printMethod(out, methodModifiers, "void", setterName + "$unidirectional", makeArg(typeName, slotName));
+        startMethodBody(out);
+        print(out, getStateExpression(true) + "." + slotName + " = (" + slotName + " == null ? null : (OID)"
+                + "((pt.ist.fenixframework.core.AbstractDomainObject)" + slotName + ").getOid());");
+        endMethodBody(out);
+    }
+
+    @Override
+    protected void generateRoleSlotMethodsMultOneGetter(String slotName, String typeName, PrintWriter out) {
+        newline(out);
+        printFinalMethod(out, "public", typeName, "get" + capitalize(slotName));
+        startMethodBody(out);
+        generateGetterDAPStatement(dC, slotName, typeName, out);//DAP read stats update statement
+        println(out, "OID oid = " + getStateExpression(false) + "." + slotName + ";");
+        print(out, "return (oid == null ? null : (" + typeName + ")InfinispanBackEnd.getInstance().fromOid(oid));");
+        endMethodBody(out);
+    }
+
+    @Override
+    protected void generateRoleSlotMethodsMultStarGetter(Role role, PrintWriter out) {
+        newline(out);
+        printFinalMethod(out, "public", getSetTypeDeclarationFor(role), "get" + capitalize(role.getName()) + "Set");
+        startMethodBody(out);
+
+        generateGetterDAPStatement(dC, role.getName(), role.getType().getFullName(), out);//DAP read stats update statement
+
+        String collectionType = getDefaultCollectionFor(role);
+        println(out, collectionType + " internalSet;");
+        println(out, "OID oid = " + getStateExpression(false) + "." + role.getName() + ";");
+        print(out, "if (oid == null)");
+        newBlock(out);
+        println(out, "internalSet = new " + collectionType + "();");
+        print(out, getStateExpression(true) + "." + role.getName() + " = (OID)internalSet.getOid();");
+        closeBlock(out, false);
+        print(out, " else");
+        newBlock(out);
+        print(out, "internalSet = (" + collectionType + ")InfinispanBackEnd.getInstance().fromOid(oid);");
+        closeBlock(out);
+        print(out, "return new ");
+        print(out, getRelationAwareTypeFor(role));
+        print(out, "((");
+        print(out, getTypeFullName(role.getOtherRole().getType()));
+        print(out, ") this, ");
+        print(out, getRelationMethodNameFor(role));
+        print(out, ", internalSet, keyFunction$$");
+        print(out, role.getName());
+        print(out, ");");
+        endMethodBody(out);
+    }
+
+    protected void generateDOStateInnerClass(DomainClass domClass, PrintWriter out) {
+        onNewline(out);
+        print(out, "protected static class DO_State extends ");
+
+        String superclassName = getEntityFullName(domClass.getSuperclass());
+        print(out, superclassName == null ? DO_STATE_SUPER : superclassName + ".DO_State");
+
+        newBlock(out);
+        println(out, "private static final long serialVersionUID = 1L;");
+        for (Slot slot : domClass.getSlotsList()) {
+            generateSlotDeclaration(out, getStateSlotTypeName(slot), slot.getName());
+        }
+
+        // both roles of multiplicity one and collections are kept as OIDs
+        for (Role role : domClass.getRoleSlotsList()) {
+            if (role.getName() != null) {
+                generateSlotDeclaration(out, "OID", role.getName());
+            }
+        }
+        closeBlock(out);
+    }
+
+    protected void generateMakeNewStateMethod(PrintWriter out) {
+        printMethod(out, "protected", DO_STATE_SUPER, "make$newState");
+        startMethodBody(out);
+        println(out, "return new DO_State();");
+        endMethodBody(out);
+    }
+
+}
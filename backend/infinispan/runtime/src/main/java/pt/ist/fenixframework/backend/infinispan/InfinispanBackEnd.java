@@ -132,18 +132,28 @@ public class InfinispanBackEnd implements BackEnd {
 
     /**
      * Store in Infinispan. This method supports null values. This method is used by the code
-     * generated in the Domain Objects.
+     * generated in the Domain Objects. Within a transaction, the write is buffered until the
+     * transaction commits.
      */
     public final void cachePut(String key, Object value) {
+        TxLocalCache localCache = TxLocalCache.current();
+        if (localCache != null) {
+            localCache.put(key, value);
+            return;
+        }
         domainCache.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES)
                 .put(key, (value != null) ? value : Externalization.NULL_OBJECT);
     }
 
     /**
      * Reads from Infinispan a value with a given key. This method is used by the code generated in
-     * the Domain Objects.
+     * the Domain Objects. Within a transaction, each key is read from Infinispan only once.
      */
     public final <T> T cacheGet(String key) {
+        TxLocalCache localCache = TxLocalCache.current();
+        if (localCache != null) {
+            return localCache.get(key);
+        }
         Object obj = domainCache.get(key);
         return (T) (obj instanceof Externalization.NullClass ? null : obj);
     }
@@ -65,8 +65,12 @@ public class InfinispanTransactionManager implements TransactionManager {
             throw new RollbackException(e.getMessage());
         }
         try {
+            if (tx != null) {
+                TxLocalCache.writeBack(tx);
+            }
             delegateTxManager.commit();
         } finally {
+            TxLocalCache.release();
             for (CommitListener listener : listeners) {
                 listener.afterCommit(tx);
             }
@@ -85,9 +89,23 @@ public class InfinispanTransactionManager implements TransactionManager {
         return (tx == null) ? null : TxMap.getTx(tx);
     }
 
+    /**
+     * Get the underlying JTA transaction that is associated with the current thread.
+     * 
+     * @return The JTA transaction or <code>null</code> if there is none
+     */
+    javax.transaction.Transaction getDelegateTransaction() {
+        try {
+            return delegateTxManager.getTransaction();
+        } catch (SystemException e) {
+            return null;
+        }
+    }
+
     @Override
     public void rollback() throws SystemException {
         logger.trace("Rollback transaction");
+        TxLocalCache.release();
         delegateTxManager.rollback();
     }
 
@@ -0,0 +1,65 @@
+package pt.ist.fenixframework.backend.infinispan;
+
+import java.io.Serializable;
+
+import pt.ist.fenixframework.core.DomainObjectAllocator;
+
+/**
+ * The OneEntryDomainObject class is meant to be used as a superclass of DomainObjects generated by the
+ * InfinispanCodeGeneratorOneEntryPerObject, which keep the entire state of an object in a single Infinispan entry, stored
+ * under the object's OID, instead of using one entry per slot.
+ * 
+ * This reduces both the number of entries in the cache and the number of lookups needed to read an object, at the cost of
+ * detecting conflicts at the object level, rather than at the slot level.
+ * 
+ * Within a transaction, the state of each object is read from Infinispan only once. The first write to an object makes a
+ * private copy of its state, which is written back when the transaction commits. States stored in Infinispan are never
+ * changed in place.
+ */
+public abstract class OneEntryDomainObject extends InfinispanDomainObject {
+
+    protected OneEntryDomainObject() {
+        super();
+    }
+
+    protected OneEntryDomainObject(DomainObjectAllocator.OID oid) {
+        super(oid);
+    }
+
+    // each class will have to implement/override this method to
+    // create an instance of the appropriate subclass of DO_State
+    protected abstract DO_State make$newState();
+
+    protected final DO_State get$obj$state(boolean forWriting) {
+        String key = getOid().getFullId();
+        TxLocalCache localCache = TxLocalCache.current();
+
+        if (localCache == null) {
+            if (forWriting) {
+                throw new IllegalStateException("Cannot change object " + key + " outside of a transaction");
+            }
+            DO_State state = InfinispanBackEnd.getInstance().cacheGet(key);
+            return (state != null) ? state : make$newState();
+        }
+
+        DO_State state = localCache.get(key);
+        if (forWriting && !localCache.isWritten(key)) {
+            state = (state != null) ? state.copy() : make$newState();
+            localCache.put(key, state);
+        }
+        return (state != null) ? state : make$newState();
+    }
+
+    protected static abstract class DO_State implements Cloneable, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        protected DO_State copy() {
+            try {
+                return (DO_State) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package pt.ist.fenixframework.backend.infinispan;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.infinispan.context.Flag;
+
+import pt.ist.fenixframework.Transaction;
+import pt.ist.fenixframework.core.Externalization;
+import pt.ist.fenixframework.util.TxMap;
+
+/**
+ * Transaction-local view over the domain cache. Values read from Infinispan are kept here for the rest of the transaction,
+ * and values written are buffered until the transaction commits, when they are all written back to Infinispan.
+ * 
+ * Instances are kept in the context of the {@link Transaction} and are only ever used by the thread running it. Each thread
+ * also remembers the last instance it used, so that the generated getters and setters can find it without going through
+ * the {@link TxMap}.
+ */
+final class TxLocalCache {
+
+    private static final String CONTEXT_KEY = TxLocalCache.class.getName();
+
+    private static final ThreadLocal<TxLocalCache> LAST_USED = new ThreadLocal<TxLocalCache>();
+
+    // the JTA transaction to which this cache belongs
+    private final javax.transaction.Transaction owner;
+
+    private final Map<String, Object> readValues = new HashMap<String, Object>();
+    private final Map<String, Object> writtenValues = new HashMap<String, Object>();
+
+    private TxLocalCache(javax.transaction.Transaction owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Get the local cache of the current transaction, creating it if needed.
+     * 
+     * @return The local cache, or <code>null</code> if there is no transaction running
+     */
+    static TxLocalCache current() {
+        javax.transaction.Transaction jtaTx = InfinispanBackEnd.getInstance().transactionManager.getDelegateTransaction();
+        if (jtaTx == null) {
+            return null;
+        }
+
+        TxLocalCache localCache = LAST_USED.get();
+        if (localCache != null && localCache.owner == jtaTx) {
+            return localCache;
+        }
+
+        Transaction tx = TxMap.getTx(jtaTx);
+        localCache = tx.getFromContext(CONTEXT_KEY);
+        if (localCache == null) {
+            localCache = new TxLocalCache(jtaTx);
+            tx.putInContext(CONTEXT_KEY, localCache);
+        }
+        LAST_USED.set(localCache);
+        return localCache;
+    }
+
+    /**
+     * Write back the values buffered by the given transaction, if any. Must be invoked within the transaction, just before
+     * it commits.
+     */
+    static void writeBack(Transaction tx) {
+        TxLocalCache localCache = tx.getFromContext(CONTEXT_KEY);
+        if (localCache != null) {
+            localCache.flush();
+        }
+    }
+
+    /**
+     * Forget the cache last used by the current thread. Invoked when a transaction finishes, so that its values are not kept
+     * alive until the thread runs another transaction.
+     */
+    static void release() {
+        LAST_USED.remove();
+    }
+
+    /**
+     * Reads the value of the given key, as seen by this transaction. Only the first read of each key goes to Infinispan.
+     */
+    <T> T get(String key) {
+        Object value = writtenValues.get(key);
+        if (value == null) {
+            value = readValues.get(key);
+            if (value == null) {
+                value = InfinispanBackEnd.getInstance().domainCache.get(key);
+                readValues.put(key, (value != null) ? value : Externalization.NULL_OBJECT);
+            }
+        }
+        return (T) (value instanceof Externalization.NullClass ? null : value);
+    }
+
+    boolean isWritten(String key) {
+        return writtenValues.containsKey(key);
+    }
+
+    void put(String key, Object value) {
+        writtenValues.put(key, (value != null) ? value : Externalization.NULL_OBJECT);
+    }
+
+    private void flush() {
+        if (!writtenValues.isEmpty()) {
+            InfinispanBackEnd.getInstance().domainCache.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES)
+                    .putAll(writtenValues);
+            writtenValues.clear();
+        }
+    }
+
+}
@@ -7,7 +7,10 @@
  */
 package pt.ist.fenixframework.backend.jvstm.cluster;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,14 +30,25 @@ public class ClusterUtils {
     private static final Logger logger = LoggerFactory.getLogger(ClusterUtils.class);
     private static final String FF_GLOBAL_LOCK_NAME = "ff.hzl.global.lock";
     private static final String FF_GLOBAL_LOCK_NUMBER_NAME = "ff.hzl.global.lock.number";
-    private static final long FF_GLOBAL_LOCK_LOCKED_VALUE = -1;
+    private static final String FF_GLOBAL_TICKET_NAME = "ff.hzl.global.ticket";
+    private static final String FF_GLOBAL_SERVING_NAME = "ff.hzl.global.serving";
     private static final String FF_COMMIT_TOPIC_NAME = "ff.hzl.commits";
+    private static final String FF_TURN_TOPIC_NAME = "ff.hzl.turns";
+
+    // maximum time to park waiting for our turn, in case a turn message is missed
+    private static final long TURN_WAIT_INTERVAL = 100;
 
     private static HazelcastInstance HAZELCAST_INSTANCE;
 
     // remote commits that have not been applied yet
     private static final ConcurrentLinkedQueue<RemoteCommit> REMOTE_COMMITS = new ConcurrentLinkedQueue<RemoteCommit>();
 
+    // the threads in this node waiting for their turn to commit, by ticket
+    private static final ConcurrentHashMap<Long, Thread> TURN_WAITERS = new ConcurrentHashMap<Long, Thread>();
+
+    // the ticket held by the current thread, while it holds the global lock
+    private static final ThreadLocal<Long> CURRENT_TICKET = new ThreadLocal<Long>();
+
     private ClusterUtils() {
     }
 
@@ -44,6 +58,22 @@ public class ClusterUtils {
 
         // register listener for remote commits
         registerListenerForRemoteCommits();
+        registerListenerForTurns();
+    }
+
+    private static void registerListenerForTurns() {
+        ITopic<Long> topic = getHazelcastInstance().getTopic(FF_TURN_TOPIC_NAME);
+
+        topic.addMessageListener(new MessageListener<Long>() {
+
+            @Override
+            public void onMessage(Message<Long> message) {
+                Thread waiter = TURN_WAITERS.get(message.getMessageObject());
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+            }
+        });
     }
 
     private static void registerListenerForRemoteCommits() {
@@ -68,6 +98,7 @@ public class ClusterUtils {
 //                        System.exit(-1);
 //                    }
                     REMOTE_COMMITS.offer(remoteCommit);
+                    RemoteCommitApplier.signalNewRemoteCommit();
 //                    logger.debug("Enqueued remote commit: serverId={}, tx={}", remoteCommit.getServerId(),
 //                            remoteCommit.getTxNumber());
                 }
@@ -88,46 +119,85 @@ public class ClusterUtils {
         return HAZELCAST_INSTANCE;
     }
 
+    /* The global lock is a ticket lock: each commit takes a ticket with a
+    single atomic increment and waits, parked, until the ticket being served is
+    its own.  The holder of the lock validates, persists and publishes its
+    commit, and then hands over to the next ticket, announcing it in the turns
+    topic.  So, commits are published in ticket order, and waiting nodes make
+    no remote calls other than a check when they are signalled (or, should
+    the signal get lost, once in a while).
+
+    Once taken, a ticket must always be served, or every node would wait for
+    it forever.  So, if anything fails after the ticket is taken, the thread
+    still waits for its turn and passes it on before giving up.  This cannot
+    cover a member that crashes while holding a ticket (either waiting or
+    holding the lock): its ticket is never served, and no other commit is
+    published in the cluster, just as with a lock held by a crashed member.
+    The cluster must then be restarted. */
     public static int globalLock() {
         logger.debug("Will get global cluster lock...");
 
+        long ticket;
         try {
-            IAtomicLong lockNumber = getHazelcastInstance().getAtomicLong(FF_GLOBAL_LOCK_NUMBER_NAME);
-
-//            int ourLockValue = 0 - DomainClassInfo.getServerId();
-            do {
-                long currentValue = lockNumber.get();
-                boolean unlocked = currentValue != FF_GLOBAL_LOCK_LOCKED_VALUE;
-
-                if (unlocked && lockNumber.compareAndSet(currentValue, FF_GLOBAL_LOCK_LOCKED_VALUE)) {
-                    logger.debug("Acquired global cluster lock. ({} -> {})", currentValue, FF_GLOBAL_LOCK_LOCKED_VALUE);
+            ticket = getHazelcastInstance().getAtomicLong(FF_GLOBAL_TICKET_NAME).getAndIncrement();
+        } catch (RuntimeException e) {
+            logger.error("Failed to acquire global lock");
+            throw new TransactionError(e);
+        }
 
-                    return (int) currentValue;  // transaction counters fit into an integer
-                } else {
-                    logger.debug("Global lock taken. Retrying...");
+        try {
+            awaitTurn(ticket);
 
-                    globalLockIsNotYetAvailable();
-                }
-            } while (true);
+            long currentValue = getHazelcastInstance().getAtomicLong(FF_GLOBAL_LOCK_NUMBER_NAME).get();
+            CURRENT_TICKET.set(ticket);
+            logger.debug("Acquired global cluster lock with ticket {}. (most recent tx={})", ticket, currentValue);
+            return (int) currentValue;  // transaction counters fit into an integer
         } catch (RuntimeException e) {
-            logger.error("Failed to acquire global lock");
+            logger.error("Failed to acquire global lock with ticket {}", ticket);
+            abandonTurn(ticket);
             throw new TransactionError(e);
         }
     }
 
-    /* We'll retry later. Several mechanisms can be used here.  Which is the
-    best? For now we try to help a little by spending time checking if the
-    REMOTE_COMMITS queue requires any processing.  Also, this may help other
-    transactions that are starting to go ahead */
-    private static void globalLockIsNotYetAvailable() {
-        // first naive version. just burn cpu
-//        try {
-//            Thread.sleep(3000);
-//        } catch (InterruptedException e) {
-//            // TODO Auto-generated catch block
-//            e.printStackTrace();
-//        }
-        Thread.yield();
+    // waits until the given ticket is served, or was already served.  Returns the ticket being served.
+    private static long awaitTurn(long ticket) {
+        IAtomicLong serving = getHazelcastInstance().getAtomicLong(FF_GLOBAL_SERVING_NAME);
+
+        TURN_WAITERS.put(ticket, Thread.currentThread());
+        try {
+            long current;
+            while ((current = serving.get()) < ticket) {
+                logger.debug("Waiting for turn {}...", ticket);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(TURN_WAIT_INTERVAL));
+            }
+            return current;
+        } finally {
+            TURN_WAITERS.remove(ticket);
+        }
+    }
+
+    private static void passTurn(long ticket) {
+        long next = ticket + 1;
+        getHazelcastInstance().getAtomicLong(FF_GLOBAL_SERVING_NAME).set(next);
+        getHazelcastInstance().<Long> getTopic(FF_TURN_TOPIC_NAME).publish(next);
+    }
+
+    /* Serves the given ticket without committing: waits for its turn, unless
+    it was already passed on, and passes it on.  Keeps retrying on failures,
+    because the whole cluster depends on it. */
+    private static void abandonTurn(long ticket) {
+        while (true) {
+            try {
+                if (awaitTurn(ticket) == ticket) {
+                    passTurn(ticket);
+                }
+                logger.debug("Turn {} was passed on", ticket);
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("Failed to pass on turn {}. Retrying.", ticket, e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(TURN_WAIT_INTERVAL));
+            }
+        }
     }
 
 //    public static void globalLock() {
@@ -141,11 +211,14 @@ public class ClusterUtils {
 //    
     public static void globalUnlock(int txNum) {
         logger.debug("Will release global cluster lock ( -> {})", txNum);
+        long ticket = CURRENT_TICKET.get();
+        CURRENT_TICKET.remove();
         try {
-            IAtomicLong lockNumber = getHazelcastInstance().getAtomicLong(FF_GLOBAL_LOCK_NUMBER_NAME);
-            lockNumber.set(txNum);
+            getHazelcastInstance().getAtomicLong(FF_GLOBAL_LOCK_NUMBER_NAME).set(txNum);
+            passTurn(ticket);
         } catch (RuntimeException e) {
             logger.error("Failed to release global lock");
+            abandonTurn(ticket);
             throw new TransactionError(e);
         }
     }
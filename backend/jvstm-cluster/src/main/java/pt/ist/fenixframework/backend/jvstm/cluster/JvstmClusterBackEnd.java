@@ -56,6 +56,10 @@ public abstract class JvstmClusterBackEnd extends JVSTMBackEnd {
             ClusterUtils.waitForStartupFromFirstNode();
             localInit(thisConfig, serverId, firstNode);
         }
+
+        // apply remote commits in the background, so that starting transactions need not do it
+        RemoteCommitApplier.startApplier();
+        logger.debug("Started remote commit applier thread");
     }
 
     @Override
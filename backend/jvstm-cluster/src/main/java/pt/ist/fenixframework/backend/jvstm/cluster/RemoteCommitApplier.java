@@ -0,0 +1,73 @@
+/*
+ * Fenix Framework, a framework to develop Java Enterprise Applications.
+ *
+ * Copyright (C) 2013 Fenix Framework Team and/or its affiliates and other contributors as indicated by the @author tags.
+ *
+ * This file is part of the Fenix Framework.  Read the file COPYRIGHT.TXT for more copyright and licensing information.
+ */
+package pt.ist.fenixframework.backend.jvstm.cluster;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.backend.jvstm.pstm.ClusteredPersistentTransaction;
+import pt.ist.fenixframework.util.FenixFrameworkThread;
+
+/**
+ * This thread applies the remote commits that arrive from other nodes, so that starting transactions do not have to. It is
+ * signalled whenever a remote commit is received, and then drains the queue of remote commits, in batches.
+ */
+public class RemoteCommitApplier extends FenixFrameworkThread {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemoteCommitApplier.class);
+
+    // maximum time to park without being signalled
+    private static final long PARK_INTERVAL = 1000;
+
+    private static volatile RemoteCommitApplier instance = null;
+
+    protected RemoteCommitApplier() {
+        super("Remote commit applier");
+    }
+
+    public static void startApplier() {
+        RemoteCommitApplier applier = new RemoteCommitApplier();
+        instance = applier;
+        applier.start();
+    }
+
+    /**
+     * Wakes up the applier. Invoked whenever a remote commit is enqueued.
+     */
+    static void signalNewRemoteCommit() {
+        RemoteCommitApplier applier = instance;
+        if (applier != null) {
+            LockSupport.unpark(applier);
+        }
+    }
+
+    @Override
+    public void run() {
+        logger.debug("Remote commit applier working.");
+
+        while (!Thread.interrupted()) {
+            if (ClusterUtils.getRemoteCommits().isEmpty()) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(PARK_INTERVAL));
+            } else {
+                try {
+                    ClusteredPersistentTransaction.applyPendingRemoteCommits();
+                } catch (RuntimeException e) {
+                    // starting transactions rely on this thread to see remote commits, so it must not die
+                    logger.error("Failed to apply remote commits. Retrying.", e);
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(PARK_INTERVAL));
+                }
+            }
+        }
+
+        logger.info("Remote commit applier thread was interrupted. Terminating.");
+    }
+
+}
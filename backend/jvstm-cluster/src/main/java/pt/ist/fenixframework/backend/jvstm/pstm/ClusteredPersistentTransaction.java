@@ -7,6 +7,10 @@
  */
 package pt.ist.fenixframework.backend.jvstm.pstm;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 import jvstm.ActiveTransactionsRecord;
 import jvstm.Transaction;
 import jvstm.VBoxBody;
@@ -20,6 +24,7 @@ import pt.ist.fenixframework.backend.jvstm.cluster.ClusterUtils;
 import pt.ist.fenixframework.backend.jvstm.cluster.JvstmClusterBackEnd;
 import pt.ist.fenixframework.backend.jvstm.cluster.RemoteCommit;
 import pt.ist.fenixframework.backend.jvstm.cluster.RemoteCommit.SpeculativeRemoteCommit;
+import pt.ist.fenixframework.backend.jvstm.cluster.RemoteCommitApplier;
 
 public class ClusteredPersistentTransaction extends PersistentTransaction {
 
@@ -119,6 +124,9 @@ public class ClusteredPersistentTransaction extends PersistentTransaction {
     released */
     private static int debug_hazelcast_last_commit_seen = Transaction.getMostRecentCommitedNumber();
 
+    // the maximum number of remote commits applied as a single record
+    private static final int MAX_REMOTE_COMMITS_PER_BATCH = 256;
+
     /* this method only returns after having applied all remote commits up until
     the mostRecentGlobalTxNum. This way we ensure that no earlier remote commit
     is missing, which would cause us to commit a wrong tx version */
@@ -146,41 +154,52 @@ public class ClusteredPersistentTransaction extends PersistentTransaction {
         return currentCommitRecord;
     }
 
-    /* this method tries to apply as many remote commits as it finds in the queue. if it fails to get the lock it returns without doing anything */
+    /* Remote commits are applied by the RemoteCommitApplier thread, so a
+    starting transaction does not wait for the queue to be drained: it just
+    begins in the most recent version applied so far. */
     public static ActiveTransactionsRecord tryToApplyRemoteCommits(ActiveTransactionsRecord record) {
-        logger.debug("Try to apply remote commits if any.");
-        // avoid locking if queue is empty
-        if (ClusterUtils.getRemoteCommits().isEmpty()) {
-//            logger.debug("No remote commits to apply. Great.");
-            /* we need to always return the most recent committed number:
-
-            - if inside a commit (already holding the commit lock), this ensures
-            that we're able to detect record advances caused by the processing
-            of the remote commits queue (e.g. while we were waiting to acquire
-            the global lock) 
-            
-            - if starting a new transaction, it attempts to improve on the version
-            we see (here it would be acceptable to just return the record had)
-            */
-            return findActiveRecordForNumber(record, Transaction.getMostRecentCommitedNumber());
-        }
+        /* we need to always return the most recent committed number:
 
-//        COMMIT_LOCK.lock(); // change to tryLock to allow the starting transactions to begin without waiting for a long commit (which in fact may already have processed the queue :-))  
-        if (COMMIT_LOCK.tryLock()) {
-            try {
-                return applyRemoteCommits(record);
-            } finally {
-                COMMIT_LOCK.unlock();
-            }
-        } else {
-            return findActiveRecordForNumber(record, Transaction.getMostRecentCommitedNumber());
+        - if inside a commit (already holding the commit lock), this ensures
+        that we're able to detect record advances caused by the processing
+        of the remote commits queue (e.g. while we were waiting to acquire
+        the global lock) 
+
+        - if starting a new transaction, it attempts to improve on the version
+        we see (here it would be acceptable to just return the record had)
+        */
+        return findActiveRecordForNumber(record, Transaction.getMostRecentCommitedNumber());
+    }
+
+    /**
+     * Applies all the remote commits that are waiting in the queue. Invoked by the {@link RemoteCommitApplier}.
+     */
+    public static void applyPendingRemoteCommits() {
+        COMMIT_LOCK.lock();
+        try {
+            drainRemoteCommits();
+        } finally {
+            COMMIT_LOCK.unlock();
         }
     }
 
     // must be called while holding the local commit lock
     private static ActiveTransactionsRecord applyRemoteCommits(ActiveTransactionsRecord record) {
+        return findActiveRecordForNumber(record, drainRemoteCommits());
+    }
+
+    /* Drains the queue in batches.  All the commits in a batch are applied as a
+    single record with the number of the last one: no transaction in this node
+    can see the versions in between, so each box written in the batch needs only
+    one new version.  Returns the most recent committed number. Must be called
+    while holding the local commit lock. */
+    private static int drainRemoteCommits() {
         int currentCommittedNumber = Transaction.getMostRecentCommitedNumber();
 
+        Set<String> batchIds = new LinkedHashSet<String>();
+        int batchSize = 0;
+        int batchTxNumber = currentCommittedNumber;
+
         RemoteCommit remoteCommit;
         while ((remoteCommit = ClusterUtils.getRemoteCommits().poll()) != null) {
             int txNum = remoteCommit.getTxNumber();
@@ -190,8 +209,8 @@ public class ClusteredPersistentTransaction extends PersistentTransaction {
             established, but the most recent committed version hasn't been
             initialized yet.  When it gets initialized, it is typically to
             a greater value than the one from the txs that are enqueued. */
-            if (txNum <= currentCommittedNumber) {
-                logger.info("Ignoring outdated remote commit txNum={} <= mostRecentNum={}.", txNum, currentCommittedNumber);
+            if (txNum <= batchTxNumber) {
+                logger.info("Ignoring outdated remote commit txNum={} <= mostRecentNum={}.", txNum, batchTxNumber);
                 continue;
             }
 
@@ -200,31 +219,35 @@ public class ClusteredPersistentTransaction extends PersistentTransaction {
                 System.exit(-1);
                 throw new Error("Inconsistent remote commit. This should not happen");
             } else {
-                logger.debug("remove me :-)");
                 debug_hazelcast_last_commit_seen = txNum;
             }
-            applyRemoteCommit(remoteCommit);
-            currentCommittedNumber = remoteCommit.getTxNumber();
+
+            logger.debug("Batching remote commit: serverId={}, txNumber={}", remoteCommit.getServerId(), txNum);
+            Collections.addAll(batchIds, remoteCommit.getIds());
+            batchTxNumber = txNum;
+
+            if (++batchSize == MAX_REMOTE_COMMITS_PER_BATCH) {
+                applyRemoteCommits(batchIds, batchTxNumber);
+                batchIds.clear();
+                batchSize = 0;
+            }
         }
 
-        return findActiveRecordForNumber(record, currentCommittedNumber);
+        if (batchSize > 0) {
+            applyRemoteCommits(batchIds, batchTxNumber);
+        }
+
+        return batchTxNumber;
     }
 
     // within commit lock
-    private static void applyRemoteCommit(RemoteCommit remoteCommit) {
-        int serverId = remoteCommit.getServerId();
-        int txNumber = remoteCommit.getTxNumber();
-
-        logger.debug("Applying remote commit: serverId={}, txNumber={}", serverId, txNumber);
+    private static void applyRemoteCommits(Set<String> vboxIds, int txNumber) {
+        logger.debug("Applying remote commits up to txNumber={}", txNumber);
 
+        JvstmClusterBackEnd backEnd = (JvstmClusterBackEnd) FenixFramework.getConfig().getBackEnd();
         Cons<VBoxBody> newBodies = Cons.empty();
 
-        int size = remoteCommit.getIds().length;
-        for (int i = 0; i < size; i++) {
-            String vboxId = remoteCommit.getIds()[i];
-
-            JvstmClusterBackEnd backEnd = (JvstmClusterBackEnd) FenixFramework.getConfig().getBackEnd();
-
+        for (String vboxId : vboxIds) {
             VBox vbox = backEnd.lookupCachedVBox(vboxId);
 
             /* if the vbox is not found (not cached or reachable from a domain object), we don't need to update its
@@ -9,6 +9,7 @@ package pt.ist.fenixframework.backend.jvstm;
 
 import pt.ist.fenixframework.Config;
 import pt.ist.fenixframework.ConfigError;
+import pt.ist.fenixframework.backend.jvstm.repository.LogRepository;
 import pt.ist.fenixframework.hibernatesearch.HibernateSearchConfig;
 
 /**
@@ -21,8 +22,126 @@ public class JVSTMConfig extends HibernateSearchConfig {
 
     private static final String FAILED_INIT = "Failed to initialize Backend";
 
+    /**
+     * This <strong>optional</strong> parameter specifies the directory of a local write-ahead log in which to persist the domain
+     * (see {@link LogRepository}). It only applies to this backend, not to the backends that extend it. There is no default
+     * value for this parameter, so by default the domain is not persisted.
+     */
+    protected String logDirectory = null;
+
+    /**
+     * This <strong>optional</strong> parameter specifies when the write-ahead log is forced to disk: <code>commit</code>,
+     * <code>interval</code> or <code>none</code> (see {@link LogRepository.SyncPolicy}). The default value for this parameter
+     * is <code>commit</code>.
+     */
+    protected LogRepository.SyncPolicy logSyncPolicy = LogRepository.SyncPolicy.COMMIT;
+
+    /**
+     * This <strong>optional</strong> parameter specifies the interval, in milliseconds, between forces of the write-ahead log,
+     * when <code>logSyncPolicy</code> is <code>interval</code>. The default value for this parameter is <code>100</code>.
+     */
+    protected int logSyncInterval = 100;
+
+    /**
+     * This <strong>optional</strong> parameter specifies the size, in megabytes, of each segment of the write-ahead log. It must
+     * be between 1 and 1024. The default value for this parameter is <code>64</code>.
+     */
+    protected int logSegmentSize = 64;
+
+    /**
+     * This <strong>optional</strong> parameter specifies the interval, in seconds, between checkpoints of the write-ahead log. A
+     * value of <code>0</code> disables checkpoints, so the log grows forever. The default value for this parameter is
+     * <code>300</code>.
+     */
+    protected int logCheckpointInterval = 300;
+
+    /**
+     * This <strong>optional</strong> parameter specifies whether the changes of committed transactions are persisted to the
+     * write-ahead log in the background, in commit order and in batches, instead of during the commit. Commits then return
+     * before their changes are durable, and {@link JVSTMTransaction#getDurability()} tells when they are. A crash may lose
+     * transactions that were already committed in memory. The default value for this parameter is <code>false</code>.
+     */
+    protected boolean asyncPersistence = false;
+
+    /**
+     * This <strong>optional</strong> parameter specifies the maximum number of committed transactions whose changes may be
+     * waiting to be persisted, when <code>asyncPersistence</code> is enabled. Further commits wait until the changes catch up.
+     * The default value for this parameter is <code>1000</code>.
+     */
+    protected int asyncPersistenceMaxPending = 1000;
+
     protected JVSTMBackEnd backEnd;
 
+    protected void logSyncPolicyFromString(String value) {
+        try {
+            logSyncPolicy = LogRepository.SyncPolicy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ConfigError(e);
+        }
+    }
+
+    protected void logSyncIntervalFromString(String value) {
+        logSyncInterval = parseInt(value);
+    }
+
+    protected void logSegmentSizeFromString(String value) {
+        logSegmentSize = parseInt(value);
+        if (logSegmentSize < 1 || logSegmentSize > 1024) {
+            throw new ConfigError("logSegmentSize must be between 1 and 1024, but was ", value);
+        }
+    }
+
+    protected void logCheckpointIntervalFromString(String value) {
+        logCheckpointInterval = parseInt(value);
+    }
+
+    protected void asyncPersistenceFromString(String value) {
+        asyncPersistence = Boolean.parseBoolean(value);
+    }
+
+    protected void asyncPersistenceMaxPendingFromString(String value) {
+        asyncPersistenceMaxPending = parseInt(value);
+        if (asyncPersistenceMaxPending < 1) {
+            throw new ConfigError("asyncPersistenceMaxPending must be positive, but was ", value);
+        }
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigError(e);
+        }
+    }
+
+    public String getLogDirectory() {
+        return logDirectory;
+    }
+
+    public LogRepository.SyncPolicy getLogSyncPolicy() {
+        return logSyncPolicy;
+    }
+
+    public int getLogSyncInterval() {
+        return logSyncInterval;
+    }
+
+    public int getLogSegmentSize() {
+        return logSegmentSize;
+    }
+
+    public int getLogCheckpointInterval() {
+        return logCheckpointInterval;
+    }
+
+    public boolean getAsyncPersistence() {
+        return asyncPersistence;
+    }
+
+    public int getAsyncPersistenceMaxPending() {
+        return asyncPersistenceMaxPending;
+    }
+
     /**
      * Subclasses of this config should set their own backEnd before calling this init. Otherwise, this method will set its own
      * backEnd (JVSTMBackEnd)
@@ -38,7 +157,7 @@ public class JVSTMConfig extends HibernateSearchConfig {
         // the configuration parameters, thus it may not be possible to create the
         // BackEnd instance.
         if (backEnd == null) {
-            this.backEnd = new JVSTMBackEnd();
+            this.backEnd = (logDirectory == null) ? new JVSTMBackEnd() : new JVSTMLogBackEnd();
         }
 
         try {
@@ -0,0 +1,77 @@
+/*
+ * Fenix Framework, a framework to develop Java Enterprise Applications.
+ *
+ * Copyright (C) 2013 Fenix Framework Team and/or its affiliates and other contributors as indicated by the @author tags.
+ *
+ * This file is part of the Fenix Framework.  Read the file COPYRIGHT.TXT for more copyright and licensing information.
+ */
+package pt.ist.fenixframework.backend.jvstm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.backend.jvstm.pstm.OwnedVBox;
+import pt.ist.fenixframework.backend.jvstm.pstm.PersistencePipeline;
+import pt.ist.fenixframework.backend.jvstm.pstm.PersistentReadOnlyTransaction;
+import pt.ist.fenixframework.backend.jvstm.pstm.PersistentTransaction;
+import pt.ist.fenixframework.backend.jvstm.pstm.VBox;
+import pt.ist.fenixframework.backend.jvstm.repository.LogRepository;
+
+/**
+ * The JVSTM backend persisted in a local write-ahead log. The {@link JVSTMConfig} uses it when a <code>logDirectory</code> is
+ * given.
+ */
+public class JVSTMLogBackEnd extends JVSTMBackEnd {
+
+    private static final Logger logger = LoggerFactory.getLogger(JVSTMLogBackEnd.class);
+
+    private PersistencePipeline pipeline = null;
+
+    JVSTMLogBackEnd() {
+        super(new LogRepository());
+    }
+
+    @Override
+    public void init(JVSTMConfig jvstmConfig) {
+        super.init(jvstmConfig);
+
+        if (jvstmConfig.getAsyncPersistence()) {
+            pipeline = PersistencePipeline.startPipeline(getRepository(), jvstmConfig.getAsyncPersistenceMaxPending());
+            logger.info("Started persistence pipeline");
+        }
+    }
+
+    @Override
+    protected void initializeTransactionFactory() {
+        jvstm.Transaction.setTransactionFactory(new jvstm.TransactionFactory() {
+            @Override
+            public jvstm.Transaction makeTopLevelTransaction(jvstm.ActiveTransactionsRecord record) {
+                logger.debug("Creating a new top-level transaction");
+                return new PersistentTransaction(record);
+            }
+
+            @Override
+            public jvstm.Transaction makeReadOnlyTopLevelTransaction(jvstm.ActiveTransactionsRecord record) {
+                logger.debug("Creating a new top-level READ-ONLY transaction");
+                return new PersistentReadOnlyTransaction(record);
+            }
+        });
+    }
+
+    @Override
+    public VBox lookupCachedVBox(String vboxId) {
+        return OwnedVBox.lookupCachedVBox(vboxId);
+    }
+
+    @Override
+    public void shutdown() {
+        if (pipeline != null) {
+            // the pending changes must reach the log before it is closed
+            pipeline.stopPipeline();
+            pipeline = null;
+        }
+        getRepository().closeRepository();
+        super.shutdown();
+    }
+
+}
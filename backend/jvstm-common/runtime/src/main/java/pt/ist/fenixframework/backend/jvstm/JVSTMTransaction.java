@@ -1,5 +1,7 @@
 package pt.ist.fenixframework.backend.jvstm;
 
+import java.util.concurrent.Future;
+
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
 import javax.transaction.RollbackException;
@@ -8,6 +10,8 @@ import javax.transaction.SystemException;
 import jvstm.CommitException;
 import jvstm.Transaction;
 import pt.ist.fenixframework.backend.jvstm.pstm.JvstmInFenixTransaction;
+import pt.ist.fenixframework.backend.jvstm.pstm.PersistencePipeline;
+import pt.ist.fenixframework.backend.jvstm.pstm.PersistentTransaction;
 import pt.ist.fenixframework.core.AbstractTransaction;
 import pt.ist.fenixframework.core.TransactionError;
 import pt.ist.fenixframework.txintrospector.TxStats;
@@ -39,6 +43,18 @@ public class JVSTMTransaction extends AbstractTransaction {
         return underlyingTransaction.txAllowsWrite();
     }
 
+    /**
+     * Get a future that completes once the changes of this transaction are durable. It only makes a difference when persistence
+     * is asynchronous (see {@link JVSTMConfig#getAsyncPersistence()}). Otherwise, the future is already complete once the
+     * transaction commits.
+     */
+    public Future<Void> getDurability() {
+        if (underlyingTransaction instanceof PersistentTransaction) {
+            return ((PersistentTransaction) underlyingTransaction).getDurability();
+        }
+        return PersistencePipeline.durabilityOf(0);
+    }
+
     // AbstractTransaction implementations
 
     @Override
@@ -6,12 +6,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import pt.ist.fenixframework.DomainRoot;
 import pt.ist.fenixframework.backend.jvstm.JVSTMBackEnd;
+import pt.ist.fenixframework.backend.jvstm.repository.CounterLeasingRepository;
+import pt.ist.fenixframework.backend.jvstm.repository.Repository;
 import pt.ist.fenixframework.core.AbstractDomainObject;
 import pt.ist.fenixframework.dml.DomainClass;
 import pt.ist.fenixframework.dml.DomainModel;
@@ -180,15 +183,18 @@ public class DomainClassInfo implements Serializable {
         DomainClassInfo info = classInfoMap.get(objClass);
         long oid;
 
-        synchronized (info) {
-            int lastKey = info.getLastKey();
-            if (lastKey == UNKNOWN_KEY) {  // not yet initialized from the persistent storage
-                lastKey = getLastKeyFor(info);
-                logger.debug("Initialize last used counter for class {}: {}", info.domainClassName, lastKey);
+        /* keys are handed out with a CAS on lastKey, within the current limit.
+        Only when the limit is reached do threads synchronize on info, to
+        obtain more keys.  Keys always increase, so the CAS fails if someone
+        else moved lastKey in the meanwhile, be it to a new block or not. */
+        while (true) {
+            int lastKey = info.lastKey.get();
+            if (lastKey >= info.keyLimit) {
+                obtainMoreKeys(info);
+            } else if (info.lastKey.compareAndSet(lastKey, lastKey + 1)) {
+                nextKey = lastKey + 1;
+                break;
             }
-
-            nextKey = lastKey + 1;
-            info.setLastKey(nextKey);
         }
 
         // build the OID
@@ -214,6 +220,31 @@ public class DomainClassInfo implements Serializable {
         return oid;
     }
 
+    private static void obtainMoreKeys(DomainClassInfo info) throws Exception {
+        synchronized (info) {
+            if (info.lastKey.get() < info.keyLimit) {
+                // someone else got here first
+                return;
+            }
+
+            Repository repository = JVSTMBackEnd.getInstance().getRepository();
+            if (repository instanceof CounterLeasingRepository) {
+                int firstKey = ((CounterLeasingRepository) repository).leaseCountersForClass(info, KEY_BLOCK_SIZE);
+                logger.debug("Leased counters for class {}: [{}, {}[", info.domainClassName, firstKey, firstKey
+                        + KEY_BLOCK_SIZE);
+                // lastKey must be set before keyLimit. See getNextOidFor()
+                info.lastKey.set(firstKey - 1);
+                info.keyLimit = firstKey - 1 + KEY_BLOCK_SIZE;
+            } else {
+                // not yet initialized from the persistent storage
+                int lastKey = getLastKeyFor(info);
+                logger.debug("Initialize last used counter for class {}: {}", info.domainClassName, lastKey);
+                info.lastKey.set(lastKey);
+                info.keyLimit = Integer.MAX_VALUE;
+            }
+        }
+    }
+
     /* Invocations to this method should be synchronized in the <code>info</code> argument */
     private static int getLastKeyFor(DomainClassInfo info) throws Exception {
         int maxCounter = JVSTMBackEnd.getInstance().getRepository().getMaxCounterForClass(info);
@@ -223,13 +254,18 @@ public class DomainClassInfo implements Serializable {
 
     private static final int UNKNOWN_KEY = 0;
 
+    // the number of keys leased at a time, from a CounterLeasingRepository
+    private static final int KEY_BLOCK_SIZE = 10000;
+
     // the non-static part starts here
 
     public final String domainClassName;
     public final transient Class<? extends AbstractDomainObject> domainClass;
     public final int classId;
     /** The maximum object key used for objects of this class in this server */
-    private transient int lastKey = UNKNOWN_KEY;
+    private final transient AtomicInteger lastKey = new AtomicInteger(UNKNOWN_KEY);
+    /** The maximum object key that this server may use, before obtaining more keys */
+    private transient volatile int keyLimit = UNKNOWN_KEY;
 
     public DomainClassInfo(Class<? extends AbstractDomainObject> domainClass, int classId) {
         this(domainClass.getName(), domainClass, classId);
@@ -246,11 +282,7 @@ public class DomainClassInfo implements Serializable {
     }
 
     public int getLastKey() {
-        return this.lastKey;
-    }
-
-    private void setLastKey(int lastKey) {
-        this.lastKey = lastKey;
+        return this.lastKey.get();
     }
 
     // serialization code
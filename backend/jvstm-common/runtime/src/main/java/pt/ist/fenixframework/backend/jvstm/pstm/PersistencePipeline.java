@@ -0,0 +1,314 @@
+/*
+ * Fenix Framework, a framework to develop Java Enterprise Applications.
+ *
+ * Copyright (C) 2013 Fenix Framework Team and/or its affiliates and other contributors as indicated by the @author tags.
+ *
+ * This file is part of the Fenix Framework.  Read the file COPYRIGHT.TXT for more copyright and licensing information.
+ */
+package pt.ist.fenixframework.backend.jvstm.pstm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.backend.jvstm.repository.BatchingRepository;
+import pt.ist.fenixframework.backend.jvstm.repository.PersistenceException;
+import pt.ist.fenixframework.backend.jvstm.repository.Repository;
+import pt.ist.fenixframework.util.FenixFrameworkThread;
+
+/**
+ * This thread persists the changes of committed transactions in the background, so that commits do not wait for the
+ * repository. Changes are persisted in commit order, and all the changes waiting when the thread wakes up are handed to the
+ * repository as a single batch. The {@link Future} returned by {@link #durabilityOf(int)} tells when a transaction is durable.
+ * Once the given maximum number of transactions is waiting to be persisted, commits wait for the pipeline to catch up.
+ *
+ * If the repository fails, no further changes are persisted, and transactions can no longer commit.
+ */
+public class PersistencePipeline extends FenixFrameworkThread {
+
+    private static final Logger logger = LoggerFactory.getLogger(PersistencePipeline.class);
+
+    private static final Future<Void> DONE = new Future<Void>() {
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public Void get() {
+            return null;
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    };
+
+    private static volatile PersistencePipeline instance = null;
+
+    private final Repository repository;
+    private final int maxPending;
+
+    // guards the fields below. Not the thread itself, whose monitor is used by join()
+    private final Object lock = new Object();
+    private List<Set<Entry<jvstm.VBox, Object>>> pendingChanges = new ArrayList<Set<Entry<jvstm.VBox, Object>>>();
+    private List<Integer> pendingTxNumbers = new ArrayList<Integer>();
+    private int persistedTxNumber;
+    private Throwable failure = null;
+    private boolean stopping = false;
+    private boolean stopped = false;
+
+    protected PersistencePipeline(Repository repository, int maxPending) {
+        super("Persistence pipeline");
+        this.repository = repository;
+        this.maxPending = maxPending;
+        this.persistedTxNumber = repository.getMaxCommittedTxNumber();
+    }
+
+    public static PersistencePipeline startPipeline(Repository repository, int maxPending) {
+        PersistencePipeline pipeline = new PersistencePipeline(repository, maxPending);
+        instance = pipeline;
+        pipeline.start();
+        return pipeline;
+    }
+
+    /**
+     * Stop the pipeline once it has persisted all the changes handed over to it, and wait for that, however long it takes. The
+     * repository may only be closed afterwards.
+     */
+    public void stopPipeline() {
+        // not interrupt(), which would close the channels used by the repository
+        synchronized (lock) {
+            stopping = true;
+            lock.notifyAll();
+        }
+
+        boolean interrupted = false;
+        while (isAlive()) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void shutdown() {
+        stopPipeline();
+    }
+
+    /**
+     * Get the running pipeline.
+     *
+     * @return The pipeline, or <code>null</code> if changes are persisted synchronously
+     */
+    static PersistencePipeline getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get a future that completes once the given transaction is durable.
+     */
+    public static Future<Void> durabilityOf(int txNumber) {
+        PersistencePipeline pipeline = instance;
+        return (pipeline == null || txNumber <= 0) ? DONE : pipeline.new Durability(txNumber);
+    }
+
+    /**
+     * Hands the changes of a transaction over to the pipeline. Must be invoked in commit order. Waits while the maximum number of
+     * transactions is pending.
+     *
+     * @param changes The changes, where the <code>null</code> value stands for null
+     * @param txNumber The number of the committing transaction
+     * @return Whether the changes were accepted. They are not once the pipeline has stopped, and then the caller must persist
+     *         them itself.
+     * @throws PersistenceException If the pipeline has failed before
+     */
+    boolean enqueue(Map<jvstm.VBox, Object> changes, int txNumber) {
+        synchronized (lock) {
+            // the transaction is already committing, so it cannot give up
+            boolean interrupted = false;
+            while (pendingTxNumbers.size() >= maxPending && failure == null && !stopped) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (failure != null) {
+                throw new PersistenceException("Persistence pipeline failed before", failure);
+            }
+            if (stopped) {
+                return false;
+            }
+
+            pendingChanges.add(changes.entrySet());
+            pendingTxNumbers.add(txNumber);
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    @Override
+    public void run() {
+        logger.debug("Persistence pipeline working.");
+
+        while (true) {
+            List<Set<Entry<jvstm.VBox, Object>>> changes;
+            List<Integer> txNumbers;
+
+            synchronized (lock) {
+                while (pendingChanges.isEmpty() && !stopping) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        stopping = true;
+                    }
+                }
+                if (pendingChanges.isEmpty()) {
+                    // stopped with nothing left to persist
+                    stopped = true;
+                    instance = null;
+                    lock.notifyAll();
+                    logger.info("Persistence pipeline thread was stopped. Terminating.");
+                    return;
+                }
+
+                changes = pendingChanges;
+                txNumbers = pendingTxNumbers;
+                pendingChanges = new ArrayList<Set<Entry<jvstm.VBox, Object>>>();
+                pendingTxNumbers = new ArrayList<Integer>();
+                // wake up the commits waiting for room
+                lock.notifyAll();
+            }
+
+            if (!persist(changes, txNumbers)) {
+                return;
+            }
+        }
+    }
+
+    private boolean persist(List<Set<Entry<jvstm.VBox, Object>>> changes, List<Integer> txNumbers) {
+        try {
+            if (repository instanceof BatchingRepository) {
+                int[] numbers = new int[txNumbers.size()];
+                for (int i = 0; i < numbers.length; i++) {
+                    numbers[i] = txNumbers.get(i);
+                }
+                ((BatchingRepository) repository).persistBatch(changes, numbers, null);
+            } else {
+                for (int i = 0; i < changes.size(); i++) {
+                    repository.persistChanges(changes.get(i), txNumbers.get(i), null);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to persist the changes of transactions {} to {}. No further changes will be persisted.",
+                    txNumbers.get(0), txNumbers.get(txNumbers.size() - 1), e);
+            synchronized (lock) {
+                failure = e;
+                lock.notifyAll();
+            }
+            return false;
+        }
+
+        synchronized (lock) {
+            persistedTxNumber = txNumbers.get(txNumbers.size() - 1);
+            lock.notifyAll();
+        }
+        return true;
+    }
+
+    // waits for the given transaction to be persisted, for at most the given time (0 waits forever)
+    private boolean awaitPersisted(int txNumber, long timeoutMillis) throws InterruptedException, ExecutionException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while (persistedTxNumber < txNumber && failure == null) {
+                if (timeoutMillis == 0) {
+                    lock.wait();
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    lock.wait(remaining);
+                }
+            }
+            if (persistedTxNumber < txNumber) {
+                throw new ExecutionException(failure);
+            }
+            return true;
+        }
+    }
+
+    private boolean isPersisted(int txNumber) {
+        synchronized (lock) {
+            return persistedTxNumber >= txNumber || failure != null;
+        }
+    }
+
+    private final class Durability implements Future<Void> {
+        private final int txNumber;
+
+        Durability(int txNumber) {
+            this.txNumber = txNumber;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return isPersisted(txNumber);
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            awaitPersisted(txNumber, 0);
+            return null;
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!awaitPersisted(txNumber, Math.max(1, unit.toMillis(timeout)))) {
+                throw new TimeoutException();
+            }
+            return null;
+        }
+    }
+
+}
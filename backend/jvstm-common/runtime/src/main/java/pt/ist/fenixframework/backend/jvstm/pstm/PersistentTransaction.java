@@ -2,6 +2,8 @@ package pt.ist.fenixframework.backend.jvstm.pstm;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
 
 import jvstm.ActiveTransactionsRecord;
 import jvstm.Transaction;
@@ -30,9 +32,51 @@ public class PersistentTransaction extends ConsistentTopLevelTransaction impleme
     protected int numBoxReads = 0;
     protected int numBoxWrites = 0;
 
+    // the number of this transaction, if its changes were handed over to the PersistencePipeline
+    private volatile int persistedAsynchronously = 0;
+
+    // the number with which this transaction started, and how many running transactions started with each number
+    private final int startNumber;
+    private boolean running = true;
+    private static final TreeMap<Integer, Integer> RUNNING = new TreeMap<Integer, Integer>();
+
     public PersistentTransaction(ActiveTransactionsRecord record) {
         super(record);
         this.readOnly = false;
+        this.startNumber = record.transactionNumber;
+        synchronized (RUNNING) {
+            Integer count = RUNNING.get(startNumber);
+            RUNNING.put(startNumber, (count == null) ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Get the smallest number with which a running transaction started. The versions that such a transaction may read must
+     * remain available.
+     *
+     * @return The number, or {@link Integer#MAX_VALUE} if no transaction is running
+     */
+    public static int getOldestRunningNumber() {
+        synchronized (RUNNING) {
+            return RUNNING.isEmpty() ? Integer.MAX_VALUE : RUNNING.firstKey();
+        }
+    }
+
+    @Override
+    protected void finish() {
+        super.finish();
+        synchronized (RUNNING) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            int count = RUNNING.get(startNumber);
+            if (count == 1) {
+                RUNNING.remove(startNumber);
+            } else {
+                RUNNING.put(startNumber, count - 1);
+            }
+        }
     }
 
     @Override
@@ -80,7 +124,9 @@ public class PersistentTransaction extends ConsistentTopLevelTransaction impleme
     protected Cons<VBoxBody> doCommit(int newTxNumber) {
         Cons<VBoxBody> newBodies = Cons.empty();
 
-        JVSTMBackEnd.getInstance().getRepository().persistChanges(boxesWritten.entrySet(), newTxNumber, NULL_VALUE);
+        if (!persistAsynchronously(newTxNumber)) {
+            JVSTMBackEnd.getInstance().getRepository().persistChanges(boxesWritten.entrySet(), newTxNumber, NULL_VALUE);
+        }
 
         for (Map.Entry<jvstm.VBox, Object> entry : boxesWritten.entrySet()) {
             VBox vbox = (VBox) entry.getKey();
@@ -97,6 +143,38 @@ public class PersistentTransaction extends ConsistentTopLevelTransaction impleme
         return newBodies;
     }
 
+    /* Hands the changes over to the PersistencePipeline, if there is one. They are copied, with null in place of NULL_VALUE,
+    because the pipeline persists them after this transaction is done. */
+    private boolean persistAsynchronously(int newTxNumber) {
+        PersistencePipeline pipeline = PersistencePipeline.getInstance();
+        if (pipeline == null) {
+            return false;
+        }
+
+        Map<jvstm.VBox, Object> changes = new HashMap<jvstm.VBox, Object>(boxesWritten.size());
+        for (Map.Entry<jvstm.VBox, Object> entry : boxesWritten.entrySet()) {
+            Object value = entry.getValue();
+            changes.put(entry.getKey(), (value == NULL_VALUE) ? null : value);
+        }
+
+        if (!pipeline.enqueue(changes, newTxNumber)) {
+            return false;
+        }
+        persistedAsynchronously = newTxNumber;
+        return true;
+    }
+
+    /**
+     * Get a future that completes once the changes of this transaction are durable. When persistence is asynchronous, the
+     * commit returns before that, and clients that need durability can wait on this future. Otherwise, the future is already
+     * complete once the transaction commits.
+     *
+     * @return The future, which is only meaningful after the transaction commits
+     */
+    public Future<Void> getDurability() {
+        return PersistencePipeline.durabilityOf(persistedAsynchronously);
+    }
+
     public void setInPast(int newTxNumber) {
         setNumber(newTxNumber);
     }
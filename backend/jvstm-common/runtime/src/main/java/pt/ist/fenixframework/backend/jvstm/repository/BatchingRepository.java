@@ -0,0 +1,30 @@
+/*
+ * Fenix Framework, a framework to develop Java Enterprise Applications.
+ *
+ * Copyright (C) 2013 Fenix Framework Team and/or its affiliates and other contributors as indicated by the @author tags.
+ *
+ * This file is part of the Fenix Framework.  Read the file COPYRIGHT.TXT for more copyright and licensing information.
+ */
+package pt.ist.fenixframework.backend.jvstm.repository;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * A {@link Repository} that can persist the changes of several consecutive transactions at once, making them durable together
+ * instead of one at a time.
+ */
+public interface BatchingRepository extends Repository {
+
+    /**
+     * Stores persistently the changes of several consecutive transactions. Each transaction must still be stored as a separate
+     * version, in the given order, as if by one invocation of {@link #persistChanges(Set, int, Object)} each.
+     *
+     * @param changes The changes of each transaction, in commit order
+     * @param txNumbers The number of each transaction
+     * @param nullObject The reference used by the stm to represent null objects
+     */
+    public void persistBatch(List<Set<Entry<jvstm.VBox, Object>>> changes, int[] txNumbers, Object nullObject);
+
+}
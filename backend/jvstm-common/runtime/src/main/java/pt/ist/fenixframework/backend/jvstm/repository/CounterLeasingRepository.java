@@ -0,0 +1,29 @@
+/*
+ * Fenix Framework, a framework to develop Java Enterprise Applications.
+ *
+ * Copyright (C) 2013 Fenix Framework Team and/or its affiliates and other contributors as indicated by the @author tags.
+ *
+ * This file is part of the Fenix Framework.  Read the file COPYRIGHT.TXT for more copyright and licensing information.
+ */
+package pt.ist.fenixframework.backend.jvstm.repository;
+
+import pt.ist.fenixframework.backend.jvstm.pstm.DomainClassInfo;
+
+/**
+ * A {@link Repository} that hands out the object counters of each class in blocks. The framework then generates OIDs from
+ * the leased block without going to the repository, and the repository never needs to be informed of each new OID.
+ */
+public interface CounterLeasingRepository extends Repository {
+
+    /**
+     * Leases a new block of counters for the given domain class in this server. The counters in the block must be greater
+     * than any counter previously leased or stored for the class, even across restarts.
+     *
+     * @param domainClassInfo The information about the class for which the counters are leased.
+     * @param blockSize The number of counters to lease.
+     * @return The first counter of the leased block. The block spans from this value up to (but excluding) this value plus
+     *         <code>blockSize</code>.
+     */
+    public int leaseCountersForClass(DomainClassInfo domainClassInfo, int blockSize);
+
+}
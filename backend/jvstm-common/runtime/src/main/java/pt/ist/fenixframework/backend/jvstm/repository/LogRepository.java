@@ -0,0 +1,1012 @@
+/*
+ * Fenix Framework, a framework to develop Java Enterprise Applications.
+ *
+ * Copyright (C) 2013 Fenix Framework Team and/or its affiliates and other contributors as indicated by the @author tags.
+ *
+ * This file is part of the Fenix Framework.  Read the file COPYRIGHT.TXT for more copyright and licensing information.
+ */
+package pt.ist.fenixframework.backend.jvstm.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import jvstm.VBoxBody;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.backend.jvstm.JVSTMConfig;
+import pt.ist.fenixframework.backend.jvstm.pstm.DomainClassInfo;
+import pt.ist.fenixframework.backend.jvstm.pstm.PersistentTransaction;
+import pt.ist.fenixframework.backend.jvstm.pstm.VBox;
+import pt.ist.fenixframework.backend.jvstm.pstm.VersionedValue;
+import pt.ist.fenixframework.core.Externalization;
+import pt.ist.fenixframework.util.FenixFrameworkThread;
+
+/**
+ * This class implements the Repository interface using a local write-ahead log, so that a single node keeps its domain
+ * durably without any external data store.
+ *
+ * The log is a sequence of segment files, to which the write set of each committed transaction is appended as a single
+ * record. An in-memory index maps the id of each box to the location of its versions in the log, and reloads read the values
+ * from there. Segments that are no longer being written are memory-mapped.
+ *
+ * When the log is forced to disk depends on the {@link SyncPolicy}. Committers that wait for the log to be forced share a
+ * single force of everything appended so far (group commit), and so do the transactions of a batch.
+ *
+ * A checkpoint periodically writes the latest value of each box to a checkpoint file and deletes the segments that it covers.
+ * Older versions are only kept as long as a running transaction may read them. At startup, the repository loads
+ * the last checkpoint and replays the segments after it. An incomplete record at the end of the log, left by a crash, is
+ * discarded.
+ */
+public class LogRepository implements CounterLeasingRepository, BatchingRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogRepository.class);
+
+    /**
+     * When the log is forced to disk.
+     */
+    public static enum SyncPolicy {
+        /** Before each commit returns. Concurrent commits share the same force. */
+        COMMIT,
+        /** Periodically, in the background. A crash loses at most the commits of the last interval. */
+        INTERVAL,
+        /** Never. This is left to the operating system. */
+        NONE
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".ckp";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // the types of records
+    private static final byte COMMIT = 1;
+    private static final byte CLASS_INFOS = 2;
+    private static final byte COUNTER = 3;
+
+    // the length and the checksum of the payload
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    // the maximum number of values in each record of a checkpoint
+    private static final int VALUES_PER_CHECKPOINT_RECORD = 1000;
+
+    private File directory;
+    private SyncPolicy syncPolicy;
+    private long segmentSize;
+
+    // guards the appends to the log, and the list of segments
+    private final Object appendLock = new Object();
+    // guards the forces of the log
+    private final Object syncLock = new Object();
+    // only one checkpoint at a time
+    private final Object checkpointLock = new Object();
+
+    private Segment activeSegment;
+    private final List<Segment> sealedSegments = new ArrayList<Segment>();
+    private Segment checkpoint = null;
+
+    // positions count the bytes appended since startup, across segments
+    private long appendedPosition = 0;
+    private volatile long durablePosition = 0;
+    private long positionAtLastCheckpoint = 0;
+
+    // the versions of each box, from the most recent to the oldest
+    private final ConcurrentHashMap<String, Version> index = new ConcurrentHashMap<String, Version>();
+
+    private volatile DomainClassInfo[] domainClassInfos = new DomainClassInfo[0];
+    // the greatest counter leased for each class id
+    private final Map<Integer, Integer> maxCounters = new HashMap<Integer, Integer>();
+    private volatile int maxCommittedTxNumber = 0;
+
+    /* implementation of the Repository interface */
+
+    @Override
+    public boolean init(JVSTMConfig jvstmConfig) {
+        this.directory = new File(jvstmConfig.getLogDirectory());
+        this.syncPolicy = jvstmConfig.getLogSyncPolicy();
+        this.segmentSize = jvstmConfig.getLogSegmentSize() * 1024L * 1024L;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new PersistenceException("Could not create the log directory " + directory);
+        }
+
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new PersistenceException("Could not recover the log in " + directory, e);
+        }
+
+        if (syncPolicy == SyncPolicy.INTERVAL) {
+            new SyncThread(jvstmConfig.getLogSyncInterval()).start();
+        }
+        if (jvstmConfig.getLogCheckpointInterval() > 0) {
+            new CheckpointThread(jvstmConfig.getLogCheckpointInterval()).start();
+        }
+
+        // the DomainRoot is created by the first commit ever
+        return maxCommittedTxNumber == 0;
+    }
+
+    @Override
+    public DomainClassInfo[] getDomainClassInfos() {
+        return domainClassInfos;
+    }
+
+    @Override
+    public synchronized void storeDomainClassInfos(DomainClassInfo[] newDomainClassInfos) {
+        if (newDomainClassInfos == null || newDomainClassInfos.length == 0) {
+            return;
+        }
+
+        DomainClassInfo[] stored = domainClassInfos;
+        DomainClassInfo[] all = new DomainClassInfo[stored.length + newDomainClassInfos.length];
+        System.arraycopy(stored, 0, all, 0, stored.length);
+        System.arraycopy(newDomainClassInfos, 0, all, stored.length, newDomainClassInfos.length);
+
+        appendAndSync(makeClassInfosPayload(all));
+        domainClassInfos = all;
+    }
+
+    @Override
+    public int getMaxCounterForClass(DomainClassInfo domainClassInfo) {
+        synchronized (maxCounters) {
+            Integer max = maxCounters.get(domainClassInfo.classId);
+            return max == null ? -1 : max;
+        }
+    }
+
+    @Override
+    public void updateMaxCounterForClass(DomainClassInfo domainClassInfo, int newCounterValue) {
+        // no-op: counters are leased in blocks
+    }
+
+    @Override
+    public int leaseCountersForClass(DomainClassInfo domainClassInfo, int blockSize) {
+        synchronized (maxCounters) {
+            Integer max = maxCounters.get(domainClassInfo.classId);
+            int firstKey = (max == null ? 0 : max) + 1;
+            int newMax = firstKey - 1 + blockSize;
+
+            // the lease must be durable before any of its counters is used
+            appendAndSync(makeCounterPayload(domainClassInfo.classId, newMax));
+            maxCounters.put(domainClassInfo.classId, newMax);
+            return firstKey;
+        }
+    }
+
+    // reloads a primitive value from the storage for the specified box
+    @Override
+    public void reloadPrimitiveAttribute(VBox box) {
+        reloadAttribute(box);
+    }
+
+    // reloads a reference attribute from the storage for the specified box
+    @Override
+    public void reloadReferenceAttribute(VBox box) {
+        reloadAttribute(box);
+    }
+
+    @Override
+    public void reloadAttribute(VBox box) {
+        int txNumber = jvstm.Transaction.current().getNumber();
+        box.mergeVersions(getMostRecentVersions(box, txNumber));
+    }
+
+    @Override
+    public void reloadAttributeSingleVersion(VBox box, VBoxBody body) {
+        for (Version version = index.get(box.getId()); version != null && version.version >= body.version; version =
+                version.previous) {
+            if (version.version == body.version) {
+                List<VersionedValue> vvalues = new ArrayList<VersionedValue>(1);
+                vvalues.add(new VersionedValue(version.readValue(), version.version));
+                box.mergeVersions(vvalues);
+                return;
+            }
+        }
+        throw new PersistenceException("Version " + body.version + " of vbox " + box.getId() + " not found");
+    }
+
+    // stores persistently a set of changes
+    // the third arguments represents the reference used by the stm to represent null objects.
+    @Override
+    public void persistChanges(Set<Entry<jvstm.VBox, Object>> changes, int txNumber, Object nullObject) {
+        CommitRecord record = makeCommitRecord(changes, txNumber, nullObject);
+
+        long position;
+        synchronized (appendLock) {
+            appendCommitRecord(record);
+            position = appendedPosition;
+        }
+
+        if (syncPolicy == SyncPolicy.COMMIT) {
+            syncUpTo(position);
+        }
+    }
+
+    @Override
+    public void persistBatch(List<Set<Entry<jvstm.VBox, Object>>> changes, int[] txNumbers, Object nullObject) {
+        List<CommitRecord> records = new ArrayList<CommitRecord>(changes.size());
+        for (int i = 0; i < txNumbers.length; i++) {
+            records.add(makeCommitRecord(changes.get(i), txNumbers[i], nullObject));
+        }
+
+        long position;
+        synchronized (appendLock) {
+            for (CommitRecord record : records) {
+                appendCommitRecord(record);
+            }
+            position = appendedPosition;
+        }
+
+        if (syncPolicy == SyncPolicy.COMMIT) {
+            syncUpTo(position);
+        }
+    }
+
+    // the greatest committed transaction number, as read from the tail of the log at startup
+    @Override
+    public int getMaxCommittedTxNumber() {
+        return maxCommittedTxNumber;
+    }
+
+    @Override
+    public void closeRepository() {
+        logger.info("closeRepository()");
+
+        synchronized (appendLock) {
+            try {
+                activeSegment.close();
+            } catch (IOException e) {
+                throw new PersistenceException(e);
+            }
+            for (Segment segment : sealedSegments) {
+                segment.close();
+            }
+        }
+    }
+
+    /**
+     * Write the latest value of each box to a new checkpoint, and delete the log segments that it covers. The older versions
+     * that running transactions may still read are written too. This is invoked periodically in the background, so
+     * applications should not need to invoke it.
+     *
+     * @throws IOException If the checkpoint could not be written. The log remains as it was.
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            long checkpointSeq;
+            int txNumber;
+            int oldestReadable;
+            List<Segment> covered;
+            Segment previousCheckpoint;
+
+            synchronized (appendLock) {
+                if (appendedPosition == positionAtLastCheckpoint) {
+                    logger.debug("Nothing was appended to the log since the last checkpoint");
+                    return;
+                }
+                positionAtLastCheckpoint = appendedPosition;
+
+                // the checkpoint covers everything before the new segment
+                rollSegment();
+                checkpointSeq = activeSegment.seq;
+                txNumber = maxCommittedTxNumber;
+                // transactions that start from now on read the latest covered versions
+                oldestReadable = Math.min(PersistentTransaction.getOldestRunningNumber(), txNumber);
+                covered = new ArrayList<Segment>(sealedSegments);
+                previousCheckpoint = checkpoint;
+            }
+
+            long start = System.currentTimeMillis();
+            File file = makeFile(CHECKPOINT_PREFIX, checkpointSeq, CHECKPOINT_SUFFIX);
+            Segment newCheckpoint = new Segment(checkpointSeq - 1, file);
+            Map<String, Version> checkpointed = writeCheckpoint(newCheckpoint, checkpointSeq, txNumber, oldestReadable);
+            newCheckpoint.map();
+
+            // point the index to the checkpoint, instead of the covered segments
+            for (Entry<String, Version> entry : checkpointed.entrySet()) {
+                String vboxId = entry.getKey();
+                while (true) {
+                    Version current = index.get(vboxId);
+                    if (index.replace(vboxId, current, replaceCovered(current, checkpointSeq, entry.getValue()))) {
+                        break;
+                    }
+                }
+            }
+
+            synchronized (appendLock) {
+                sealedSegments.removeAll(covered);
+                checkpoint = newCheckpoint;
+            }
+            for (Segment segment : covered) {
+                segment.delete();
+            }
+            if (previousCheckpoint != null) {
+                previousCheckpoint.delete();
+            }
+
+            logger.info("Wrote checkpoint of {} values up to transaction {} in {}ms", checkpointed.size(), txNumber,
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    /* utility methods used by the implementation of the Repository interface methods */
+
+    List<VersionedValue> getMostRecentVersions(VBox vbox, int desiredVersion) {
+        ArrayList<VersionedValue> result = new ArrayList<VersionedValue>();
+
+        for (Version version = index.get(vbox.getId()); version != null; version = version.previous) {
+            result.add(new VersionedValue(version.readValue(), version.version));
+
+            if (version.version <= desiredVersion) {
+                return result;
+            }
+        }
+        throw new PersistenceException("Version of vbox " + vbox.getId() + " not found for transaction number "
+                + desiredVersion);
+    }
+
+    private static CommitRecord makeCommitRecord(Set<Entry<jvstm.VBox, Object>> changes, int txNumber, Object nullObject) {
+        CommitRecord record = new CommitRecord(txNumber);
+        for (Entry<jvstm.VBox, Object> entry : changes) {
+            Object newValue = entry.getValue();
+            newValue = (newValue == nullObject) ? null : newValue;
+            record.add(((VBox) entry.getKey()).getId(), txNumber, Externalization.externalizeObject(newValue));
+        }
+        return record;
+    }
+
+    // Must be invoked while holding the appendLock
+    private void appendCommitRecord(CommitRecord record) {
+        int payloadOffset = appendRecord(record.toPayload());
+        for (int i = 0; i < record.size(); i++) {
+            addVersion(record.getId(i), record.makeVersion(i, activeSegment, payloadOffset, null));
+        }
+        if (record.txNumber > maxCommittedTxNumber) {
+            maxCommittedTxNumber = record.txNumber;
+        }
+    }
+
+    private void addVersion(String vboxId, Version version) {
+        while (true) {
+            Version current = index.get(vboxId);
+            Version newVersion = new Version(version.version, version.segment, version.offset, version.length, current);
+            if (current == null ? index.putIfAbsent(vboxId, newVersion) == null : index.replace(vboxId, current, newVersion)) {
+                return;
+            }
+        }
+    }
+
+    // the versions covered by a checkpoint up to (but excluding) the given segment that may still be read, newest first: those
+    // after the given transaction number, and the one that a transaction with that number reads
+    private static List<Version> findCovered(Version version, long seq, int oldestReadable) {
+        while (version != null && version.segment.seq >= seq) {
+            version = version.previous;
+        }
+
+        List<Version> covered = new ArrayList<Version>();
+        for (; version != null; version = version.previous) {
+            covered.add(version);
+            if (version.version <= oldestReadable) {
+                break;
+            }
+        }
+        return covered;
+    }
+
+    // keep the versions that are not covered by the checkpoint, followed by the checkpointed one
+    private static Version replaceCovered(Version version, long seq, Version replacement) {
+        if (version == null || version.segment.seq < seq) {
+            return replacement;
+        }
+        return new Version(version.version, version.segment, version.offset, version.length, replaceCovered(version.previous, seq,
+                replacement));
+    }
+
+    // Must be invoked while holding the appendLock. Returns the offset of the payload in the active segment.
+    private int appendRecord(byte[] payload) {
+        try {
+            int recordSize = RECORD_HEADER_SIZE + payload.length;
+            if (activeSegment.size > 0 && activeSegment.size + recordSize > segmentSize) {
+                rollSegment();
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(recordSize);
+            record.putInt(payload.length);
+            record.putInt(checksum(payload));
+            record.put(payload);
+
+            int payloadOffset = (int) activeSegment.size + RECORD_HEADER_SIZE;
+            activeSegment.append(record.array());
+            appendedPosition += recordSize;
+            return payloadOffset;
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    private void appendAndSync(byte[] payload) {
+        long position;
+        synchronized (appendLock) {
+            appendRecord(payload);
+            position = appendedPosition;
+        }
+        syncUpTo(position);
+    }
+
+    // Must be invoked while holding the appendLock
+    private void rollSegment() throws IOException {
+        Segment sealed = activeSegment;
+        sealed.seal();
+        sealedSegments.add(sealed);
+
+        long seq = sealed.seq + 1;
+        activeSegment = Segment.create(seq, makeFile(SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+        logger.debug("Started log segment {}", seq);
+    }
+
+    /* Forces the log, at least up to the given position. Whoever gets here first forces everything appended so far, on
+    behalf of the others that are waiting. */
+    private void syncUpTo(long position) {
+        if (durablePosition >= position) {
+            return;
+        }
+
+        synchronized (syncLock) {
+            if (durablePosition >= position) {
+                return;
+            }
+
+            Segment segment;
+            long target;
+            synchronized (appendLock) {
+                segment = activeSegment;
+                target = appendedPosition;
+            }
+            try {
+                // segments sealed meanwhile were forced when sealed
+                segment.sync();
+            } catch (IOException e) {
+                throw new PersistenceException(e);
+            }
+            durablePosition = target;
+        }
+    }
+
+    private long getAppendedPosition() {
+        synchronized (appendLock) {
+            return appendedPosition;
+        }
+    }
+
+    // the versions of each box are written oldest first, so that each one is linked to the previous
+    private Map<String, Version> writeCheckpoint(Segment newCheckpoint, long checkpointSeq, int txNumber, int oldestReadable)
+            throws IOException {
+        Map<String, Version> checkpointed = new HashMap<String, Version>();
+        File tmpFile = new File(newCheckpoint.file.getPath() + TMP_SUFFIX);
+
+        FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            long position = writeRecord(out, 0, makeClassInfosPayload(domainClassInfos));
+            synchronized (maxCounters) {
+                for (Entry<Integer, Integer> entry : maxCounters.entrySet()) {
+                    position = writeRecord(out, position, makeCounterPayload(entry.getKey(), entry.getValue()));
+                }
+            }
+            // an empty commit record keeps the greatest committed transaction number
+            position = writeRecord(out, position, new CommitRecord(txNumber).toPayload());
+
+            CommitRecord record = new CommitRecord(txNumber);
+            for (Entry<String, Version> entry : index.entrySet()) {
+                List<Version> versions = findCovered(entry.getValue(), checkpointSeq, oldestReadable);
+                for (int i = versions.size() - 1; i >= 0; i--) {
+                    Version version = versions.get(i);
+                    record.add(entry.getKey(), version.version, version.read());
+                    if (record.size() == VALUES_PER_CHECKPOINT_RECORD) {
+                        position = writeCheckpointRecord(out, position, record, newCheckpoint, checkpointed);
+                        record = new CommitRecord(txNumber);
+                    }
+                }
+            }
+            if (record.size() > 0) {
+                writeCheckpointRecord(out, position, record, newCheckpoint, checkpointed);
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        Files.move(tmpFile.toPath(), newCheckpoint.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return checkpointed;
+    }
+
+    private static long writeCheckpointRecord(DataOutputStream out, long position, CommitRecord record, Segment newCheckpoint,
+            Map<String, Version> checkpointed) throws IOException {
+        int payloadOffset = (int) position + RECORD_HEADER_SIZE;
+        for (int i = 0; i < record.size(); i++) {
+            String vboxId = record.getId(i);
+            checkpointed.put(vboxId, record.makeVersion(i, newCheckpoint, payloadOffset, checkpointed.get(vboxId)));
+        }
+        return writeRecord(out, position, record.toPayload());
+    }
+
+    private static long writeRecord(DataOutputStream out, long position, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.writeInt(checksum(payload));
+        out.write(payload);
+        return position + RECORD_HEADER_SIZE + payload.length;
+    }
+
+    /* recovery */
+
+    private void recover() throws IOException {
+        long checkpointSeq = -1;
+        TreeMap<Long, File> checkpointFiles = new TreeMap<Long, File>();
+        TreeMap<Long, File> segmentFiles = new TreeMap<Long, File>();
+
+        for (File file : directory.listFiles()) {
+            String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX)) {
+                // left by a crash during a checkpoint
+                file.delete();
+            } else if (name.startsWith(CHECKPOINT_PREFIX) && name.endsWith(CHECKPOINT_SUFFIX)) {
+                checkpointFiles.put(parseSeq(name, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX), file);
+            } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                segmentFiles.put(parseSeq(name, SEGMENT_PREFIX, SEGMENT_SUFFIX), file);
+            }
+        }
+
+        if (!checkpointFiles.isEmpty()) {
+            Entry<Long, File> last = checkpointFiles.pollLastEntry();
+            checkpointSeq = last.getKey();
+            for (File older : checkpointFiles.values()) {
+                older.delete();
+            }
+
+            checkpoint = new Segment(checkpointSeq - 1, last.getValue());
+            checkpoint.map();
+            replay(checkpoint, checkpoint.mapped, false);
+            logger.info("Loaded checkpoint {}", last.getValue());
+        }
+
+        long nextSeq = Math.max(checkpointSeq, 0);
+        Iterator<Entry<Long, File>> iter = segmentFiles.entrySet().iterator();
+        while (iter.hasNext()) {
+            Entry<Long, File> entry = iter.next();
+            long seq = entry.getKey();
+            File file = entry.getValue();
+
+            if (seq < checkpointSeq) {
+                // already covered by the checkpoint
+                file.delete();
+                continue;
+            }
+
+            Segment segment = new Segment(seq, file);
+            if (iter.hasNext()) {
+                segment.map();
+                replay(segment, segment.mapped, false);
+                sealedSegments.add(segment);
+            } else {
+                // the last segment may end with an incomplete record
+                int validSize = replay(segment, Segment.mapFile(file), true);
+                if (validSize < file.length()) {
+                    logger.warn("Discarding {} bytes of an incomplete record at the end of {}", file.length() - validSize, file);
+                }
+                segment.openForAppend(validSize);
+                activeSegment = segment;
+            }
+            nextSeq = seq + 1;
+        }
+
+        if (activeSegment == null) {
+            activeSegment = Segment.create(nextSeq, makeFile(SEGMENT_PREFIX, nextSeq, SEGMENT_SUFFIX));
+        }
+
+        logger.info("Recovered {} boxes from the log, up to transaction {}", index.size(), maxCommittedTxNumber);
+    }
+
+    // Applies the records in the buffer. Returns the size of the valid records.
+    private int replay(Segment segment, ByteBuffer buffer, boolean mayBeIncomplete) throws IOException {
+        int position = 0;
+        int limit = buffer.limit();
+
+        while (limit - position >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt(position);
+            int checksum = buffer.getInt(position + 4);
+            if (length <= 0 || length > limit - position - RECORD_HEADER_SIZE) {
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER_SIZE);
+            view.get(payload);
+            if (checksum(payload) != checksum) {
+                break;
+            }
+
+            applyRecord(segment, position + RECORD_HEADER_SIZE, payload);
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        if (position < limit && !mayBeIncomplete) {
+            throw new PersistenceException("Log file " + segment.file + " is corrupted at position " + position);
+        }
+        return position;
+    }
+
+    private void applyRecord(Segment segment, int payloadOffset, byte[] payload) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(payload);
+        DataInputStream in = new DataInputStream(bytes);
+
+        byte type = in.readByte();
+        switch (type) {
+        case COMMIT:
+            int txNumber = in.readInt();
+            int numValues = in.readInt();
+            for (int i = 0; i < numValues; i++) {
+                String vboxId = in.readUTF();
+                int version = in.readInt();
+                int length = in.readInt();
+                int offset = payloadOffset + payload.length - bytes.available();
+                addVersion(vboxId, new Version(version, segment, offset, length, null));
+                in.skipBytes(length);
+            }
+            if (txNumber > maxCommittedTxNumber) {
+                maxCommittedTxNumber = txNumber;
+            }
+            break;
+        case CLASS_INFOS:
+            byte[] data = new byte[bytes.available()];
+            in.readFully(data);
+            domainClassInfos = Externalization.internalizeSerializable(data);
+            break;
+        case COUNTER:
+            int classId = in.readInt();
+            int max = in.readInt();
+            Integer current = maxCounters.get(classId);
+            if (current == null || current < max) {
+                maxCounters.put(classId, max);
+            }
+            break;
+        default:
+            throw new PersistenceException("Unknown record type " + type + " in " + segment.file);
+        }
+    }
+
+    /* record formats */
+
+    private static byte[] makeClassInfosPayload(DomainClassInfo[] infos) {
+        byte[] data = Externalization.externalizeSerializable(infos);
+        ByteBuffer payload = ByteBuffer.allocate(1 + data.length);
+        payload.put(CLASS_INFOS);
+        payload.put(data);
+        return payload.array();
+    }
+
+    private static byte[] makeCounterPayload(int classId, int max) {
+        ByteBuffer payload = ByteBuffer.allocate(9);
+        payload.put(COUNTER);
+        payload.putInt(classId);
+        payload.putInt(max);
+        return payload.array();
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private File makeFile(String prefix, long seq, String suffix) {
+        return new File(directory, String.format("%s%016d%s", prefix, seq, suffix));
+    }
+
+    private static long parseSeq(String name, String prefix, String suffix) {
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /* The values written by a transaction: its number, the number of values, and then the id, version, length and bytes of
+    each value. Checkpoints use the same format. */
+    private static final class CommitRecord {
+        // the type, the transaction number and the number of values
+        private static final int HEADER_SIZE = 9;
+
+        private final int txNumber;
+        private final ByteArrayOutputStream values = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(values);
+        private final List<String> ids = new ArrayList<String>();
+        // the version, offset in the payload, and length of each value
+        private final List<int[]> locations = new ArrayList<int[]>();
+
+        CommitRecord(int txNumber) {
+            this.txNumber = txNumber;
+        }
+
+        void add(String vboxId, int version, byte[] data) {
+            try {
+                out.writeUTF(vboxId);
+                out.writeInt(version);
+                out.writeInt(data.length);
+                locations.add(new int[] { version, HEADER_SIZE + out.size(), data.length });
+                out.write(data);
+            } catch (IOException e) {
+                // never happens when writing to memory
+                throw new PersistenceException(e);
+            }
+            ids.add(vboxId);
+        }
+
+        int size() {
+            return ids.size();
+        }
+
+        String getId(int i) {
+            return ids.get(i);
+        }
+
+        Version makeVersion(int i, Segment segment, int payloadOffset, Version previous) {
+            int[] location = locations.get(i);
+            return new Version(location[0], segment, payloadOffset + location[1], location[2], previous);
+        }
+
+        byte[] toPayload() {
+            ByteBuffer payload = ByteBuffer.allocate(HEADER_SIZE + values.size());
+            payload.put(COMMIT);
+            payload.putInt(txNumber);
+            payload.putInt(ids.size());
+            payload.put(values.toByteArray());
+            return payload.array();
+        }
+    }
+
+    /* The location of a version of a box in the log. Immutable, so that reloads can walk the list of versions while it
+    changes. */
+    private static final class Version {
+        final int version;
+        final Segment segment;
+        final int offset;
+        final int length;
+        final Version previous;
+
+        Version(int version, Segment segment, int offset, int length, Version previous) {
+            this.version = version;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.previous = previous;
+        }
+
+        byte[] read() {
+            try {
+                return segment.read(offset, length);
+            } catch (IOException e) {
+                throw new PersistenceException(e);
+            }
+        }
+
+        Object readValue() {
+            return Externalization.internalizeObject(read());
+        }
+    }
+
+    /* A file of the log, or a checkpoint. The active segment is appended to with a RandomAccessFile, whose writes and forces
+    are not interruptible, and read with a separate channel. Once sealed, a segment is read from a memory map. */
+    private static final class Segment {
+        final long seq;
+        final File file;
+
+        private RandomAccessFile writer;
+        private long size;
+        private volatile FileChannel reader;
+        private volatile ByteBuffer mapped;
+
+        private Segment(long seq, File file) {
+            this.seq = seq;
+            this.file = file;
+        }
+
+        static Segment create(long seq, File file) throws IOException {
+            Segment segment = new Segment(seq, file);
+            segment.openForAppend(0);
+            return segment;
+        }
+
+        // anything after the given size is discarded
+        synchronized void openForAppend(long size) throws IOException {
+            writer = new RandomAccessFile(file, "rw");
+            writer.setLength(size);
+            writer.seek(size);
+            this.size = size;
+        }
+
+        static MappedByteBuffer mapFile(File file) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                // the mapping remains valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                channel.close();
+            }
+        }
+
+        void map() throws IOException {
+            this.mapped = mapFile(file);
+        }
+
+        synchronized void append(byte[] record) throws IOException {
+            if (writer == null) {
+                throw new ClosedChannelException();
+            }
+            writer.write(record);
+            size += record.length;
+        }
+
+        synchronized void sync() throws IOException {
+            if (writer != null) {
+                writer.getFD().sync();
+            }
+        }
+
+        synchronized void seal() throws IOException {
+            writer.getFD().sync();
+            writer.close();
+            writer = null;
+            map();
+            closeReader();
+        }
+
+        synchronized void close() throws IOException {
+            if (writer != null) {
+                writer.getFD().sync();
+                writer.close();
+                writer = null;
+            }
+            closeReader();
+        }
+
+        void delete() {
+            closeReader();
+            if (!file.delete()) {
+                logger.warn("Could not delete {}", file);
+            }
+        }
+
+        byte[] read(int offset, int length) throws IOException {
+            byte[] data = new byte[length];
+            while (true) {
+                ByteBuffer map = mapped;
+                if (map != null) {
+                    ByteBuffer view = map.duplicate();
+                    view.position(offset);
+                    view.get(data);
+                    return data;
+                }
+
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    FileChannel channel = getReader();
+                    while (buffer.hasRemaining()) {
+                        channel.read(buffer, offset + buffer.position());
+                    }
+                    return data;
+                } catch (ClosedByInterruptException e) {
+                    throw e;
+                } catch (ClosedChannelException e) {
+                    // either the segment was sealed meanwhile, or the reading thread was interrupted. Try again.
+                }
+            }
+        }
+
+        private synchronized FileChannel getReader() throws IOException {
+            FileChannel channel = reader;
+            if (channel == null || !channel.isOpen()) {
+                channel = reader = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            return channel;
+        }
+
+        private void closeReader() {
+            FileChannel channel = reader;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close reader of {}", file, e);
+                }
+            }
+        }
+    }
+
+    /* background threads */
+
+    private class SyncThread extends FenixFrameworkThread {
+        private final long intervalMillis;
+
+        SyncThread(int intervalMillis) {
+            super("Log sync");
+            this.intervalMillis = intervalMillis;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    logger.info("Log sync thread was interrupted. Terminating.");
+                    return;
+                }
+
+                try {
+                    syncUpTo(getAppendedPosition());
+                } catch (PersistenceException e) {
+                    logger.error("Failed to force the log", e);
+                }
+            }
+        }
+    }
+
+    private class CheckpointThread extends FenixFrameworkThread {
+        private final long intervalMillis;
+
+        CheckpointThread(int intervalSeconds) {
+            super("Log checkpoint");
+            this.intervalMillis = intervalSeconds * 1000L;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    logger.info("Log checkpoint thread was interrupted. Terminating.");
+                    return;
+                }
+
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    logger.error("Failed to write a checkpoint of the log", e);
+                } catch (PersistenceException e) {
+                    logger.error("Failed to write a checkpoint of the log", e);
+                }
+            }
+        }
+    }
+
+}
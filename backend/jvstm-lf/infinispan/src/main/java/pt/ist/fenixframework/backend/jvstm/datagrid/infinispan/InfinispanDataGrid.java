@@ -7,6 +7,10 @@
  */
 package pt.ist.fenixframework.backend.jvstm.datagrid.infinispan;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
 import javax.transaction.NotSupportedException;
@@ -45,6 +49,8 @@ public class InfinispanDataGrid implements DataGrid {
 
     DefaultCacheManager cacheManager;
     Cache<Object, Object> cache;
+    // the conditional operations need their return values
+    Cache<Object, Object> conditionalCache;
     TransactionManager transactionManager;
 
     @Override
@@ -100,6 +106,38 @@ public class InfinispanDataGrid implements DataGrid {
         this.cache.putIfAbsent(key, value);
     }
 
+    @Override
+    public boolean replace(Object key, Object expectedValue, Object newValue) {
+        if (expectedValue == null) {
+            return this.conditionalCache.putIfAbsent(key, newValue) == null;
+        }
+        return this.conditionalCache.replace(key, expectedValue, newValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> Map<Object, T> getAll(Collection<Object> keys) {
+        // this version of Infinispan has no bulk get, so fall back to one get per key
+        Map<Object, T> result = new HashMap<Object, T>(keys.size() * 2);
+        for (Object key : keys) {
+            T value = (T) this.cache.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean hasBulkGet() {
+        return false;
+    }
+
+    @Override
+    public void putAll(Map<Object, Object> entries) {
+        this.cache.putAll(entries);
+    }
+
     @Override
     public void beginTransaction() {
         TransactionManager tm = getTransactionManager();
@@ -243,7 +281,8 @@ public class InfinispanDataGrid implements DataGrid {
 
         this.cacheManager.defineConfiguration(CACHE_NAME, conf);
 
-        this.cache = this.cacheManager.getCache(CACHE_NAME).getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES);
+        this.conditionalCache = this.cacheManager.getCache(CACHE_NAME);
+        this.cache = this.conditionalCache.getAdvancedCache().withFlags(Flag.IGNORE_RETURN_VALUES);
 
 //        final DefaultCacheManager finalCacheManager = this.cacheManager;
 //        this.cache = doWithinBackingTransactionIfNeeded(new Callable<Cache<Object, Object>>() {
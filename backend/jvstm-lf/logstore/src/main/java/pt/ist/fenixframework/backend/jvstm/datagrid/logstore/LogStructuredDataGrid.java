@@ -0,0 +1,715 @@
+/*
+ * Fenix Framework, a framework to develop Java Enterprise Applications.
+ *
+ * Copyright (C) 2013 Fenix Framework Team and/or its affiliates and other contributors as indicated by the @author tags.
+ *
+ * This file is part of the Fenix Framework.  Read the file COPYRIGHT.TXT for more copyright and licensing information.
+ */
+package pt.ist.fenixframework.backend.jvstm.datagrid.logstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.backend.jvstm.lf.JvstmLockFreeConfig;
+import pt.ist.fenixframework.backend.jvstm.repository.DataGrid;
+import pt.ist.fenixframework.backend.jvstm.repository.PersistenceException;
+
+/**
+ * A {@link DataGrid} for single-node deployments, backed by an embedded, append-only, log-structured file store.
+ *
+ * Every data grid transaction is appended to the log as a single checksummed batch, so that a transaction is either fully
+ * recovered or not at all. An in-memory hash index maps each key to the location of its most recent value. Commits wait for
+ * their batch to be forced to disk, but concurrent commits share the same fsync. The log is split in segment files: once full, a
+ * segment is sealed and memory-mapped, and a background task compacts the sealed segments that hold mostly overwritten values.
+ *
+ * Values become visible to other threads as soon as their batch is appended, which may be slightly before it is forced to disk.
+ */
+public class LogStructuredDataGrid implements DataGrid {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogStructuredDataGrid.class);
+
+    /**
+     * This <strong>optional</strong> parameter specifies the directory where the segment files are kept. Defaults to
+     * <code>ff-logstore</code> in the working directory. This can be set via FenixFramework config file by prefixing it with
+     * {@link JvstmLockFreeConfig#DATAGRID_PARAM_PREFIX}.
+     */
+    public static final String STORE_DIR = "logStoreDir";
+
+    /**
+     * This <strong>optional</strong> parameter specifies the size (in bytes) after which a segment is sealed and a new one is
+     * started. Defaults to 64MB.
+     */
+    public static final String SEGMENT_SIZE = "logStoreSegmentSize";
+
+    /**
+     * This <strong>optional</strong> parameter specifies the interval (in seconds) between two runs of the compaction. Defaults
+     * to 60.
+     */
+    public static final String COMPACTION_INTERVAL = "logStoreCompactionInterval";
+
+    /**
+     * This <strong>optional</strong> parameter specifies the fraction of live data below which a sealed segment is compacted.
+     * Defaults to 0.5.
+     */
+    public static final String COMPACTION_THRESHOLD = "logStoreCompactionThreshold";
+
+    // batch length + checksum of the batch
+    private static final int BATCH_HEADER_SIZE = 4 + 8;
+    // key length + value length
+    private static final int ENTRY_HEADER_SIZE = 4 + 4;
+
+    private final ConcurrentHashMap<Object, Location> index = new ConcurrentHashMap<Object, Location>();
+    private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<Integer, Segment>();
+
+    private final ThreadLocal<Batch> currentBatch = new ThreadLocal<Batch>();
+
+    // appends to the log are serialized by this lock
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private Segment activeSegment;
+    private long appendedBytes = 0;
+
+    // commits waiting for their batch to be forced to disk are serialized by this lock
+    private final Object syncLock = new Object();
+    private volatile long syncedBytes = 0;
+
+    private File dir;
+    private long maxSegmentSize;
+    private double compactionThreshold;
+    private ScheduledExecutorService compactor;
+
+    @Override
+    public void init(JvstmLockFreeConfig config) {
+        String storeDir = config.getDataGridProperty(STORE_DIR);
+        this.dir = new File(storeDir == null ? "ff-logstore" : storeDir);
+        // sealed segments are memory-mapped, so they cannot be larger than 2GB
+        this.maxSegmentSize = Math.min(Integer.MAX_VALUE, getLongProperty(config, SEGMENT_SIZE, 64L * 1024 * 1024));
+        this.compactionThreshold = getDoubleProperty(config, COMPACTION_THRESHOLD, 0.5);
+        long compactionInterval = getLongProperty(config, COMPACTION_INTERVAL, 60);
+
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new PersistenceException("Could not create the log store directory " + this.dir);
+        }
+
+        try {
+            recover();
+        } catch (IOException e) {
+            logger.error("Failed to recover the log store in {}", this.dir, e);
+            throw new PersistenceException(e);
+        }
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LogStore Compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.compactor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop() {
+        logger.info("stop() invoked");
+        this.compactor.shutdownNow();
+        try {
+            this.compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.appendLock.lock();
+        try {
+            this.activeSegment.force();
+            for (Segment segment : this.segments.values()) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to close the log store.", e);
+            throw new PersistenceException(e);
+        } finally {
+            this.segments.clear();
+            this.index.clear();
+            this.appendLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T get(Object key) {
+        Batch batch = this.currentBatch.get();
+        if (batch != null && batch.writes.containsKey(key)) {
+            if (batch.ifAbsent.contains(key)) {
+                // the entry will be dropped when appended, if the key is committed in the meanwhile
+                Object committed = getCommitted(key);
+                if (committed != null) {
+                    return (T) committed;
+                }
+            }
+            return (T) batch.writes.get(key);
+        }
+        return (T) getCommitted(key);
+    }
+
+    // get the value of the key, ignoring the current transaction
+    private Object getCommitted(Object key) {
+        while (true) {
+            Location location = this.index.get(key);
+            if (location == null) {
+                return null;
+            }
+            Segment segment = this.segments.get(location.segmentId);
+            if (segment == null) {
+                // the segment was compacted in the meanwhile, so the index already has a new location
+                continue;
+            }
+            try {
+                return deserialize(segment.read(location.position, location.length));
+            } catch (ClosedChannelException e) {
+                // same as above
+            } catch (IOException e) {
+                logger.warn("Failed to get {}.", key, e);
+                throw new PersistenceException(e);
+            }
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        Batch batch = this.currentBatch.get();
+        if (batch != null) {
+            batch.put(key, value);
+        } else {
+            batch = new Batch();
+            batch.put(key, value);
+            write(batch);
+        }
+    }
+
+    @Override
+    public void putIfAbsent(Object key, Object value) {
+        if (this.index.containsKey(key)) {
+            return;
+        }
+
+        Batch batch = this.currentBatch.get();
+        if (batch != null) {
+            batch.putIfAbsent(key, value);
+        } else {
+            batch = new Batch();
+            batch.putIfAbsent(key, value);
+            write(batch);
+        }
+    }
+
+    /* The condition is checked now, and again when the batch is appended. So,
+    within a transaction, the value returned only tells whether the condition
+    held when this method was invoked. */
+    @Override
+    public boolean replace(Object key, Object expectedValue, Object newValue) {
+        Object current = get(key);
+        if (current == null ? expectedValue != null : !current.equals(expectedValue)) {
+            return false;
+        }
+
+        Batch batch = this.currentBatch.get();
+        if (batch != null) {
+            batch.replace(key, expectedValue, newValue);
+            return true;
+        }
+        batch = new Batch();
+        batch.replace(key, expectedValue, newValue);
+        return write(batch);
+    }
+
+    @Override
+    public <T> Map<Object, T> getAll(Collection<Object> keys) {
+        // every get is local, so there is nothing to gain from batching them
+        Map<Object, T> result = new HashMap<Object, T>(keys.size() * 2);
+        for (Object key : keys) {
+            T value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean hasBulkGet() {
+        return false;
+    }
+
+    @Override
+    public void putAll(Map<Object, Object> entries) {
+        Batch batch = this.currentBatch.get();
+        boolean inTransaction = batch != null;
+        if (!inTransaction) {
+            batch = new Batch();
+        }
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            batch.put(entry.getKey(), entry.getValue());
+        }
+        if (!inTransaction) {
+            write(batch);
+        }
+    }
+
+    @Override
+    public void beginTransaction() {
+        if (this.currentBatch.get() != null) {
+            throw new PersistenceException("Nested transactions are not supported");
+        }
+        this.currentBatch.set(new Batch());
+    }
+
+    @Override
+    public void commitTransaction() {
+        Batch batch = this.currentBatch.get();
+        if (batch == null) {
+            throw new PersistenceException("There is no transaction to commit");
+        }
+        this.currentBatch.remove();
+        write(batch);
+    }
+
+    @Override
+    public void rollbackTransaction() {
+        this.currentBatch.remove();
+    }
+
+    @Override
+    public boolean inTransaction() {
+        return this.currentBatch.get() != null;
+    }
+
+    /* Appends the batch as a single sequential write and waits until it is
+    durable.  Returns whether every entry was written, i.e. no condition
+    failed. */
+    private boolean write(Batch batch) {
+        if (batch.writes.isEmpty()) {
+            return true;
+        }
+
+        List<Entry> entries = new ArrayList<Entry>(batch.writes.size());
+        for (Map.Entry<Object, Object> write : batch.writes.entrySet()) {
+            Object key = write.getKey();
+            Entry entry = new Entry(key, serialize(key), serialize(write.getValue()));
+            entry.ifAbsent = batch.ifAbsent.contains(key);
+            if (batch.expectedValues.containsKey(key)) {
+                entry.conditional = true;
+                entry.expectedValue = batch.expectedValues.get(key);
+            }
+            entries.add(entry);
+        }
+
+        try {
+            sync(append(entries));
+        } catch (IOException e) {
+            logger.warn("Failed to write to the log store.", e);
+            throw new PersistenceException(e);
+        }
+
+        for (Entry entry : entries) {
+            if (!entry.written) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Appends the given entries to the log as a single batch, skipping the
+    ones whose condition no longer holds.  Returns the number of bytes that must
+    be durable for the batch to be durable. */
+    private long append(List<Entry> entries) throws IOException {
+        this.appendLock.lock();
+        try {
+            List<Entry> toWrite = new ArrayList<Entry>(entries.size());
+            int bodyLength = 4;
+            for (Entry entry : entries) {
+                if (entry.ifAbsent && this.index.containsKey(entry.key)) {
+                    continue;
+                }
+                if (entry.expected != null && !entry.expected.equals(this.index.get(entry.key))) {
+                    continue;
+                }
+                if (entry.conditional) {
+                    Object current = getCommitted(entry.key);
+                    if (current == null ? entry.expectedValue != null : !current.equals(entry.expectedValue)) {
+                        continue;
+                    }
+                }
+                entry.written = true;
+                toWrite.add(entry);
+                bodyLength += entry.size();
+            }
+            if (toWrite.isEmpty()) {
+                return 0;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(BATCH_HEADER_SIZE + bodyLength);
+            buffer.position(BATCH_HEADER_SIZE);
+            buffer.putInt(toWrite.size());
+            for (Entry entry : toWrite) {
+                buffer.putInt(entry.keyBytes.length);
+                buffer.putInt(entry.valueBytes.length);
+                buffer.put(entry.keyBytes);
+                buffer.put(entry.valueBytes);
+            }
+            buffer.putInt(0, bodyLength);
+            buffer.putLong(4, checksum(buffer.array(), BATCH_HEADER_SIZE, bodyLength));
+            buffer.clear();
+
+            if (this.activeSegment.size() > 0 && this.activeSegment.size() + buffer.capacity() > this.maxSegmentSize) {
+                rollSegment();
+            }
+
+            Segment segment = this.activeSegment;
+            long position = segment.append(buffer) + BATCH_HEADER_SIZE + 4;
+            for (Entry entry : toWrite) {
+                long valuePosition = position + ENTRY_HEADER_SIZE + entry.keyBytes.length;
+                updateIndex(entry.key, new Location(segment.id, valuePosition, entry.valueBytes.length, entry.size()));
+                position += entry.size();
+            }
+
+            this.appendedBytes += buffer.capacity();
+            return this.appendedBytes;
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /* Group commit: a single force makes durable every batch appended so far,
+    so the threads waiting behind it return without forcing again. */
+    private void sync(long bytes) throws IOException {
+        if (bytes <= this.syncedBytes) {
+            return;
+        }
+        synchronized (this.syncLock) {
+            if (bytes <= this.syncedBytes) {
+                return;
+            }
+
+            Segment segment;
+            long appended;
+            this.appendLock.lock();
+            try {
+                segment = this.activeSegment;
+                appended = this.appendedBytes;
+            } finally {
+                this.appendLock.unlock();
+            }
+
+            // previous segments were forced when they were sealed
+            segment.force();
+            this.syncedBytes = appended;
+        }
+    }
+
+    // must be invoked while holding the appendLock
+    private void rollSegment() throws IOException {
+        Segment sealed = this.activeSegment;
+        sealed.seal();
+
+        Segment segment = Segment.open(this.dir, sealed.id + 1);
+        this.segments.put(segment.id, segment);
+        this.activeSegment = segment;
+        logger.debug("Sealed segment {}. Appending to {}", sealed, segment);
+    }
+
+    private void updateIndex(Object key, Location location) {
+        Location previous = this.index.put(key, location);
+        this.segments.get(location.segmentId).liveBytes.addAndGet(location.entrySize);
+        if (previous != null) {
+            Segment segment = this.segments.get(previous.segmentId);
+            if (segment != null) {
+                segment.liveBytes.addAndGet(-previous.entrySize);
+            }
+        }
+    }
+
+    /* Rebuilds the index from the segment files, discarding an incomplete batch at the end of the log */
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (String name : this.dir.list()) {
+            int id = Segment.idFromFileName(name);
+            if (id >= 0) {
+                ids.add(id);
+            }
+        }
+        Collections.sort(ids);
+
+        Segment last = null;
+        for (int id : ids) {
+            if (last != null) {
+                last.seal();
+            }
+            last = Segment.open(this.dir, id);
+            this.segments.put(id, last);
+
+            long end = scan(last, new EntryVisitor() {
+                @Override
+                public void visit(Object key, byte[] keyBytes, ByteBuffer value, Location location) {
+                    updateIndex(key, location);
+                }
+            });
+            if (end < last.size()) {
+                logger.warn("Discarding {} bytes of an incomplete batch at the end of {}", last.size() - end, last);
+                last.truncate(end);
+            }
+        }
+
+        if (last == null) {
+            last = Segment.open(this.dir, 0);
+            this.segments.put(last.id, last);
+        }
+        this.activeSegment = last;
+
+        logger.info("Recovered {} keys from {} segment(s) in {}", this.index.size(), this.segments.size(), this.dir);
+    }
+
+    private interface EntryVisitor {
+        public void visit(Object key, byte[] keyBytes, ByteBuffer value, Location location);
+    }
+
+    /* Visits every entry of the complete batches of the segment.  Returns the
+    position after the last complete batch. */
+    private long scan(Segment segment, EntryVisitor visitor) throws IOException {
+        long position = 0;
+        long size = segment.size();
+
+        while (position + BATCH_HEADER_SIZE <= size) {
+            ByteBuffer header = segment.read(position, BATCH_HEADER_SIZE);
+            int bodyLength = header.getInt();
+            long checksum = header.getLong();
+            if (bodyLength < 4 || position + BATCH_HEADER_SIZE + bodyLength > size) {
+                break;
+            }
+
+            byte[] body = new byte[bodyLength];
+            segment.read(position + BATCH_HEADER_SIZE, bodyLength).get(body);
+            if (checksum(body, 0, bodyLength) != checksum) {
+                break;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            long bodyPosition = position + BATCH_HEADER_SIZE;
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                int entryStart = buffer.position();
+                byte[] keyBytes = new byte[buffer.getInt()];
+                int valueLength = buffer.getInt();
+                buffer.get(keyBytes);
+
+                ByteBuffer value = buffer.slice();
+                value.limit(valueLength);
+                Location location =
+                        new Location(segment.id, bodyPosition + buffer.position(), valueLength, ENTRY_HEADER_SIZE
+                                + keyBytes.length + valueLength);
+                buffer.position(buffer.position() + valueLength);
+
+                visitor.visit(deserialize(ByteBuffer.wrap(keyBytes)), keyBytes, value, location);
+                assert buffer.position() - entryStart == location.entrySize;
+            }
+
+            position += BATCH_HEADER_SIZE + bodyLength;
+        }
+
+        return position;
+    }
+
+    /* Compaction */
+
+    // package-private for tests
+    void compact() {
+        try {
+            for (Segment segment : new ArrayList<Segment>(this.segments.values())) {
+                if (segment.isSealed() && segment.liveBytes.get() < segment.size() * this.compactionThreshold) {
+                    compact(segment);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to compact the log store.", e);
+        }
+    }
+
+    /* Moves the entries of the segment that are still live to the end of the
+    log, and then deletes the segment.  A moved entry is skipped if it is
+    overwritten in the meanwhile. */
+    private void compact(Segment segment) throws IOException {
+        final List<Entry> live = new ArrayList<Entry>();
+        scan(segment, new EntryVisitor() {
+            @Override
+            public void visit(Object key, byte[] keyBytes, ByteBuffer value, Location location) {
+                if (location.equals(index.get(key))) {
+                    byte[] valueBytes = new byte[value.remaining()];
+                    value.get(valueBytes);
+                    Entry entry = new Entry(key, keyBytes, valueBytes);
+                    entry.expected = location;
+                    live.add(entry);
+                }
+            }
+        });
+
+        // the moved entries must be durable before the segment is gone
+        sync(append(live));
+
+        this.segments.remove(segment.id);
+        segment.delete();
+        logger.debug("Compacted {}, moving {} live entries", segment, live.size());
+    }
+
+    /* Utility methods */
+
+    private static long checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return crc.getValue();
+    }
+
+    private static byte[] serialize(Object object) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        } catch (IOException e) {
+            throw new PersistenceException("Could not serialize " + object, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new PersistenceException("Could not deserialize value", e);
+        }
+    }
+
+    private static long getLongProperty(JvstmLockFreeConfig config, String name, long defaultValue) {
+        String value = config.getDataGridProperty(name);
+        try {
+            return value == null ? defaultValue : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new PersistenceException("Invalid value for " + name + ": " + value, e);
+        }
+    }
+
+    private static double getDoubleProperty(JvstmLockFreeConfig config, String name, double defaultValue) {
+        String value = config.getDataGridProperty(name);
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new PersistenceException("Invalid value for " + name + ": " + value, e);
+        }
+    }
+
+    /* the writes of a data grid transaction, kept until it commits */
+    private static final class Batch {
+        final Map<Object, Object> writes = new LinkedHashMap<Object, Object>();
+        final Set<Object> ifAbsent = new HashSet<Object>();
+        final Map<Object, Object> expectedValues = new HashMap<Object, Object>();
+
+        void put(Object key, Object value) {
+            this.writes.put(key, value);
+            this.ifAbsent.remove(key);
+            this.expectedValues.remove(key);
+        }
+
+        // when the key was already written in this batch, the condition was checked against that write
+        void replace(Object key, Object expectedValue, Object value) {
+            if (!this.writes.containsKey(key)) {
+                this.expectedValues.put(key, expectedValue);
+            }
+            this.writes.put(key, value);
+        }
+
+        // the key is checked again when the batch is appended
+        void putIfAbsent(Object key, Object value) {
+            if (!this.writes.containsKey(key)) {
+                this.writes.put(key, value);
+                this.ifAbsent.add(key);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Object key;
+        final byte[] keyBytes;
+        final byte[] valueBytes;
+        boolean ifAbsent = false;
+        Location expected = null;
+        boolean conditional = false;
+        Object expectedValue = null;
+        boolean written = false;
+
+        Entry(Object key, byte[] keyBytes, byte[] valueBytes) {
+            this.key = key;
+            this.keyBytes = keyBytes;
+            this.valueBytes = valueBytes;
+        }
+
+        int size() {
+            return ENTRY_HEADER_SIZE + this.keyBytes.length + this.valueBytes.length;
+        }
+    }
+
+    private static final class Location {
+        final int segmentId;
+        final long position;
+        final int length;
+        final int entrySize;
+
+        Location(int segmentId, long position, int length, int entrySize) {
+            this.segmentId = segmentId;
+            this.position = position;
+            this.length = length;
+            this.entrySize = entrySize;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Location)) {
+                return false;
+            }
+            Location other = (Location) obj;
+            return this.segmentId == other.segmentId && this.position == other.position;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.segmentId + (int) (this.position ^ (this.position >>> 32));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Fenix Framework, a framework to develop Java Enterprise Applications.
+ *
+ * Copyright (C) 2013 Fenix Framework Team and/or its affiliates and other contributors as indicated by the @author tags.
+ *
+ * This file is part of the Fenix Framework.  Read the file COPYRIGHT.TXT for more copyright and licensing information.
+ */
+package pt.ist.fenixframework.backend.jvstm.datagrid.logstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One file of the log. Only the active segment is appended to. Once a segment is sealed, it becomes read-only and is
+ * memory-mapped, so that reads no longer go through the file channel.
+ */
+final class Segment {
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+
+    final int id;
+    final File file;
+    final FileChannel channel;
+
+    // the number of bytes of this segment holding entries that are still referenced by the index
+    final AtomicLong liveBytes = new AtomicLong(0);
+
+    private volatile long size;
+    private volatile MappedByteBuffer mapped = null;
+
+    private Segment(int id, File file) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.size = this.channel.size();
+    }
+
+    static Segment open(File dir, int id) throws IOException {
+        return new Segment(id, new File(dir, String.format("%s%010d%s", PREFIX, id, SUFFIX)));
+    }
+
+    /* returns the id of the segment stored in the given file, or -1 if the file is not a segment */
+    static int idFromFileName(String name) {
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    long size() {
+        return this.size;
+    }
+
+    boolean isSealed() {
+        return this.mapped != null;
+    }
+
+    // only invoked by the appending thread
+    long append(ByteBuffer buffer) throws IOException {
+        long position = this.size;
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += this.channel.write(buffer, offset);
+        }
+        this.size = offset;
+        return position;
+    }
+
+    ByteBuffer read(long position, int length) throws IOException {
+        MappedByteBuffer mapped = this.mapped;
+        if (mapped != null) {
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position((int) position);
+            buffer.limit((int) position + length);
+            return buffer.slice();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer, offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    void force() throws IOException {
+        this.channel.force(false);
+    }
+
+    // discards a partially written tail, found during recovery
+    void truncate(long newSize) throws IOException {
+        this.channel.truncate(newSize);
+        this.size = newSize;
+    }
+
+    void seal() throws IOException {
+        force();
+        this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+    }
+
+    void close() throws IOException {
+        this.channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        if (!this.file.delete()) {
+            throw new IOException("Could not delete " + this.file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.file.getName();
+    }
+}
@@ -0,0 +1,224 @@
+package pt.ist.fenixframework.backend.jvstm.datagrid.logstore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import pt.ist.fenixframework.backend.jvstm.lf.JvstmLockFreeConfig;
+
+@RunWith(JUnit4.class)
+public class LogStructuredDataGridTest {
+
+    private File dir;
+    private LogStructuredDataGrid dataGrid;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("logstore").toFile();
+        dataGrid = open("1048576");
+    }
+
+    @After
+    public void tearDown() {
+        if (dataGrid != null) {
+            dataGrid.stop();
+        }
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private LogStructuredDataGrid open(final String segmentSize) {
+        JvstmLockFreeConfig config = new JvstmLockFreeConfig() {
+            {
+                dataGridPropertiesMap.put(LogStructuredDataGrid.STORE_DIR, dir.getPath());
+                dataGridPropertiesMap.put(LogStructuredDataGrid.SEGMENT_SIZE, segmentSize);
+                // compaction is only run explicitly
+                dataGridPropertiesMap.put(LogStructuredDataGrid.COMPACTION_INTERVAL, "3600");
+            }
+        };
+        LogStructuredDataGrid newDataGrid = new LogStructuredDataGrid();
+        newDataGrid.init(config);
+        return newDataGrid;
+    }
+
+    private void restart(String segmentSize) {
+        dataGrid.stop();
+        dataGrid = null;
+        dataGrid = open(segmentSize);
+    }
+
+    private List<File> segmentFiles() {
+        List<File> files = new ArrayList<File>();
+        for (File file : dir.listFiles()) {
+            if (Segment.idFromFileName(file.getName()) >= 0) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    @Test
+    public void testRecover() {
+        dataGrid.put("a", "1");
+        dataGrid.beginTransaction();
+        dataGrid.put("b", "2");
+        dataGrid.put(3, 3L);
+        dataGrid.commitTransaction();
+        dataGrid.put("a", "4");
+        dataGrid.beginTransaction();
+        dataGrid.put("c", "rolled back");
+        dataGrid.rollbackTransaction();
+
+        restart("1048576");
+
+        assertEquals("4", dataGrid.get("a"));
+        assertEquals("2", dataGrid.get("b"));
+        assertEquals(Long.valueOf(3), dataGrid.<Object> get(3));
+        assertNull(dataGrid.get("c"));
+    }
+
+    @Test
+    public void testTruncateIncompleteBatch() throws IOException {
+        dataGrid.put("a", "1");
+        dataGrid.put("b", "2");
+        dataGrid.stop();
+        dataGrid = null;
+
+        // a batch that claims to be longer than what was written
+        File last = segmentFiles().get(segmentFiles().size() - 1);
+        long validSize = last.length();
+        try (RandomAccessFile file = new RandomAccessFile(last, "rw")) {
+            file.seek(validSize);
+            file.writeInt(1000);
+            file.writeLong(0);
+            file.write(new byte[] { 1, 2, 3 });
+        }
+
+        dataGrid = open("1048576");
+        assertEquals("1", dataGrid.get("a"));
+        assertEquals("2", dataGrid.get("b"));
+        assertEquals(validSize, last.length());
+
+        // new batches are appended after the last complete one
+        dataGrid.put("c", "3");
+        restart("1048576");
+        assertEquals("2", dataGrid.get("b"));
+        assertEquals("3", dataGrid.get("c"));
+    }
+
+    @Test
+    public void testTruncateCorruptBatch() throws IOException {
+        dataGrid.put("a", "1");
+        dataGrid.put("b", "2");
+        dataGrid.stop();
+        dataGrid = null;
+
+        // the checksum of the last batch no longer matches
+        File last = segmentFiles().get(segmentFiles().size() - 1);
+        try (RandomAccessFile file = new RandomAccessFile(last, "rw")) {
+            file.seek(file.length() - 1);
+            byte lastByte = file.readByte();
+            file.seek(file.length() - 1);
+            file.writeByte(lastByte ^ 0xff);
+        }
+
+        dataGrid = open("1048576");
+        assertEquals("1", dataGrid.get("a"));
+        assertNull(dataGrid.get("b"));
+    }
+
+    @Test
+    public void testCompact() {
+        restart("512");
+        for (int i = 0; i < 100; i++) {
+            dataGrid.put("key" + (i % 5), "value" + i);
+        }
+        dataGrid.put("stable", "value");
+        for (int i = 0; i < 100; i++) {
+            dataGrid.put("key" + (i % 5), "value" + i);
+        }
+        int segmentsBefore = segmentFiles().size();
+        assertTrue(segmentsBefore > 2);
+
+        dataGrid.compact();
+
+        assertTrue(segmentFiles().size() < segmentsBefore);
+        for (int i = 95; i < 100; i++) {
+            assertEquals("value" + i, dataGrid.get("key" + (i % 5)));
+        }
+        assertEquals("value", dataGrid.get("stable"));
+
+        restart("512");
+        for (int i = 95; i < 100; i++) {
+            assertEquals("value" + i, dataGrid.get("key" + (i % 5)));
+        }
+        assertEquals("value", dataGrid.get("stable"));
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        dataGrid.put("present", "old");
+
+        dataGrid.beginTransaction();
+        dataGrid.putIfAbsent("present", "new");
+        dataGrid.putIfAbsent("absent", "new");
+        assertEquals("old", dataGrid.get("present"));
+        assertEquals("new", dataGrid.get("absent"));
+        dataGrid.commitTransaction();
+
+        assertEquals("old", dataGrid.get("present"));
+        assertEquals("new", dataGrid.get("absent"));
+
+        dataGrid.putIfAbsent("absent", "newer");
+        assertEquals("new", dataGrid.get("absent"));
+    }
+
+    @Test
+    public void testPutIfAbsentCommittedByOther() throws InterruptedException {
+        dataGrid.beginTransaction();
+        dataGrid.putIfAbsent("key", "mine");
+        assertEquals("mine", dataGrid.get("key"));
+
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                dataGrid.put("key", "theirs");
+            }
+        };
+        other.start();
+        other.join();
+
+        // the entry of this transaction will be dropped when appended
+        assertEquals("theirs", dataGrid.get("key"));
+        dataGrid.commitTransaction();
+        assertEquals("theirs", dataGrid.get("key"));
+    }
+
+    @Test
+    public void testReplace() {
+        assertTrue(dataGrid.replace("key", null, "1"));
+        assertFalse(dataGrid.replace("key", null, "2"));
+        assertFalse(dataGrid.replace("key", "0", "2"));
+        assertTrue(dataGrid.replace("key", "1", "2"));
+        assertEquals("2", dataGrid.get("key"));
+    }
+
+}
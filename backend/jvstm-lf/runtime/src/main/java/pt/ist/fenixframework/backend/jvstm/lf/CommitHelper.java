@@ -1,39 +1,97 @@
 package pt.ist.fenixframework.backend.jvstm.lf;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import jvstm.Transaction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import pt.ist.fenixframework.backend.jvstm.pstm.CommitOnlyTransaction;
+import pt.ist.fenixframework.backend.jvstm.repository.PersistenceException;
 import pt.ist.fenixframework.util.FenixFrameworkThread;
 
 /**
- * This thread helps to process any commit requests that linger for too long in the commit requests queue. This can occur if the
- * node is not processing any transactions and it may prevent other nodes from joining the cluster. If, when this thread wakes up,
- * the commit requests queue still has the same element to process, this thread will help process the queue as much as possible,
- * and then sleep again for some time.
+ * This thread helps to process the commit requests that arrive at the commit requests queue. This is needed when the node is not
+ * processing any transactions: otherwise, remote commits would not be applied locally, and other nodes could not join the
+ * cluster. The thread is signalled whenever a commit request is enqueued. It then helps to process the queue as much as possible,
+ * spins for a while in case more requests arrive shortly, and then parks until the next signal. The spinning time adapts to how
+ * often spinning actually finds new requests.
+ * 
+ * Periodically, this thread also publishes the most recent committed version as the high-water mark in the repository, so that a
+ * node that starts finds the most recent version with very few reads to the repository.
  */
 public class CommitHelper extends FenixFrameworkThread {
 
     private static final Logger logger = LoggerFactory.getLogger(CommitHelper.class);
-    private static final long SLEEP_INTERVAL = 2000;
+
+    // maximum time to park without being signalled
+    private static final long PARK_INTERVAL = 2000;
+    private static final long PUBLISH_INTERVAL = 2000;
+
+    private static final int MIN_SPINS = 0;
+    private static final int MAX_SPINS = 1 << 10;
 
     private static final AtomicInteger helperCount = new AtomicInteger(0);
 
+    // the helper that is parked waiting for new commit requests, if any
+    private static volatile Thread parkedHelper = null;
+
+    // the sizes of the structures that grow with the number of commits, as of the last report
+    private static volatile int commitRequestsQueueLength = -1;
+    private static volatile int commitsMapSize = -1;
+
     protected CommitHelper() {
         super("Commit helper " + helperCount.incrementAndGet());
     }
 
+    /**
+     * Wakes up the commit helper, if it is parked. Invoked whenever a commit request is enqueued.
+     */
+    static void signalNewCommitRequest() {
+        Thread helper = parkedHelper;
+        if (helper != null) {
+            LockSupport.unpark(helper);
+        }
+    }
+
     @Override
     public void run() {
         logger.debug("Commit helper working.");
         CommitRequest lastProcessed = processCommitRequests(LockFreeClusterUtils.getCommitRequestAtHead());
         logger.debug("Initializing last processed commit request to {}", lastProcessed.getId().toString());
 
+        int lastPublished = -1;
+        long lastPublishTime = 0;
+        int spins = MAX_SPINS / 2;
+
         while (true) {
-            try {
-                Thread.sleep(SLEEP_INTERVAL);
-            } catch (InterruptedException e) {
+            boolean found = false;
+            for (int i = 0; i < spins && !found; i++) {
+                found = hasWork(lastProcessed);
+                if (!found) {
+                    Thread.yield();
+                }
+            }
+
+            if (found) {
+                // spinning paid off, so we may spin a bit longer next time
+                spins = Math.min(MAX_SPINS, Math.max(1, spins << 1));
+            } else {
+                spins = Math.max(MIN_SPINS, spins >> 1);
+
+                /* announce that we are parking before checking for work one last
+                time, so that a commit request enqueued after the check unparks us */
+                parkedHelper = this;
+                if (!hasWork(lastProcessed)) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(PARK_INTERVAL));
+                }
+                parkedHelper = null;
+            }
+
+            if (Thread.interrupted()) {
                 logger.info("Commit helper thread was interrupted. Terminating.");
                 break;
             }
@@ -52,9 +110,59 @@ public class CommitHelper extends FenixFrameworkThread {
                 lastProcessed = processCommitRequests(head);
                 logger.debug("Finished processing (lastProcessed={}).", lastProcessed.getId().toString());
             }
+
+            long now = System.currentTimeMillis();
+            if (now - lastPublishTime >= PUBLISH_INTERVAL) {
+                lastPublished = publishHighWaterMark(lastPublished);
+                reportCommittedState();
+                lastPublishTime = now;
+            }
         }
     }
 
+    private static boolean hasWork(CommitRequest lastProcessed) {
+        CommitRequest head = LockFreeClusterUtils.getCommitRequestAtHead();
+        return head != LockFreeClusterUtils.getCommitRequestsTail() || head != lastProcessed;
+    }
+
+    /* Every committed version was mapped to its commit id before it was
+    enqueued, so every version up to the most recent committed one is mapped */
+    private int publishHighWaterMark(int lastPublished) {
+        int mostRecent = Transaction.mostRecentCommittedRecord.transactionNumber;
+        if (mostRecent > lastPublished) {
+            try {
+                JvstmLockFreeBackEnd.getInstance().getRepository().publishHighWaterMark(mostRecent);
+                return mostRecent;
+            } catch (PersistenceException e) {
+                // it is only an optimization for the startup of other nodes, so we just try again later
+                logger.warn("Could not publish the high-water mark {}", mostRecent, e);
+            }
+        }
+        return lastPublished;
+    }
+
+    /* report the size of the structures that grow with the number of commits */
+    private void reportCommittedState() {
+        commitRequestsQueueLength = LockFreeClusterUtils.getCommitRequestsQueueLength();
+        commitsMapSize = CommitOnlyTransaction.commitsMap.size();
+        logger.debug("Commit requests queue length={}, commitsMap size={}", commitRequestsQueueLength, commitsMapSize);
+    }
+
+    /**
+     * @return The number of commit requests in the queue, as seen by the last report of the commit helper, or -1 if unknown.
+     */
+    public static int getCommitRequestsQueueLength() {
+        return commitRequestsQueueLength;
+    }
+
+    /**
+     * @return The number of local transactions whose commit requests were not handled yet, as seen by the last report of the
+     *         commit helper, or -1 if unknown.
+     */
+    public static int getCommitsMapSize() {
+        return commitsMapSize;
+    }
+
     private CommitRequest processCommitRequests(CommitRequest currentRequest) {
         CommitRequest lastRequestToHandle;
 
@@ -13,6 +13,7 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import pt.ist.fenixframework.ConfigError;
 import pt.ist.fenixframework.backend.jvstm.JVSTMConfig;
 
 import com.hazelcast.config.ClasspathXmlConfig;
@@ -41,6 +42,42 @@ public class JvstmLockFreeConfig extends JVSTMConfig {
         return hazelcastConfigFile;
     }
 
+    /**
+     * This <strong>optional</strong> parameter enables read-set elision. When set, the commit requests of this node no longer
+     * carry the ids of the boxes read, only a Bloom filter of them. The read set is validated locally before the request is
+     * sent, and every node then validates it only against the commits that happened after that, using the filter. This greatly
+     * reduces the size of the requests of transactions that read many boxes, at the cost of some spurious aborts. The default
+     * value for this parameter is <code>false</code>.
+     */
+    protected boolean readSetElision = false;
+
+    protected void readSetElisionFromString(String value) {
+        readSetElision = Boolean.parseBoolean(value);
+    }
+
+    public boolean getReadSetElision() {
+        return readSetElision;
+    }
+
+    /**
+     * This <strong>optional</strong> parameter specifies the maximum size (in bytes) of an externalized value that is inlined in
+     * the commit requests sent to other nodes. Those nodes install inlined values directly, instead of reloading them from the
+     * datagrid. A value of <code>0</code> disables inlining. The default value for this parameter is <code>0</code>.
+     */
+    protected int inlineValuesMaxSize = 0;
+
+    protected void inlineValuesMaxSizeFromString(String value) {
+        try {
+            inlineValuesMaxSize = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigError(e);
+        }
+    }
+
+    public int getInlineValuesMaxSize() {
+        return inlineValuesMaxSize;
+    }
+
     /**
      * This <strong>required</strong> parameter specifies the classname of the datagrid implementation.
      */
@@ -33,8 +33,8 @@ public class LockFreeClusterUtils {
 
     // commit requests that have not been applied yet
     private static final AtomicReference<CommitRequest> commitRequestsHead = new AtomicReference<CommitRequest>();
-    // this avoids iterating from the head every time a commit request arrives.  Is only used by the (single) thread that enqueues requests
-    private static CommitRequest commitRequestsTail = null;
+    // this avoids iterating from the head every time a commit request arrives.  Is only written by the (single) thread that enqueues requests
+    private static volatile CommitRequest commitRequestsTail = null;
 
 //    // where to append commit requests. may be outdated due to concurrency, so we need to be careful when updating this reference 
 //    private static volatile AtomicReference<CommitRequest> commitRequestTail = new AtomicReference<CommitRequest>(null);
@@ -73,6 +73,7 @@ public class LockFreeClusterUtils {
                         commitRequest.getServerId());
 
                 commitRequest.assignTransaction();
+                commitRequest.getTransaction().preValidate();
                 enqueueCommitRequest(commitRequest);
 //                } finally {
 //                    ENQUEUE_LOCK.unlock();
@@ -90,6 +91,8 @@ public class LockFreeClusterUtils {
                 }
                 // update last known tail
                 commitRequestsTail = commitRequest;
+
+                CommitHelper.signalNewCommitRequest();
 //                }
             }
 
@@ -181,6 +184,20 @@ public class LockFreeClusterUtils {
         return commitRequestsTail;
     }
 
+    /**
+     * Get the number of commit requests in the queue, including the one at the head, which may already be processed. This
+     * walks the queue, so it is meant for monitoring only.
+     * 
+     * @return The current length of the commit requests queue
+     */
+    public static int getCommitRequestsQueueLength() {
+        int length = 0;
+        for (CommitRequest request = getCommitRequestAtHead(); request != null; request = request.getNext()) {
+            length++;
+        }
+        return length;
+    }
+
     /**
      * Clears the given commit request from the head of the remote commits queue if: (1) there is a next one; AND (2) the head is
      * still the given request. This method should only be invoked when the commit request to remove is already handled (either
@@ -218,8 +235,8 @@ public class LockFreeClusterUtils {
         elsewhere. They are needed when the classes are reused via
         FenixFramework.shutdown()/initialize().  I guess these maps should be
         in this class not in COTx */
-        CommitOnlyTransaction.txVersionToCommitIdMap.clear();
         CommitOnlyTransaction.commitsMap.clear();
+        WriteSetFilter.clear();
     }
 
     /**
@@ -16,6 +16,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import pt.ist.fenixframework.backend.jvstm.pstm.VBox;
+import pt.ist.fenixframework.core.Externalization;
 
 public class RemoteWriteSet extends WriteSet {
 
@@ -28,12 +29,17 @@ public class RemoteWriteSet extends WriteSet {
     for the real one. */
     public static final WriteSet EMPTY = new RemoteWriteSet();
 
+    // the values inlined in the commit request, in the same order as the vboxes (null if none was inlined)
+    private final Object[] inlinedValues;
+
     private RemoteWriteSet() {
         super(new VBox[0], WriteSet.DEFAULT_BLOCK_SIZE);
+        this.inlinedValues = null;
     }
 
     public RemoteWriteSet(SimpleWriteSet writeSet) {
         super(makeVBoxesFromIds(writeSet), DEFAULT_BLOCK_SIZE);
+        this.inlinedValues = makeInlinedValues(writeSet);
     }
 
     private static VBox[] makeVBoxesFromIds(SimpleWriteSet writeSet) {
@@ -46,15 +52,28 @@ public class RemoteWriteSet extends WriteSet {
         return vboxes;
     }
 
+    /* values not inlined are left to be reloaded from the repository */
+    private static Object[] makeInlinedValues(SimpleWriteSet writeSet) {
+        if (!writeSet.hasInlinedValues()) {
+            return null;
+        }
+
+        Object[] values = new Object[writeSet.getNumElements()];
+        for (int i = 0; i < values.length; i++) {
+            byte[] externalValue = writeSet.getInlinedValue(i);
+            values[i] = (externalValue == null) ? VBox.notLoadedValue() : Externalization.internalizeObject(externalValue);
+        }
+        return values;
+    }
+
     /* The write back loop must remain inverted.  See super.writeBackLoop(...)
     for an explanation. */
     @Override
     protected Cons<GarbageCollectable> writeBackLoop(int newTxNumber, int min, int max, jvstm.VBox[] vboxes, Object[] values) {
-        Object newValue = VBox.notLoadedValue();
-
         Cons<GarbageCollectable> newBodies = Cons.empty();
         for (int i = max - 1; i >= min; i--) {
             jvstm.VBox vbox = vboxes[i];
+            Object newValue = (this.inlinedValues == null) ? VBox.notLoadedValue() : this.inlinedValues[i];
 
             logger.debug("Will commit to vbox {} version {} with value {}", ((VBox) vbox).getId(), newTxNumber, newValue);
 
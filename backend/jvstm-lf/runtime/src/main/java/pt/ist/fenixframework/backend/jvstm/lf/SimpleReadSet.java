@@ -13,16 +13,66 @@ import java.io.IOException;
 
 public class SimpleReadSet {
 
+    private static final String[] NO_IDS = new String[0];
+
+    // the size of the filter of an elided read set
+    private static final int MIN_FILTER_WORDS = 16;
+    private static final int BITS_PER_ID = 16;
+
     private final String[] vboxIds;
 
+    // when not null, only this (Bloom) filter of the ids read is known
+    private final long[] filter;
+
     public SimpleReadSet(String[] vboxIds) {
+        this(vboxIds, null);
+    }
+
+    private SimpleReadSet(String[] vboxIds, long[] filter) {
         this.vboxIds = vboxIds;
+        this.filter = filter;
+    }
+
+    /**
+     * Create a read set that does not carry the given ids, only a Bloom filter of them. It can only be validated against the
+     * write sets of the commits that happened after the version up to which it was already validated.
+     */
+    public static SimpleReadSet elided(String[] vboxIds) {
+        int words = MIN_FILTER_WORDS;
+        while (words * Long.SIZE < vboxIds.length * BITS_PER_ID) {
+            words <<= 1;
+        }
+
+        long[] filter = new long[words];
+        for (String vboxId : vboxIds) {
+            WriteSetFilter.add(filter, vboxId);
+        }
+        return new SimpleReadSet(NO_IDS, filter);
     }
 
     public String[] getVBoxIds() {
         return this.vboxIds;
     }
 
+    public boolean isElided() {
+        return this.filter != null;
+    }
+
+    /**
+     * Check whether the given vbox may have been read. This is exact, unless the read set is elided.
+     */
+    public boolean mightContain(String vboxId) {
+        if (this.filter != null) {
+            return WriteSetFilter.mightContain(this.filter, vboxId);
+        }
+        for (String s : this.vboxIds) {
+            if (s.equals(vboxId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void writeTo(DataOutput out) throws IOException {
         // write number of ids
         out.writeInt(this.vboxIds.length);
@@ -30,6 +80,13 @@ public class SimpleReadSet {
         for (String s : this.vboxIds) {
             out.writeUTF(s);
         }
+        // write the filter, if any
+        out.writeInt(this.filter == null ? 0 : this.filter.length);
+        if (this.filter != null) {
+            for (long word : this.filter) {
+                out.writeLong(word);
+            }
+        }
     }
 
     public static SimpleReadSet readFrom(DataInput in) throws IOException {
@@ -38,7 +95,15 @@ public class SimpleReadSet {
         for (int i = 0; i < size; i++) {
             ids[i] = in.readUTF();
         }
-        return new SimpleReadSet(ids);
+        int words = in.readInt();
+        long[] filter = null;
+        if (words > 0) {
+            filter = new long[words];
+            for (int i = 0; i < words; i++) {
+                filter[i] = in.readLong();
+            }
+        }
+        return new SimpleReadSet(ids, filter);
     }
 
     @Override
@@ -47,6 +112,9 @@ public class SimpleReadSet {
         int size = this.vboxIds.length;
 
         str.append("size=").append(size);
+        if (this.filter != null) {
+            str.append(", elided (filter words=").append(this.filter.length).append(")");
+        }
         str.append(", vboxIds={");
 
         for (int i = 0; i < size; i++) {
@@ -14,6 +14,8 @@ import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import pt.ist.fenixframework.core.Externalization;
+
 public class SimpleWriteSet {
 
     private static final Logger logger = LoggerFactory.getLogger(SimpleWriteSet.class);
@@ -23,6 +25,9 @@ public class SimpleWriteSet {
     private final String[] vboxIds;
     private final Object[] values;
 
+    // the externalized values sent along with the ids (null when a value is not inlined)
+    private byte[][] inlinedValues = null;
+
     public SimpleWriteSet(String[] vboxIds) {
         this(vboxIds, null);
     }
@@ -48,32 +53,83 @@ public class SimpleWriteSet {
         return this.vboxIds.length;
     }
 
+    /**
+     * Inline the values whose externalized form does not exceed the given size, so that they are sent along with the ids.
+     * 
+     * @param maxSize The maximum size of an inlined value, in bytes
+     * @param nullObject The object that represents <code>null</code> in the values of this write set
+     * @return <code>true</code> if every value was inlined
+     */
+    public boolean inlineValues(int maxSize, Object nullObject) {
+        int size = this.vboxIds.length;
+        byte[][] inlined = new byte[size][];
+        boolean all = true;
+
+        for (int i = 0; i < size; i++) {
+            Object value = (this.values[i] == nullObject) ? null : this.values[i];
+            byte[] externalValue = Externalization.externalizeObject(value);
+            if (externalValue.length <= maxSize) {
+                inlined[i] = externalValue;
+            } else {
+                all = false;
+            }
+        }
+
+        this.inlinedValues = inlined;
+        return all;
+    }
+
+    /**
+     * Get the externalized value sent for the i-th vbox of this write set.
+     * 
+     * @return The externalized value, or <code>null</code> if it was not inlined
+     */
+    public byte[] getInlinedValue(int i) {
+        return (this.inlinedValues == null) ? null : this.inlinedValues[i];
+    }
+
+    public boolean hasInlinedValues() {
+        return this.inlinedValues != null;
+    }
+
     public void writeTo(DataOutput out) throws IOException {
         out.writeInt(this.vboxIds.length);
-        for (String vboxId : this.vboxIds) {
-            out.writeUTF(vboxId);
-
-            // The values are written to the repository before broadcasting the remote commit
-//            byte[] externalValue = Externalization.externalizeObject(this.values[i]);
-//            out.writeInt(externalValue.length);
-//            out.write(externalValue);
+        out.writeBoolean(this.inlinedValues != null);
+        for (int i = 0; i < this.vboxIds.length; i++) {
+            out.writeUTF(this.vboxIds[i]);
+
+            // Values not inlined are written to the repository before broadcasting the remote commit
+            if (this.inlinedValues != null) {
+                byte[] externalValue = this.inlinedValues[i];
+                if (externalValue == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(externalValue.length);
+                    out.write(externalValue);
+                }
+            }
         }
     }
 
     public static SimpleWriteSet readFrom(DataInput in) throws IOException {
         int size = in.readInt();
+        boolean hasInlinedValues = in.readBoolean();
         String ids[] = new String[size];
-//        Object[] values = new Object[size];
+        byte[][] inlined = hasInlinedValues ? new byte[size][] : null;
         for (int i = 0; i < size; i++) {
             ids[i] = in.readUTF();
 
-//            int valueSize = in.readInt();
-//            byte[] externalValue = new byte[valueSize];
-//            in.readFully(externalValue);
-//            values[i] = Externalization.internalizeObject(externalValue);
+            if (hasInlinedValues) {
+                int valueSize = in.readInt();
+                if (valueSize >= 0) {
+                    inlined[i] = new byte[valueSize];
+                    in.readFully(inlined[i]);
+                }
+            }
         }
-//        return new SimpleWriteSet(ids,/* null,*/size);
-        return new SimpleWriteSet(ids);
+        SimpleWriteSet writeSet = new SimpleWriteSet(ids);
+        writeSet.inlinedValues = inlined;
+        return writeSet;
     }
 
     @Override
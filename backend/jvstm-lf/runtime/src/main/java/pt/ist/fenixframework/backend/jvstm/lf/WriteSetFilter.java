@@ -0,0 +1,145 @@
+/*
+ * Fenix Framework, a framework to develop Java Enterprise Applications.
+ *
+ * Copyright (C) 2013 Fenix Framework Team and/or its affiliates and other contributors as indicated by the @author tags.
+ *
+ * This file is part of the Fenix Framework.  Read the file COPYRIGHT.TXT for more copyright and licensing information.
+ */
+package pt.ist.fenixframework.backend.jvstm.lf;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A Bloom filter summarizing the vbox ids written by a committed transaction. The filters of the most recent commits are kept
+ * in a fixed-size history, indexed by transaction number. The snapshot validation of a commit request joins the filters of all
+ * the commits that happened after its read version, and only needs to look at the boxes read that may be in that union.
+ *
+ * Filters may give false positives, but never false negatives. When some filter in the required range is no longer (or not
+ * yet) in the history, there is no summary at all and validation must check every box read.
+ *
+ * The history also keeps the ids written by each commit, which are needed to validate {@link SimpleReadSet#isElided() elided}
+ * read sets.
+ */
+public final class WriteSetFilter {
+
+    // both must be powers of 2
+    private static final int NUM_BITS = 8192;
+    private static final int HISTORY_SIZE = 1024;
+
+    private static final int NUM_WORDS = NUM_BITS / Long.SIZE;
+    private static final int NUM_HASHES = 3;
+
+    private static final AtomicReferenceArray<WriteSetFilter> history = new AtomicReferenceArray<WriteSetFilter>(HISTORY_SIZE);
+
+    private final int txNumber;
+    private final String[] vboxIds;
+    private final long[] bits = new long[NUM_WORDS];
+
+    private WriteSetFilter(int txNumber, String[] vboxIds) {
+        this.txNumber = txNumber;
+        this.vboxIds = vboxIds;
+        for (String vboxId : vboxIds) {
+            add(this.bits, vboxId);
+        }
+    }
+
+    /**
+     * Record the summary of the write set of the given committed transaction. Any helper of the commit may call this method.
+     *
+     * @param txNumber The version of the committed transaction
+     * @param vboxIds The ids of the boxes it wrote
+     */
+    public static void record(int txNumber, String[] vboxIds) {
+        int slot = txNumber & (HISTORY_SIZE - 1);
+        WriteSetFilter current = history.get(slot);
+        if (current != null && current.txNumber >= txNumber) {
+            return;
+        }
+
+        WriteSetFilter filter = new WriteSetFilter(txNumber, vboxIds);
+        while (current == null || current.txNumber < txNumber) {
+            if (history.compareAndSet(slot, current, filter)) {
+                return;
+            }
+            current = history.get(slot);
+        }
+    }
+
+    /**
+     * Join the filters of the commits with versions in the range ]fromTxNumber, toTxNumber].
+     *
+     * @return The union of the filters, or <code>null</code> if some of them is not available
+     */
+    public static long[] unionOf(int fromTxNumber, int toTxNumber) {
+        if (toTxNumber - fromTxNumber > HISTORY_SIZE) {
+            return null;
+        }
+
+        long[] union = new long[NUM_WORDS];
+        for (int txNumber = fromTxNumber + 1; txNumber <= toTxNumber; txNumber++) {
+            WriteSetFilter filter = history.get(txNumber & (HISTORY_SIZE - 1));
+            if (filter == null || filter.txNumber != txNumber) {
+                return null;
+            }
+            for (int i = 0; i < NUM_WORDS; i++) {
+                union[i] |= filter.bits[i];
+            }
+        }
+        return union;
+    }
+
+    /**
+     * Check whether the given vbox id may have been written by any of the commits joined in the given union.
+     */
+    public static boolean mightContain(long[] union, String vboxId) {
+        int numBits = union.length * Long.SIZE;
+        int hash = mix(vboxId.hashCode());
+        int step = (hash >>> 16) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (hash + i * step) & (numBits - 1);
+            if ((union[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the ids of the boxes written by the given committed transaction, if it is still in the history.
+     *
+     * @return The ids written, or <code>null</code> if the given version is not in the history
+     */
+    public static String[] getVBoxIdsWritten(int txNumber) {
+        WriteSetFilter filter = history.get(txNumber & (HISTORY_SIZE - 1));
+        return (filter != null && filter.txNumber == txNumber) ? filter.vboxIds : null;
+    }
+
+    /* adds the given id to a filter of any (power of 2) size, such as the
+    ones used by elided read sets */
+    static void add(long[] filter, String vboxId) {
+        int numBits = filter.length * Long.SIZE;
+        int hash = mix(vboxId.hashCode());
+        int step = (hash >>> 16) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (hash + i * step) & (numBits - 1);
+            filter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public static void clear() {
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            history.set(i, null);
+        }
+    }
+
+    // the finalizer of MurmurHash3, to spread the bits of String.hashCode()
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+}
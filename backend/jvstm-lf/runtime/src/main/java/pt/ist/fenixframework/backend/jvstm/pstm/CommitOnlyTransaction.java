@@ -4,6 +4,8 @@ import static jvstm.UtilUnsafe.UNSAFE;
 
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import jvstm.ActiveTransactionsRecord;
 import jvstm.TopLevelTransaction;
@@ -19,6 +21,7 @@ import pt.ist.fenixframework.backend.jvstm.lf.CommitRequest;
 import pt.ist.fenixframework.backend.jvstm.lf.CommitRequest.ValidationStatus;
 import pt.ist.fenixframework.backend.jvstm.lf.JvstmLockFreeBackEnd;
 import pt.ist.fenixframework.backend.jvstm.lf.SimpleReadSet;
+import pt.ist.fenixframework.backend.jvstm.lf.WriteSetFilter;
 
 //import jvstm.VBox;
 
@@ -36,11 +39,21 @@ public abstract class CommitOnlyTransaction extends TopLevelTransaction {
     public final static ConcurrentHashMap<UUID, LockFreeTransaction> commitsMap =
             new ConcurrentHashMap<UUID, LockFreeTransaction>();
 
+    /**
+     * Read sets with at least this many boxes are pre-validated in parallel.
+     */
+    private static final int PRE_VALIDATION_THRESHOLD = 256;
+
+    private static final int PRE_VALIDATION_CHUNK_SIZE = 128;
+
+    private static final ForkJoinPool PRE_VALIDATION_POOL = new ForkJoinPool();
+
     protected final CommitRequest commitRequest;
 
-//    private final WriteSet writeSet = STUB_WRITE_SET;
+    // the boxes read, in the same order as the read set, once the pre-validation completes
+    private volatile VBox[] readBoxes = null;
 
-    public static final ConcurrentHashMap<Integer, UUID> txVersionToCommitIdMap = new ConcurrentHashMap<Integer, UUID>();
+//    private final WriteSet writeSet = STUB_WRITE_SET;
 
 //    private boolean readOnly = false;
 
@@ -202,12 +215,32 @@ public abstract class CommitOnlyTransaction extends TopLevelTransaction {
 
         SimpleReadSet readSet = this.commitRequest.getReadSet();
 
+        if (readSet.isElided()) {
+            validateElidedReadSet(readSet, myReadVersion, lastSeenCommittedTxNumber);
+            logger.debug("Commit request {} is VALID", this.commitRequest.getId());
+            assignCommitRecord(lastSeenCommittedTxNumber + 1, getWriteSet());
+            return;
+        }
+
         // smf: TODO implement the helping mechanism here. For now, just iterate all.
 
         JvstmLockFreeBackEnd backend = JvstmLockFreeBackEnd.getInstance();
 
-        for (String vboxId : readSet.getVBoxIds()) {
-            VBox vbox = backend.vboxFromId(vboxId);
+        /* if the pre-validation already resolved and loaded the boxes read,
+        only their versions need to be checked here */
+        String[] vboxIds = readSet.getVBoxIds();
+        VBox[] readBoxes = this.readBoxes;
+
+        // summary of what was written since this transaction's read version (null if not known)
+        long[] writtenSince = WriteSetFilter.unionOf(myReadVersion, lastSeenCommittedTxNumber);
+
+        for (int i = 0; i < vboxIds.length; i++) {
+            if (writtenSince != null && !WriteSetFilter.mightContain(writtenSince, vboxIds[i])) {
+                // not written by any of the commits that may invalidate this read
+                continue;
+            }
+
+            VBox vbox = (readBoxes != null) ? readBoxes[i] : backend.vboxFromId(vboxIds[i]);
 //            if (vbox == null) {
 //                // smf: TODO this vbox is not cached locally. deal with this later
 //                logger.error("not implemented yet. must deal with uncached vboxes in this node. cannot continue to commit deterministically. exiting");
@@ -304,6 +337,118 @@ public abstract class CommitOnlyTransaction extends TopLevelTransaction {
         assignCommitRecord(lastSeenCommittedTxNumber + 1, getWriteSet());
     }
 
+    /* The ids read are not known, only a filter of them.  The origin node
+    already validated the read set up to this transaction's version, so it is
+    enough to check whether any commit after that wrote a box that may have been
+    read.  The outcome must be the same in every node, so it depends only on the
+    write sets of those commits, which are the same everywhere (false positives
+    included). */
+    private void validateElidedReadSet(SimpleReadSet readSet, int myReadVersion, int lastSeenCommittedTxNumber) {
+        for (int txNumber = myReadVersion + 1; txNumber <= lastSeenCommittedTxNumber; txNumber++) {
+            String[] vboxIdsWritten = WriteSetFilter.getVBoxIdsWritten(txNumber);
+            if (vboxIdsWritten == null) {
+                /* too old for the history (or this node started after it was
+                committed).  A version is mapped to its commit id before it is
+                enqueued, and the write set is persisted before the request is
+                broadcast, so every node finds the same write set here. */
+                vboxIdsWritten = JvstmLockFreeBackEnd.getInstance().getRepository().getVBoxIdsWritten(txNumber);
+            }
+            if (vboxIdsWritten == null) {
+                String message = "Impossible condition: no write set for committed version " + txNumber;
+                logger.error(message);
+                throw new AssertionError(message);
+            }
+
+            for (String vboxId : vboxIdsWritten) {
+                if (readSet.mightContain(vboxId)) {
+                    if (this.commitRequest.getValidationStatus() == ValidationStatus.VALID) {
+                        // some helper already committed it, and we are seeing our own write
+                        logger.debug("Some helper already found commit request {} to be VALID", this.commitRequest.getId());
+                        return;
+                    }
+                    logger.debug("Commit request {} is INVALID", this.commitRequest.getId());
+                    this.commitRequest.setInvalid();
+                    TransactionSignaller.SIGNALLER.signalCommitFail();
+                    throw new AssertionError("Impossible condition - Commit fail signalled!");
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the pre-validation of this transaction, if its read set is large enough for it to pay off. The pre-validation
+     * resolves and loads the boxes read in parallel, while the commit request waits in the queue. When the request reaches the
+     * head of the queue, the (sequential) {@link #snapshotValidation(int)} only needs to check the versions of those boxes,
+     * which covers whatever was committed in the meanwhile.
+     */
+    public void preValidate() {
+        String[] vboxIds = this.commitRequest.getReadSet().getVBoxIds();
+        if (vboxIds.length >= PRE_VALIDATION_THRESHOLD) {
+            logger.debug("Pre-validating {} boxes of commit request {}", vboxIds.length, this.commitRequest.getId());
+            PRE_VALIDATION_POOL.execute(new PreValidation(vboxIds));
+        }
+    }
+
+    private class PreValidation extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] vboxIds;
+
+        PreValidation(String[] vboxIds) {
+            this.vboxIds = vboxIds;
+        }
+
+        @Override
+        protected void compute() {
+            VBox[] boxes = new VBox[this.vboxIds.length];
+            new LoadBoxes(this.vboxIds, boxes, 0, boxes.length).invoke();
+            readBoxes = boxes;
+        }
+    }
+
+    private class LoadBoxes extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] vboxIds;
+        private final VBox[] boxes;
+        private final int from;
+        private final int to;
+
+        LoadBoxes(String[] vboxIds, VBox[] boxes, int from, int to) {
+            this.vboxIds = vboxIds;
+            this.boxes = boxes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > PRE_VALIDATION_CHUNK_SIZE) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new LoadBoxes(this.vboxIds, this.boxes, this.from, middle), new LoadBoxes(this.vboxIds, this.boxes,
+                        middle, this.to));
+                return;
+            }
+
+            JvstmLockFreeBackEnd backend = JvstmLockFreeBackEnd.getInstance();
+
+            // reloads use the number of the current transaction
+            Transaction savedTx = Transaction.current();
+            Transaction.current.set(CommitOnlyTransaction.this);
+            try {
+                for (int i = this.from; i < this.to; i++) {
+                    VBox vbox = backend.vboxFromId(this.vboxIds[i]);
+                    if (vbox.body.version == 0) {
+                        vbox.reload(Transaction.mostRecentCommittedRecord.transactionNumber);
+                    }
+                    this.boxes[i] = vbox;
+                }
+            } finally {
+                Transaction.current.set(savedTx);
+            }
+        }
+    }
+
     /**
      * Get the {@link WriteSet} for this transaction.
      * 
@@ -336,6 +481,14 @@ public abstract class CommitOnlyTransaction extends TopLevelTransaction {
             logger.debug("Transaction {} for commit request {} was already enqueued AND even committed by another helper.",
                     commitRecord.transactionNumber, this.commitRequest.getId());
         } else {
+            /* Map the version to its commit id before it can be committed.
+            Once committed, any node may need it: to reload the boxes written,
+            or to validate an elided read set, even if that node started
+            afterwards.  Every helper writes it before trying to enqueue, so
+            it is already stored whichever helper succeeds. */
+            JvstmLockFreeBackEnd.getInstance().getRepository()
+                    .mapTxVersionToCommitId(commitRecord.transactionNumber, this.commitRequest.getId());
+
             if (lastCheck.trySetNext(commitRecord)) {
                 logger.debug("Enqueued record for valid transaction {} of commit request {}", commitRecord.transactionNumber,
                         this.commitRequest.getId());
@@ -345,8 +498,7 @@ public abstract class CommitOnlyTransaction extends TopLevelTransaction {
             }
         }
 
-        // EVERYONE MUST TRY THIS, to ensure visibility when looking it up ahead.
-        txVersionToCommitIdMap.putIfAbsent(commitRecord.transactionNumber, this.commitRequest.getId());
+        WriteSetFilter.record(commitRecord.transactionNumber, this.commitRequest.getWriteSet().getVboxIds());
     }
 
     /* The commitTxRecord can only be set once */
@@ -364,24 +516,6 @@ public abstract class CommitOnlyTransaction extends TopLevelTransaction {
 //        return this.getUnderlyingTransaction().getCommitTxRecord();
 //    }
 
-    @Override
-    protected void helpCommit(ActiveTransactionsRecord recordToCommit) {
-        if (!recordToCommit.isCommitted()) {
-            logger.debug("Helping to commit version {}", recordToCommit.transactionNumber);
-
-            int txVersion = recordToCommit.transactionNumber;
-            UUID commitId = CommitOnlyTransaction.txVersionToCommitIdMap.get(txVersion);
-
-            if (commitId != null) { // may be null if it was already persisted 
-                JvstmLockFreeBackEnd.getInstance().getRepository().mapTxVersionToCommitId(txVersion, commitId);
-                CommitOnlyTransaction.txVersionToCommitIdMap.remove(txVersion);
-            }
-            super.helpCommit(recordToCommit);
-        } else {
-            logger.debug("Version {} was already fully committed", recordToCommit.transactionNumber);
-        }
-    }
-
     @Override
     protected void upgradeTx(ActiveTransactionsRecord newRecord) {
         // no op.  
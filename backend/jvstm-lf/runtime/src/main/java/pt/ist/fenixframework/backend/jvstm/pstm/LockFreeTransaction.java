@@ -22,9 +22,11 @@ import jvstm.cps.ConsistentTopLevelTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import pt.ist.fenixframework.FenixFramework;
 import pt.ist.fenixframework.backend.jvstm.lf.CommitRequest;
 import pt.ist.fenixframework.backend.jvstm.lf.CommitRequest.ValidationStatus;
 import pt.ist.fenixframework.backend.jvstm.lf.JvstmLockFreeBackEnd;
+import pt.ist.fenixframework.backend.jvstm.lf.JvstmLockFreeConfig;
 import pt.ist.fenixframework.backend.jvstm.lf.LockFreeClusterUtils;
 import pt.ist.fenixframework.backend.jvstm.lf.SimpleReadSet;
 import pt.ist.fenixframework.backend.jvstm.lf.SimpleWriteSet;
@@ -250,7 +252,16 @@ public class LockFreeTransaction extends ConsistentTopLevelTransaction implement
         upgradeTx(lastSeenCommitted);
     }
 
+    /* Values are inlined in the commit request for the other nodes to install
+    them without reloading. They are still written to the repository before the
+    request is broadcast: any node may reload the boxes as soon as the commit is
+    applied, and a version missing from the repository reads as not written. */
     private static void persistWriteSet(CommitRequest commitRequest) {
+        int inlineValuesMaxSize = FenixFramework.<JvstmLockFreeConfig> getConfig().getInlineValuesMaxSize();
+        if (inlineValuesMaxSize > 0) {
+            commitRequest.getWriteSet().inlineValues(inlineValuesMaxSize, NULL_VALUE);
+        }
+
         JvstmLockFreeBackEnd.getInstance().getRepository()
                 .persistWriteSet(commitRequest.getId(), commitRequest.getWriteSet(), NULL_VALUE);
     }
@@ -270,7 +281,13 @@ public class LockFreeTransaction extends ConsistentTopLevelTransaction implement
         // for later recovering this transaction
         CommitOnlyTransaction.commitsMap.put(commitRequest.getId(), this);
 
-        LockFreeClusterUtils.sendCommitRequest(commitRequest);
+        try {
+            LockFreeClusterUtils.sendCommitRequest(commitRequest);
+        } catch (RuntimeException e) {
+            // it will never be delivered, so no one else would remove it
+            CommitOnlyTransaction.commitsMap.remove(commitRequest.getId());
+            throw e;
+        }
         return commitRequest.getId();
     }
 
@@ -298,7 +315,15 @@ public class LockFreeTransaction extends ConsistentTopLevelTransaction implement
             }
         }
 
-        return new SimpleReadSet(vboxIds.toArray(new String[vboxIds.size()]));
+        String[] ids = vboxIds.toArray(new String[vboxIds.size()]);
+
+        /* preValidateLocally() already validated the reads up to this
+        transaction's version, so others only need to check what was written
+        after it */
+        if (FenixFramework.<JvstmLockFreeConfig> getConfig().getReadSetElision()) {
+            return SimpleReadSet.elided(ids);
+        }
+        return new SimpleReadSet(ids);
     }
 
     private SimpleWriteSet makeSimpleWriteSet() {
@@ -381,26 +406,4 @@ public class LockFreeTransaction extends ConsistentTopLevelTransaction implement
         }
     }
 
-    /* When this tx is performing local validation before sending its commit
-    record, it will helpcommit those in front of itself that are waiting for
-    write-back.  But, those need to persist their map txversion->commitId also,
-    so we override helpCommit here for that reason. */
-    @Override
-    protected void helpCommit(ActiveTransactionsRecord recordToCommit) {
-        if (!recordToCommit.isCommitted()) {
-            logger.debug("Helping to commit version {}", recordToCommit.transactionNumber);
-
-            int txVersion = recordToCommit.transactionNumber;
-            UUID commitId = CommitOnlyTransaction.txVersionToCommitIdMap.get(txVersion);
-
-            if (commitId != null) { // may be null if it was already persisted 
-                JvstmLockFreeBackEnd.getInstance().getRepository().mapTxVersionToCommitId(txVersion, commitId);
-                CommitOnlyTransaction.txVersionToCommitIdMap.remove(txVersion);
-            }
-            super.helpCommit(recordToCommit);
-        } else {
-            logger.debug("Version {} was already fully committed", recordToCommit.transactionNumber);
-        }
-    }
-
 }
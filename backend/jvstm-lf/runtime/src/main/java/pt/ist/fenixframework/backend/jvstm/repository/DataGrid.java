@@ -1,5 +1,8 @@
 package pt.ist.fenixframework.backend.jvstm.repository;
 
+import java.util.Collection;
+import java.util.Map;
+
 import pt.ist.fenixframework.backend.jvstm.lf.JvstmLockFreeConfig;
 
 public interface DataGrid {
@@ -14,6 +17,26 @@ public interface DataGrid {
 
     public void putIfAbsent(Object key, Object value);
 
+    /**
+     * Put the given value only if the current value of the key is the expected one.
+     * 
+     * @param expectedValue The value that the key must have, or <code>null</code> if the key must have no value
+     * @return Whether the value was put
+     */
+    public boolean replace(Object key, Object expectedValue, Object newValue);
+
+    /** Get the values of the given keys. Keys without a value are not present in the returned map. */
+    public <T> Map<Object, T> getAll(Collection<Object> keys);
+
+    /**
+     * Get whether {@link #getAll(Collection)} fetches the keys in bulk, rather than with one {@link #get(Object)} each. Only
+     * then is it worth looking up keys that may turn out not to be needed.
+     */
+    public boolean hasBulkGet();
+
+    /** Put all the given entries, as if by invoking {@link #put(Object, Object)} for each of them */
+    public void putAll(Map<Object, Object> entries);
+
     /** Start a new data grid transaction */
     public void beginTransaction();
 
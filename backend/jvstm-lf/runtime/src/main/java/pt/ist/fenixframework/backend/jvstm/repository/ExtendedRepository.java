@@ -10,6 +10,14 @@ public interface ExtendedRepository extends Repository {
 
     void mapTxVersionToCommitId(int txVersion, UUID commitId);
 
+    /**
+     * Publish the given version as the high-water mark of the committed versions, unless a higher one was already published.
+     * Every version up to the given one must already be mapped to its commit id.
+     * 
+     * @param txVersion The most recent version known to be committed
+     */
+    void publishHighWaterMark(int txVersion);
+
     /**
      * Get the String representation of the commitId belonging to the given version.
      * 
@@ -17,4 +25,12 @@ public interface ExtendedRepository extends Repository {
      * @return The commitId or <code>null</code> if the requested version is not committed yet
      */
     String getCommitIdFromVersion(int txVersion);
+
+    /**
+     * Get the ids of the boxes written by the transaction committed with the given version.
+     * 
+     * @param txVersion The version of the committed transaction
+     * @return The ids written or <code>null</code> if the requested version is not committed yet
+     */
+    String[] getVBoxIdsWritten(int txVersion);
 }
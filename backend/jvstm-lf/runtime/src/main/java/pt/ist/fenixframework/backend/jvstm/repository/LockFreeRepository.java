@@ -9,7 +9,11 @@ package pt.ist.fenixframework.backend.jvstm.repository;
 
 import static jvstm.UtilUnsafe.UNSAFE;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
@@ -44,12 +48,13 @@ import pt.ist.fenixframework.core.Externalization;
  * * <txVersion>: contains the commit id for the given txVersion (the key is an integer!)
  * * <vboxid>: the most recent consolidated version for *this* vboxid
  * * ":LCV:": The absolute last consolidated tx version (always >= than the consolidated version on any vbox)
+ * * ":HWM:": A recently committed tx version, only ever increased (every version up to it is mapped to its commit id)
  * * ":"<commitId>":": The write set of such commit Id (list of vbox ids)
  * * <serverId>":"<classId>: The highest counter for class instances of the given class in the given node (updated upon commits from this node only)
  * 
  *  Commit Ids are uuids, txVersions are integer numbers. vboxids should not contains the character ':'.
  */
-public class LockFreeRepository implements ExtendedRepository {
+public class LockFreeRepository implements ExtendedRepository, CounterLeasingRepository {
 
     private static final Logger logger = LoggerFactory.getLogger(LockFreeRepository.class);
 
@@ -65,11 +70,28 @@ public class LockFreeRepository implements ExtendedRepository {
      */
     private static final String LAST_CONSOLIDATED_VERSION = ":LCV:";
 
+    /**
+     * Key for storing the high-water mark of committed transaction versions. All transaction versions up to and including this
+     * one, have been mapped to their commit ids.
+     */
+    private static final String HIGH_WATER_MARK = ":HWM:";
+
     /**
      * Number of attempts to perform a repository transaction
      */
     private static final int MAX_TX_ATEMPTS = 10;
 
+    /**
+     * Maximum number of versions looked up at once when loading the versions of a box
+     */
+    private static final int MAX_VERSIONS_PER_LOOKUP = 1024;
+
+    /**
+     * Number of versions looked up at once when searching for a version older than the one required, if the data grid gets
+     * keys in bulk. Otherwise, they are looked up one at a time, up to the first one found
+     */
+    private static final int MIN_VERSIONS_PER_LOOKUP = 16;
+
     private static final long bodyValueOffset = UtilUnsafe.objectFieldOffset(VBoxBody.class, "value");
 
     /* this is replaced with a method that needs to search the existing entries to decide the nonCommitted tx id*/
@@ -157,21 +179,25 @@ public class LockFreeRepository implements ExtendedRepository {
 
     @Override
     public void updateMaxCounterForClass(DomainClassInfo domainClassInfo, int newCounterValue) {
-        // TODO Auto-generated method stub
-        logger.warn("updateMaxCounterForClass() not yet implemented");
-//        throw new UnsupportedOperationException("not yet implemented");
+        // nothing to do: the counters are leased in blocks. See leaseCountersForClass()
+    }
 
-//        Transaction current = FenixFramework.getTransaction();
-//
-//        Set<DomainClassInfo> infos = current.getFromContext(KEY_INSTANTIATED_CLASSES);
-//        if (infos == null) {
-//            infos = new HashSet<DomainClassInfo>();
-//            current.putInContext(KEY_INSTANTIATED_CLASSES, infos);
-//        }
-//
-//        if (infos.add(domainClassInfo)) {
-//            logger.debug("Will update counter for instances of {} upon commit.", domainClassInfo.domainClassName);
-//        }
+    /* Only this server uses the counter of each class in this server, so there
+    are no concurrent updates to the stored value. */
+    @Override
+    public int leaseCountersForClass(DomainClassInfo domainClassInfo, final int blockSize) {
+        final String key = makeKeyForMaxCounter(domainClassInfo);
+
+        return doWithinBackingTransactionIfNeeded(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                Integer maxLeased = (Integer) dataGrid.get(key);
+                int firstKey = (maxLeased == null) ? 1 : maxLeased + 1;
+
+                dataGrid.put(key, firstKey + blockSize - 1);
+                return firstKey;
+            }
+        });
     }
 
     @Override
@@ -224,7 +250,7 @@ public class LockFreeRepository implements ExtendedRepository {
 
     // returns the highest committed transaction number stored in the data grid
     @Override
-    public synchronized int getMaxCommittedTxNumber() {
+    public int getMaxCommittedTxNumber() {
         return doWithinBackingTransactionIfNeeded(new Callable<Integer>() {
 
             class Interval {
@@ -239,8 +265,15 @@ public class LockFreeRepository implements ExtendedRepository {
 
             @Override
             public Integer call() {
-                Integer lcv = LockFreeRepository.this.dataGrid.get(LAST_CONSOLIDATED_VERSION);
-                int minValue = (lcv == null) ? 0 : lcv;
+                /* start from the highest of the known lower bounds.  The high-water
+                mark is kept close to the most recent version, so usually the first
+                probe already finds the end of the committed versions. */
+                Map<Object, Integer> marks =
+                        LockFreeRepository.this.dataGrid.getAll(Arrays.<Object> asList(LAST_CONSOLIDATED_VERSION,
+                                HIGH_WATER_MARK));
+                Integer lcv = marks.get(LAST_CONSOLIDATED_VERSION);
+                Integer hwm = marks.get(HIGH_WATER_MARK);
+                int minValue = Math.max((lcv == null) ? 0 : lcv, (hwm == null) ? 0 : hwm);
 
                 Interval interval = new Interval(minValue, Integer.MAX_VALUE);
 
@@ -461,7 +494,8 @@ public class LockFreeRepository implements ExtendedRepository {
 
                 String[] vBoxIds = writeSet.getVboxIds();
                 int size = vBoxIds.length;
-                LockFreeRepository.this.dataGrid.put(makeKeyFor(commitId), vBoxIds);
+                Map<Object, Object> entries = new HashMap<Object, Object>((size + 1) * 2);
+                entries.put(makeKeyFor(commitId), vBoxIds);
 
                 // store each value associated with vboxid:commitId
                 Object[] values = writeSet.getValues();
@@ -474,9 +508,10 @@ public class LockFreeRepository implements ExtendedRepository {
 
                     DataHolder newVersion = new DataHolder(newValue);
 
-                    LockFreeRepository.this.dataGrid.put(key, newVersion);
+                    entries.put(key, newVersion);
                 }
 
+                LockFreeRepository.this.dataGrid.putAll(entries);
                 return null;
             }
         });
@@ -497,6 +532,29 @@ public class LockFreeRepository implements ExtendedRepository {
         });
     }
 
+    @Override
+    public void publishHighWaterMark(final int txVersion) {
+        doWithinBackingTransactionIfNeeded(new Callable<Void>() {
+            @Override
+            public Void call() {
+                /* other nodes may be publishing concurrently, so only ever
+                replace a lower mark.  Giving up is harmless: any published mark
+                is a valid lower bound. */
+                for (int i = 0; i < MAX_TX_ATEMPTS; i++) {
+                    Integer current = LockFreeRepository.this.dataGrid.get(HIGH_WATER_MARK);
+                    if (current != null && current >= txVersion) {
+                        return null;
+                    }
+                    if (LockFreeRepository.this.dataGrid.replace(HIGH_WATER_MARK, current, txVersion)) {
+                        logger.debug("publishHighWaterMark: {}", txVersion);
+                        return null;
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
     @Override
     public String getCommitIdFromVersion(final int txVersion) {
         return doWithinBackingTransactionIfNeeded(new Callable<String>() {
@@ -509,6 +567,21 @@ public class LockFreeRepository implements ExtendedRepository {
         });
     };
 
+    @Override
+    public String[] getVBoxIdsWritten(final int txVersion) {
+        return doWithinBackingTransactionIfNeeded(new Callable<String[]>() {
+            @Override
+            public String[] call() {
+                String commitId = getCommitIdForVersion(txVersion);
+                if (commitId == null) {
+                    return null;
+                }
+                // the ids are stored along with the write set, in persistWriteSet()
+                return LockFreeRepository.this.dataGrid.get(makeKeyFor(UUID.fromString(commitId)));
+            }
+        });
+    }
+
     List<VersionedValue> getMostRecentVersions(final VBox vbox, final int desiredVersion) {
         // TODO Auto-generated method stub
         throw new UnsupportedOperationException("not yet implemented");
@@ -598,42 +671,59 @@ public class LockFreeRepository implements ExtendedRepository {
     /* Load existing versions between versionToLoad and txNumber.  The box may
     not have been written in the given versions.  Thus, if it is necessary to
     satisfy the requirements, the returned list of bodies must include a version
-    lower than txNumber. */
-    @SuppressWarnings("unchecked")
+    lower than txNumber.  The versions are looked up in chunks: first the commit
+    ids of a chunk of versions, then the entries of the box in those commits,
+    with one getAll each.  Below txNumber, only the grids that get keys in
+    bulk look up more than one version at a time. */
     private VBoxBody loadVersionsInRange(VBox box, int versionToLoad, int txNumber) {
 
         Cons<Pair<DataHolder, Integer>> entries = Cons.<Pair<DataHolder, Integer>> empty();
+        String boxKey = makeKeyFor(box);
+
+        boolean found = false;
+        while (!found) {
+            int lowestVersion;
+            if (versionToLoad >= txNumber) {
+                // every version down to txNumber must be loaded
+                lowestVersion = Math.max(txNumber, versionToLoad - MAX_VERSIONS_PER_LOOKUP + 1);
+            } else {
+                // only the first version found below txNumber is needed
+                int versionsPerLookup = LockFreeRepository.this.dataGrid.hasBulkGet() ? MIN_VERSIONS_PER_LOOKUP : 1;
+                lowestVersion = Math.max(0, versionToLoad - versionsPerLookup + 1);
+            }
 
-        while (true) {
-            // find the commitId of this committed version
-            String commitId = getCommitIdForVersion(versionToLoad);
-
-//        logger.debug("version {} as commitId {}", versionToLoad, commitId);
+            Map<Object, String> commitIds = getCommitIdsForVersions(versionToLoad, lowestVersion);
 
-            // lookup an entry for this box in the given version
-            String key = makeKeyWithCommitId(makeKeyFor(box), commitId);
+            List<Object> keys = new ArrayList<Object>(versionToLoad - lowestVersion + 1);
+            for (int version = versionToLoad; version >= lowestVersion; version--) {
+                keys.add(makeKeyWithCommitId(boxKey, commitIds.get(version)));
+            }
+            Map<Object, DataHolder> holders = LockFreeRepository.this.dataGrid.getAll(keys);
 
-            logger.debug("looking up key {} (tx version={})", key, versionToLoad);
+            for (Object key : keys) {
+                logger.debug("looking up key {} (tx version={})", key, versionToLoad);
 
-            DataHolder entry = LockFreeRepository.this.dataGrid.get(key);
+                DataHolder entry = holders.get(key);
 
-            if (entry != null) {
-                Pair<DataHolder, Integer> pair = new Pair<DataHolder, Integer>(entry, versionToLoad);
-                entries = entries.cons(pair);
+                if (entry != null) {
+                    Pair<DataHolder, Integer> pair = new Pair<DataHolder, Integer>(entry, versionToLoad);
+                    entries = entries.cons(pair);
 
-                if (versionToLoad <= txNumber) {
-                    logger.debug("Leaving load loop at version {} <= txNumber {}", versionToLoad, txNumber);
-                    break;
-                }
-            } else {
-                logger.debug("No such key: {}", key);
-                if (versionToLoad == 0) {
-                    throw new PersistenceException("Version of vbox " + box.getId() + " not found for transaction number "
-                            + txNumber);
+                    if (versionToLoad <= txNumber) {
+                        logger.debug("Leaving load loop at version {} <= txNumber {}", versionToLoad, txNumber);
+                        found = true;
+                        break;
+                    }
+                } else {
+                    logger.debug("No such key: {}", key);
+                    if (versionToLoad == 0) {
+                        throw new PersistenceException("Version of vbox " + box.getId() + " not found for transaction number "
+                                + txNumber);
+                    }
                 }
-            }
 
-            versionToLoad--;
+                versionToLoad--;
+            }
         }
 
         logger.debug("Found {} version(s) to load", entries.size());
@@ -650,6 +740,15 @@ public class LockFreeRepository implements ExtendedRepository {
         return bodies;
     }
 
+    // returns the commitIds of the versions in [lowestVersion;highestVersion]
+    private Map<Object, String> getCommitIdsForVersions(int highestVersion, int lowestVersion) {
+        List<Object> versions = new ArrayList<Object>(highestVersion - lowestVersion + 1);
+        for (int version = highestVersion; version >= lowestVersion; version--) {
+            versions.add(version);
+        }
+        return LockFreeRepository.this.dataGrid.getAll(versions);
+    }
+
     private String getCommitIdForVersion(int versionToLoad) {
         String commitId = LockFreeRepository.this.dataGrid.get(versionToLoad);
         return commitId;
@@ -141,6 +141,19 @@ public class DomainClassInfo {
         }
     }
 
+    /**
+     * Ensure that the next OIDs generated for the given class use keys greater than the given one. Used when objects are
+     * restored from a {@link Snapshot}.
+     */
+    static void updateLastKey(Class objClass, int key) {
+        DomainClassInfo info = classInfoMap.get(objClass);
+        synchronized (info) {
+            if (info.getLastKey() < key) {
+                info.setLastKey(key);
+            }
+        }
+    }
+
     // the non-static part starts here
 
     public final transient Class domainClass;
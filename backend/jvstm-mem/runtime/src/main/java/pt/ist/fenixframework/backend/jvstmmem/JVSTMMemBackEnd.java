@@ -11,6 +11,9 @@ public class JVSTMMemBackEnd implements BackEnd {
 
     private final TransactionManager transactionManager;
 
+    // whether the domain was restored from a snapshot
+    private volatile boolean restored = false;
+
     public JVSTMMemBackEnd() {
         transactionManager = new JVSTMMemTransactionManager();
     }
@@ -57,8 +60,12 @@ public class JVSTMMemBackEnd implements BackEnd {
 
     @Override
     public boolean isNewInstance() {
-        // In-Memory backend is always a new instance
-        return true;
+        // In-Memory backend is always a new instance, unless it was restored from a snapshot
+        return !restored;
+    }
+
+    void setRestored() {
+        this.restored = true;
     }
 
     @Override
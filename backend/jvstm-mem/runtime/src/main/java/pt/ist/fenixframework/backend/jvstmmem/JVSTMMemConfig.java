@@ -1,20 +1,92 @@
 package pt.ist.fenixframework.backend.jvstmmem;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.ConfigError;
 import pt.ist.fenixframework.FenixFramework;
 import pt.ist.fenixframework.backend.BackEnd;
 import pt.ist.fenixframework.hibernatesearch.HibernateSearchConfig;
 
 public class JVSTMMemConfig extends HibernateSearchConfig {
-    protected final BackEnd backEnd;
+    private static final Logger logger = LoggerFactory.getLogger(JVSTMMemConfig.class);
+
+    /**
+     * This <strong>optional</strong> parameter specifies the file where {@link Snapshot}s of the domain are kept. If the file
+     * exists at startup, the domain is restored from it. A last snapshot is written when the framework shuts down. There is no
+     * default value for this parameter, so by default the domain lives only in memory.
+     */
+    protected String snapshotFile = null;
+
+    /**
+     * This <strong>optional</strong> parameter specifies the interval, in seconds, between periodic snapshots of the domain.
+     * It only applies when a <code>snapshotFile</code> is given. The default value for this parameter is <code>0</code>, which
+     * disables periodic snapshots.
+     */
+    protected int snapshotInterval = 0;
+
+    protected final JVSTMMemBackEnd backEnd;
 
     public JVSTMMemConfig() {
         this.backEnd = new JVSTMMemBackEnd();
     }
 
+    protected void snapshotIntervalFromString(String value) {
+        try {
+            snapshotInterval = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigError(e);
+        }
+    }
+
+    public String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
     @Override
     protected void init() {
         DomainClassInfo.initializeClassInfos(FenixFramework.getDomainModel(), 0);
+        if (snapshotFile != null) {
+            restoreSnapshot(new File(snapshotFile));
+        }
         super.init();
+
+        if (snapshotFile != null && snapshotInterval > 0) {
+            new SnapshotWriter(new File(snapshotFile), snapshotInterval).start();
+        }
+    }
+
+    private void restoreSnapshot(File file) {
+        if (!file.exists()) {
+            logger.info("No snapshot found in {}. Starting with an empty domain.", file);
+            return;
+        }
+        try {
+            Snapshot.read(file);
+            backEnd.setRestored();
+        } catch (IOException e) {
+            throw new ConfigError(e);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        // stop the periodic snapshots before taking the last one
+        super.shutdown();
+        if (snapshotFile != null) {
+            try {
+                Snapshot.write(new File(snapshotFile));
+            } catch (IOException e) {
+                logger.error("Failed to write snapshot on shutdown", e);
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,323 @@
+package pt.ist.fenixframework.backend.jvstmmem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import jvstm.VBox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.core.AbstractDomainObject;
+import pt.ist.fenixframework.core.DomainObjectAllocator;
+import pt.ist.fenixframework.core.SharedIdentityMap;
+
+/**
+ * Writes and reads snapshots of the whole domain, for warm restarts of this in-memory backend.
+ * 
+ * A snapshot holds every domain object reachable from the {@link pt.ist.fenixframework.DomainRoot}, with the latest committed
+ * value of each of its {@link VBox}es. It is written within a read-only transaction, so it is consistent and it does not
+ * stop the other transactions. References to domain objects are written as their OIDs, and all other values use Java
+ * serialization, so they must be {@link Serializable}.
+ * 
+ * Reading a snapshot allocates the objects directly, without running any domain code. It must be done at startup, before any
+ * domain object is created.
+ */
+public final class Snapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(Snapshot.class);
+
+    private static final int MAGIC = 0x46465353; // "FFSS"
+    private static final int FORMAT_VERSION = 1;
+
+    // marks the first occurrence of a class, which is followed by the description of its fields
+    private static final int NEW_CLASS = -1;
+
+    private static final DomainObjectAllocator allocator = new DomainObjectAllocator(JVSTMMemDomainObject.class);
+
+    private static final Map<Class<?>, Field[]> STATE_FIELDS = new IdentityHashMap<Class<?>, Field[]>();
+
+    private Snapshot() {
+    }
+
+    /**
+     * Write a snapshot of the domain to the given file. The file is only replaced once the snapshot is complete.
+     * 
+     * @throws IOException If the snapshot could not be written
+     */
+    public static void write(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        boolean inTransaction = jvstm.Transaction.current() != null;
+        if (!inTransaction) {
+            jvstm.Transaction.begin(true);
+        }
+        int numObjects;
+        try {
+            SnapshotOutputStream out = new SnapshotOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                numObjects = out.writeDomain();
+            } finally {
+                out.close();
+            }
+        } finally {
+            if (!inTransaction) {
+                // read-only, so it never fails
+                jvstm.Transaction.commit();
+            }
+        }
+
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Wrote snapshot of {} objects to {} in {}ms", numObjects, file, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Restore the domain from the snapshot in the given file.
+     * 
+     * @throws IOException If the snapshot could not be read
+     */
+    public static void read(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        SnapshotInputStream in = new SnapshotInputStream(new BufferedInputStream(new FileInputStream(file)));
+        int numObjects;
+        // the boxes are created within a single inevitable transaction
+        jvstm.Transaction.beginInevitable();
+        try {
+            numObjects = in.readDomain();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Snapshot " + file + " refers to a class that does not exist", e);
+        } finally {
+            jvstm.Transaction.commit();
+            in.close();
+        }
+        logger.info("Read snapshot of {} objects from {} in {}ms", numObjects, file, System.currentTimeMillis() - start);
+    }
+
+    // the fields that hold the state of a domain class, from the class up to (excluding) JVSTMMemDomainObject
+    private static Field[] getStateFields(Class<?> objClass) {
+        synchronized (STATE_FIELDS) {
+            Field[] fields = STATE_FIELDS.get(objClass);
+            if (fields == null) {
+                ArrayList<Field> list = new ArrayList<Field>();
+                for (Class<?> c = objClass; c != JVSTMMemDomainObject.class; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        int modifiers = field.getModifiers();
+                        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                            field.setAccessible(true);
+                            list.add(field);
+                        }
+                    }
+                }
+                fields = list.toArray(new Field[list.size()]);
+                STATE_FIELDS.put(objClass, fields);
+            }
+            return fields;
+        }
+    }
+
+    private static AbstractDomainObject lookupOrAllocate(String className, long oid) throws ClassNotFoundException {
+        AbstractDomainObject obj = SharedIdentityMap.getCache().lookup(oid);
+        if (obj == null) {
+            Class<? extends AbstractDomainObject> objClass =
+                    Class.forName(className).asSubclass(AbstractDomainObject.class);
+            obj = SharedIdentityMap.getCache().cache(allocator.allocateObject(objClass, oid));
+        }
+        return obj;
+    }
+
+    /* replaces each reference to a domain object with its OID */
+    private static final class ObjectRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String className;
+        private final long oid;
+
+        ObjectRef(String className, long oid) {
+            this.className = className;
+            this.oid = oid;
+        }
+    }
+
+    private static final class SnapshotOutputStream extends ObjectOutputStream {
+        private final Set<Long> seen = new HashSet<Long>();
+        private final ArrayDeque<JVSTMMemDomainObject> pending = new ArrayDeque<JVSTMMemDomainObject>();
+        private final Map<Class<?>, Integer> classIndexes = new HashMap<Class<?>, Integer>();
+
+        SnapshotOutputStream(OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        int writeDomain() throws IOException {
+            writeInt(MAGIC);
+            writeInt(FORMAT_VERSION);
+
+            JVSTMMemDomainObject root = (JVSTMMemDomainObject) SharedIdentityMap.getCache().lookup(1L);
+            if (root != null) {
+                enqueue(root);
+            }
+            int numObjects = 0;
+            while (!pending.isEmpty()) {
+                writeBoolean(true);
+                writeDomainObject(pending.poll());
+                // no need to keep back-references between objects
+                reset();
+                numObjects++;
+            }
+            writeBoolean(false);
+            return numObjects;
+        }
+
+        private void writeDomainObject(JVSTMMemDomainObject obj) throws IOException {
+            Class<?> objClass = obj.getClass();
+            Field[] fields = getStateFields(objClass);
+
+            Integer classIndex = classIndexes.get(objClass);
+            if (classIndex == null) {
+                classIndexes.put(objClass, classIndexes.size());
+                writeInt(NEW_CLASS);
+                writeUTF(objClass.getName());
+                writeInt(fields.length);
+                for (Field field : fields) {
+                    writeUTF(field.getDeclaringClass().getName());
+                    writeUTF(field.getName());
+                }
+            } else {
+                writeInt(classIndex);
+            }
+
+            writeLong(obj.getOid());
+            for (Field field : fields) {
+                Object value;
+                try {
+                    value = field.get(obj);
+                } catch (IllegalAccessException e) {
+                    throw new Error(e);
+                }
+                if (value instanceof VBox) {
+                    value = ((VBox<?>) value).get();
+                }
+                writeObject(value);
+            }
+        }
+
+        private void enqueue(JVSTMMemDomainObject obj) {
+            if (seen.add(obj.getOid())) {
+                pending.add(obj);
+            }
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof JVSTMMemDomainObject) {
+                JVSTMMemDomainObject domainObject = (JVSTMMemDomainObject) obj;
+                enqueue(domainObject);
+                return new ObjectRef(domainObject.getClass().getName(), domainObject.getOid());
+            }
+            return obj;
+        }
+    }
+
+    private static final class SnapshotInputStream extends ObjectInputStream {
+        private final ArrayList<Class<?>> classes = new ArrayList<Class<?>>();
+        private final ArrayList<Field[]> classFields = new ArrayList<Field[]>();
+
+        SnapshotInputStream(InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        int readDomain() throws IOException, ClassNotFoundException {
+            if (readInt() != MAGIC || readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a snapshot, or a snapshot of an unsupported version");
+            }
+
+            Map<Class<?>, Integer> lastKeys = new HashMap<Class<?>, Integer>();
+            int numObjects = 0;
+            while (readBoolean()) {
+                int classIndex = readInt();
+                if (classIndex == NEW_CLASS) {
+                    classIndex = readClassDescription();
+                }
+                Class<?> objClass = classes.get(classIndex);
+                long oid = readLong();
+
+                AbstractDomainObject obj = lookupOrAllocate(objClass.getName(), oid);
+                for (Field field : classFields.get(classIndex)) {
+                    Object value = readObject();
+                    try {
+                        field.set(obj, VBox.class.isAssignableFrom(field.getType()) ? new VBox<Object>(value) : value);
+                    } catch (IllegalAccessException e) {
+                        throw new Error(e);
+                    }
+                }
+
+                Integer lastKey = lastKeys.get(objClass);
+                int key = (int) oid;
+                if (lastKey == null || lastKey < key) {
+                    lastKeys.put(objClass, key);
+                }
+                numObjects++;
+            }
+
+            for (Map.Entry<Class<?>, Integer> entry : lastKeys.entrySet()) {
+                DomainClassInfo.updateLastKey(entry.getKey(), entry.getValue());
+            }
+            return numObjects;
+        }
+
+        private int readClassDescription() throws IOException, ClassNotFoundException {
+            Class<?> objClass = Class.forName(readUTF());
+            Field[] fields = new Field[readInt()];
+            for (int i = 0; i < fields.length; i++) {
+                Class<?> declaringClass = Class.forName(readUTF());
+                String fieldName = readUTF();
+                try {
+                    fields[i] = declaringClass.getDeclaredField(fieldName);
+                } catch (NoSuchFieldException e) {
+                    throw new IOException("Snapshot refers to a field that no longer exists: " + declaringClass.getName() + "."
+                            + fieldName, e);
+                }
+                fields[i].setAccessible(true);
+            }
+            classes.add(objClass);
+            classFields.add(fields);
+            return classes.size() - 1;
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof ObjectRef) {
+                ObjectRef ref = (ObjectRef) obj;
+                try {
+                    return lookupOrAllocate(ref.className, ref.oid);
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Snapshot refers to a class that does not exist: " + ref.className, e);
+                }
+            }
+            return obj;
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package pt.ist.fenixframework.backend.jvstmmem;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.util.FenixFrameworkThread;
+
+/**
+ * This thread periodically writes a {@link Snapshot} of the domain.
+ */
+public class SnapshotWriter extends FenixFrameworkThread {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotWriter.class);
+
+    private final File file;
+    private final long intervalMillis;
+
+    SnapshotWriter(File file, int intervalSeconds) {
+        super("Snapshot writer");
+        this.file = file;
+        this.intervalMillis = intervalSeconds * 1000L;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                logger.info("Snapshot writer thread was interrupted. Terminating.");
+                return;
+            }
+
+            try {
+                Snapshot.write(file);
+            } catch (IOException e) {
+                logger.error("Failed to write snapshot to " + file, e);
+            }
+        }
+    }
+
+}
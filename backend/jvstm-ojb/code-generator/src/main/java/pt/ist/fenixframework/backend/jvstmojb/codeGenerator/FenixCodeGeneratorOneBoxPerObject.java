@@ -3,6 +3,7 @@ package pt.ist.fenixframework.backend.jvstmojb.codeGenerator;
 import java.io.PrintWriter;
 import java.util.Iterator;
 
+import pt.ist.fenixframework.backend.jvstmojb.pstm.LazySlotBox;
 import pt.ist.fenixframework.backend.jvstmojb.pstm.OneBoxDomainObject;
 import pt.ist.fenixframework.backend.jvstmojb.repository.DbUtil;
 import pt.ist.fenixframework.dml.CompilerArgs;
@@ -18,6 +19,7 @@ public class FenixCodeGeneratorOneBoxPerObject extends FenixCodeGenerator {
 
     private static final String DO_STATE_SUPER = OneBoxDomainObject.class.getName() + ".DO_State ";
     private static final String ONE_BOX_DOMAIN_OBJECT_CLASS = OneBoxDomainObject.class.getName();
+    private static final String LAZY_SLOT_BOX_CLASS = LazySlotBox.class.getName();
 
     protected DomainClass currentClass;
 
@@ -71,12 +73,33 @@ public class FenixCodeGeneratorOneBoxPerObject extends FenixCodeGenerator {
 
     @Override
     protected void generateSlots(Iterator slotsIter, PrintWriter out) {
-        // do nothing
+        // only lazy slots have their own box, all the others are kept in the DO_State
+        while (slotsIter.hasNext()) {
+            Slot slot = (Slot) slotsIter.next();
+            if (slot.isLazy()) {
+                onNewline(out);
+                printWords(out, "private", makeGenericType(LAZY_SLOT_BOX_CLASS, slot.getTypeName()), slot.getName());
+                print(out, ";");
+            }
+        }
     }
 
     @Override
     protected void generateInitSlot(Slot slot, PrintWriter out) {
-        // do nothing
+        if (slot.isLazy()) {
+            onNewline(out);
+            printWords(out, slot.getName());
+            print(out, " = ");
+            print(out, LAZY_SLOT_BOX_CLASS);
+            print(out, ".makeNew(this, \"");
+            print(out, slot.getName());
+            print(out, "\", allocateOnly);");
+        }
+    }
+
+    protected boolean isLazySlot(String slotName) {
+        Slot slot = currentClass.findSlot(slotName);
+        return (slot != null) && slot.isLazy();
     }
 
     @Override
@@ -114,7 +137,11 @@ public class FenixCodeGeneratorOneBoxPerObject extends FenixCodeGenerator {
 
     @Override
     protected void generateGetSlotExpression(String slotName, PrintWriter out) {
-        print(out, getSlotExpression(slotName));
+        if (isLazySlot(slotName)) {
+            super.generateGetSlotExpression(slotName, out);
+        } else {
+            print(out, getSlotExpression(slotName));
+        }
     }
 
     @Override
@@ -122,6 +149,8 @@ public class FenixCodeGeneratorOneBoxPerObject extends FenixCodeGenerator {
         Role role = currentClass.findRoleSlot(slotName);
         if (role != null && role.getMultiplicityUpper() != 1) {
             return makeRelationListGetterName(slotName) + "()";
+        } else if (isLazySlot(slotName)) {
+            return "this." + slotName;
         } else {
             return "((DO_State)this.get$obj$state(false))." + slotName;
         }
@@ -133,6 +162,11 @@ public class FenixCodeGeneratorOneBoxPerObject extends FenixCodeGenerator {
 
     @Override
     protected void generateSetterBody(String setterName, Slot slot, PrintWriter out) {
+        if (slot.isLazy()) {
+            super.generateSetterBody(setterName, slot, out);
+            return;
+        }
+
         print(out, "((DO_State)this.get$obj$state(true)).");
         print(out, slot.getName());
         print(out, " = ");
@@ -150,9 +184,11 @@ public class FenixCodeGeneratorOneBoxPerObject extends FenixCodeGenerator {
 
         newBlock(out);
         onNewline(out);
-        // all the slots
+        // all the slots, except the lazy ones, which have their own box
         for (Slot slot : domClass.getSlotsList()) {
-            generateSlotDeclaration(out, slot.getTypeName(), slot.getName());
+            if (!slot.isLazy()) {
+                generateSlotDeclaration(out, slot.getTypeName(), slot.getName());
+            }
         }
 
         for (Role role : domClass.getRoleSlotsList()) {
@@ -167,8 +203,10 @@ public class FenixCodeGeneratorOneBoxPerObject extends FenixCodeGenerator {
         println(out, "super.copyTo(newState);");
         println(out, "DO_State newCasted = (DO_State)newState;");
         for (Slot slot : domClass.getSlotsList()) {
-            printWords(out, "newCasted." + slot.getName(), "=", "this." + slot.getName());
-            println(out, ";");
+            if (!slot.isLazy()) {
+                printWords(out, "newCasted." + slot.getName(), "=", "this." + slot.getName());
+                println(out, ";");
+            }
         }
 
         for (Role role : domClass.getRoleSlotsList()) {
@@ -221,7 +259,9 @@ public class FenixCodeGeneratorOneBoxPerObject extends FenixCodeGenerator {
         println(out, "DO_State castedState = (DO_State)state;");
 
         for (Slot slot : domClass.getSlotsList()) {
-            generateOneSlotRsReader(out, slot.getName(), slot.getSlotType());
+            if (!slot.isLazy()) {
+                generateOneSlotRsReader(out, slot.getName(), slot.getSlotType());
+            }
         }
 
         for (Role role : domClass.getRoleSlotsList()) {
@@ -231,6 +271,33 @@ public class FenixCodeGeneratorOneBoxPerObject extends FenixCodeGenerator {
         }
 
         endMethodBody(out);
+
+        if (domClass.hasSlotWithOption(Slot.Option.LAZY)) {
+            generateLazySlotReader(domClass, out);
+        }
+    }
+
+    protected void generateLazySlotReader(DomainClass domClass, PrintWriter out) {
+        newline(out);
+        printMethod(out, "protected", "void", "readLazySlotFromResultSet", makeArg("String", "slotName"),
+                makeArg("java.sql.ResultSet", "rs"), makeArg("int", "txNumber"));
+        print(out, " throws java.sql.SQLException");
+        startMethodBody(out);
+
+        for (Slot slot : domClass.getSlotsList()) {
+            if (slot.isLazy()) {
+                print(out, "if (slotName.equals(\"");
+                print(out, slot.getName());
+                println(out, "\")) {");
+                super.generateOneSlotRsReader(out, slot.getName(), slot.getSlotType());
+                newline(out);
+                println(out, "return;");
+                println(out, "}");
+            }
+        }
+
+        print(out, "super.readLazySlotFromResultSet(slotName, rs, txNumber);");
+        endMethodBody(out);
     }
 
     @Override
@@ -267,6 +334,26 @@ public class FenixCodeGeneratorOneBoxPerObject extends FenixCodeGenerator {
         ValueType vt = getExternalizationType(type);
         print(out, vt.getFullname());
         print(out, " value, ");
+
+        if (isLazySlot(name)) {
+            // lazy slots are loaded directly into their own box
+            print(out, "int txNumber)");
+
+            startMethodBody(out);
+            print(out, "this.");
+            print(out, name);
+            print(out, ".persistentLoad(");
+
+            if (DomainModel.isNullableType(vt)) {
+                print(out, "(value == null) ? null : ");
+            }
+
+            print(out, getRsReaderExpression(type));
+            print(out, ", txNumber);");
+            endMethodBody(out);
+            return;
+        }
+
         print(out, DO_STATE_SUPER);
         print(out, " obj$state)");
 
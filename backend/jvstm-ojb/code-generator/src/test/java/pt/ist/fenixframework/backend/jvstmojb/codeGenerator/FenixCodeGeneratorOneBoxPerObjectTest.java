@@ -0,0 +1,85 @@
+package pt.ist.fenixframework.backend.jvstmojb.codeGenerator;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import pt.ist.fenixframework.DmlCompiler;
+import pt.ist.fenixframework.backend.jvstmojb.pstm.LazySlotBox;
+import pt.ist.fenixframework.dml.CompilerArgs;
+
+@RunWith(JUnit4.class)
+public class FenixCodeGeneratorOneBoxPerObjectTest {
+
+    private static final String LAZY_SLOT_BOX = LazySlotBox.class.getName();
+
+    @Test
+    public void testLazySlots() throws Exception {
+        String base = generateBaseClass("package test;\nclass Stuff {\n String name;\n String notes (LAZY);\n int count (LAZY);\n}");
+
+        // lazy slots have their own box...
+        assertTrue(base.contains("private " + LAZY_SLOT_BOX + "<"));
+        assertTrue(base.contains("> notes;"));
+        assertTrue(base.contains("notes = " + LAZY_SLOT_BOX + ".makeNew(this, \"notes\", allocateOnly);"));
+
+        // ...and are not part of the DO_State, except those of primitive types
+        int stateStart = base.indexOf("class DO_State");
+        String state = base.substring(stateStart, base.indexOf("copyTo", stateStart));
+        assertTrue(state.contains(" name;"));
+        assertTrue(state.contains("int count;"));
+        assertFalse(state.contains(" notes;"));
+
+        // lazy columns are not read with the object, but one at a time
+        int readerStart = base.indexOf("void readStateFromResultSet");
+        int lazyReaderStart = base.indexOf("void readLazySlotFromResultSet");
+        assertTrue(readerStart >= 0 && lazyReaderStart >= 0);
+        String reader = base.substring(readerStart, base.indexOf("void ", readerStart + 1));
+        assertTrue(reader.contains("set$name("));
+        assertTrue(reader.contains("set$count("));
+        assertFalse(reader.contains("set$notes("));
+        assertTrue(base.substring(lazyReaderStart).contains("slotName.equals(\"notes\")"));
+    }
+
+    @Test
+    public void testNoLazySlots() throws Exception {
+        String base = generateBaseClass("package test;\nclass Stuff {\n String name;\n int count;\n}");
+
+        assertFalse(base.contains(LAZY_SLOT_BOX));
+        assertFalse(base.contains("readLazySlotFromResultSet"));
+    }
+
+    private String generateBaseClass(String contents) throws Exception {
+        File dir = Files.createTempDirectory("dml").toFile();
+        File baseDir = new File(dir, "base");
+        CompilerArgs args =
+                new CompilerArgs("test", dir, baseDir, "", false, FenixCodeGeneratorOneBoxPerObject.class,
+                        Collections.singletonList(dml(contents)), Collections.<URL> emptyList(),
+                        new HashMap<String, String>());
+        DmlCompiler.compile(args);
+
+        File baseClass = new File(new File(baseDir, "test"), "Stuff_Base.java");
+        return new String(Files.readAllBytes(baseClass.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private URL dml(String contents) throws IOException {
+        File file = File.createTempFile("dml", "tmp");
+        file.deleteOnExit();
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(contents);
+        }
+        return file.toURI().toURL();
+    }
+}
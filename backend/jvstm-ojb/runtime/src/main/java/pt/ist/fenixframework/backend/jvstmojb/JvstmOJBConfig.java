@@ -3,6 +3,7 @@ package pt.ist.fenixframework.backend.jvstmojb;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import pt.ist.fenixframework.ConfigError;
 import pt.ist.fenixframework.DomainFenixFrameworkRoot;
 import pt.ist.fenixframework.backend.BackEnd;
 import pt.ist.fenixframework.backend.jvstmojb.ojb.MetadataManager;
@@ -130,6 +131,54 @@ public class JvstmOJBConfig extends ConsistencyPredicatesConfig {
      */
     protected boolean updateRepositoryStructureIfNeeded = false;
 
+    /**
+     * This <strong>optional</strong> parameter specifies the number of
+     * seconds between two consecutive runs of the thread that records the
+     * last transaction processed by this server and purges the change logs
+     * that were already processed by every server. Defaults to 120.
+     */
+    protected int changeLogsCleanInterval = 120;
+
+    /**
+     * This <strong>optional</strong> parameter specifies whether the change
+     * logs already processed by every running server should be purged.
+     * Defaults to <code>true</code>. Deployments that keep the change logs
+     * for other purposes, or that purge them externally, may set it to
+     * <code>false</code>. If the change logs table is partitioned by ranges
+     * of transaction numbers, the partitions that only hold purgeable change
+     * logs are dropped instead of having their rows deleted.
+     */
+    protected boolean purgeChangeLogs = true;
+
+    /**
+     * This <strong>optional</strong> parameter specifies how many of the
+     * most recent transactions already processed by every server should
+     * still be kept in the change logs. Defaults to 0.
+     */
+    protected int changeLogsRetention = 0;
+
+    /**
+     * This <strong>optional</strong> parameter specifies the maximum number
+     * of change log rows deleted by each purge statement. Each chunk is
+     * deleted in its own database transaction, so that a purge never holds
+     * locks over the whole table. Defaults to 10000.
+     */
+    protected int changeLogsPurgeChunkSize = 10000;
+
+    /**
+     * This <strong>optional</strong> parameter specifies the minimum time
+     * (in milliseconds) between two updates from the change logs made by
+     * read-only transactions. A read-only transaction that starts within
+     * this interval of the last access to the change logs made by any
+     * transaction of this server does not access the database, running
+     * instead on the most recent version known to this server. Defaults to
+     * 0, which makes every read-only transaction start with an update from
+     * the change logs, so that commits made by other servers are always
+     * seen. Only applies to read-only transactions run by the transaction
+     * manager, which restarts them when needed.
+     */
+    protected int readOnlyChangeLogsRefreshInterval = 0;
+
     /*
      * Initialization methods
      */
@@ -210,6 +259,55 @@ public class JvstmOJBConfig extends ConsistencyPredicatesConfig {
         updateRepositoryStructureIfNeeded = Boolean.parseBoolean(value);
     }
 
+    protected void changeLogsCleanIntervalFromString(String value) {
+        changeLogsCleanInterval = parsePositiveInt(value);
+    }
+
+    protected void purgeChangeLogsFromString(String value) {
+        purgeChangeLogs = Boolean.parseBoolean(value);
+    }
+
+    protected void changeLogsRetentionFromString(String value) {
+        // a negative retention would purge change logs not yet processed by every server
+        changeLogsRetention = parseNonNegativeInt(value);
+    }
+
+    protected void changeLogsPurgeChunkSizeFromString(String value) {
+        changeLogsPurgeChunkSize = parsePositiveInt(value);
+    }
+
+    protected void readOnlyChangeLogsRefreshIntervalFromString(String value) {
+        try {
+            readOnlyChangeLogsRefreshInterval = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigError(e);
+        }
+    }
+
+    private static int parsePositiveInt(String value) {
+        try {
+            int result = Integer.parseInt(value.trim());
+            if (result <= 0) {
+                throw new ConfigError("Expected a positive value, got: " + value);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new ConfigError(e);
+        }
+    }
+
+    private static int parseNonNegativeInt(String value) {
+        try {
+            int result = Integer.parseInt(value.trim());
+            if (result < 0) {
+                throw new ConfigError("Expected a non-negative value, got: " + value);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new ConfigError(e);
+        }
+    }
+
     /*
      * Public Getters
      */
@@ -247,4 +345,24 @@ public class JvstmOJBConfig extends ConsistencyPredicatesConfig {
         return updateRepositoryStructureIfNeeded;
     }
 
+    public int getChangeLogsCleanInterval() {
+        return changeLogsCleanInterval;
+    }
+
+    public boolean getPurgeChangeLogs() {
+        return purgeChangeLogs;
+    }
+
+    public int getChangeLogsRetention() {
+        return changeLogsRetention;
+    }
+
+    public int getChangeLogsPurgeChunkSize() {
+        return changeLogsPurgeChunkSize;
+    }
+
+    public int getReadOnlyChangeLogsRefreshInterval() {
+        return readOnlyChangeLogsRefreshInterval;
+    }
+
 }
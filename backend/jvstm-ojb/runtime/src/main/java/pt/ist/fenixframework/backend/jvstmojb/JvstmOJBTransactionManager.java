@@ -154,11 +154,42 @@ public class JvstmOJBTransactionManager extends AbstractTransactionManager {
             return command.call();
         }
 
-        begin(true);
+        int tries = 0;
+        while (true) {
+            tries++;
+            beginRestartable(true, tries);
+            try {
+                return command.call();
+            } catch (CommitException e) {
+                // A read-only transaction is restarted when it needs a
+                // version that is no longer available in the database
+                if (tries > 3) {
+                    logTransactionRestart(command.getClass().getName(), e, tries);
+                }
+            } finally {
+                commit();
+            }
+        }
+    }
+
+    // after this many tries, read-only transactions connect to the database
+    // when they begin, so that they are no longer restarted for being behind it
+    private static final int MAX_LAZY_READ_ONLY_TRIES = 3;
+
+    // begins a transaction that is restarted on a CommitException, which a
+    // read-only transaction throws when it needs a version that is no longer
+    // available in the database
+    private void beginRestartable(boolean readOnly, int tries) throws NotSupportedException {
+        if (tries > MAX_LAZY_READ_ONLY_TRIES) {
+            begin(readOnly);
+            return;
+        }
+
+        TransactionSupport.setRestartableReadOnly(true);
         try {
-            return command.call();
+            begin(readOnly);
         } finally {
-            commit();
+            TransactionSupport.setRestartableReadOnly(false);
         }
     }
 
@@ -201,7 +232,7 @@ public class JvstmOJBTransactionManager extends AbstractTransactionManager {
                 tries++;
                 try {
                     try {
-                        begin(readOnly);
+                        beginRestartable(readOnly, tries);
                         if (readOnly) {
                             // Mark the transaction as being speculative read-only
                             getTransaction().setSpeculative(true);
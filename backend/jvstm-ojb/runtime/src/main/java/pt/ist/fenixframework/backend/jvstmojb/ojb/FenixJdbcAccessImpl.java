@@ -9,11 +9,13 @@ import org.apache.ojb.broker.PersistenceBroker;
 import org.apache.ojb.broker.PersistenceBrokerException;
 import org.apache.ojb.broker.PersistenceBrokerSQLException;
 import org.apache.ojb.broker.accesslayer.JdbcAccessImpl;
+import org.apache.ojb.broker.accesslayer.LookupException;
 import org.apache.ojb.broker.metadata.ClassDescriptor;
 import org.apache.ojb.broker.util.logging.Logger;
 
 import pt.ist.fenixframework.FenixFramework;
 import pt.ist.fenixframework.backend.jvstmojb.pstm.AbstractDomainObject;
+import pt.ist.fenixframework.backend.jvstmojb.repository.DomainModelMetadata;
 
 public class FenixJdbcAccessImpl extends JdbcAccessImpl {
 
@@ -27,14 +29,21 @@ public class FenixJdbcAccessImpl extends JdbcAccessImpl {
         ResultSet rs = null;
         PreparedStatement stmt = null;
         try {
-            stmt = broker.serviceStatementManager().getSelectByPKStatement(cld);
-            if (stmt == null) {
-                if (logger.isEnabledFor(Logger.ERROR)) {
-                    logger.error("getSelectByPKStatement returned a null statement");
+            DomainModelMetadata metadata = DomainModelMetadata.getMetadataWithLazySlots(cld.getClassOfObject());
+            if (metadata != null) {
+                // the columns of lazy slots are left out, and loaded only when first accessed
+                stmt = broker.serviceConnectionManager().getConnection().prepareStatement(metadata.getSelectByOidQuery(cld));
+                stmt.setLong(1, ((Number) oid.getPrimaryKeyValues()[0]).longValue());
+            } else {
+                stmt = broker.serviceStatementManager().getSelectByPKStatement(cld);
+                if (stmt == null) {
+                    if (logger.isEnabledFor(Logger.ERROR)) {
+                        logger.error("getSelectByPKStatement returned a null statement");
+                    }
+                    throw new PersistenceBrokerException("getSelectByPKStatement returned a null statement");
                 }
-                throw new PersistenceBrokerException("getSelectByPKStatement returned a null statement");
+                broker.serviceStatementManager().bindSelect(stmt, oid, cld);
             }
-            broker.serviceStatementManager().bindSelect(stmt, oid, cld);
             rs = stmt.executeQuery();
             // data available read object, else return null
             if (rs.next()) {
@@ -57,6 +66,8 @@ public class FenixJdbcAccessImpl extends JdbcAccessImpl {
                 logger.error("PersistenceBrokerException during the execution of materializeObject: " + e.getMessage(), e);
             }
             throw e;
+        } catch (LookupException e) {
+            throw new PersistenceBrokerException(e);
         } catch (SQLException e) {
             if (logger.isEnabledFor(Logger.ERROR)) {
                 logger.error("SQLException during the execution of materializeObject (for a " + cld.getClassOfObject().getName()
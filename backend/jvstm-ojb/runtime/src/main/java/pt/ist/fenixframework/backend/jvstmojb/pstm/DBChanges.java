@@ -6,6 +6,7 @@ import java.sql.Statement;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -17,6 +18,7 @@ import org.apache.ojb.broker.accesslayer.LookupException;
 import org.apache.ojb.broker.core.ValueContainer;
 import org.apache.ojb.broker.metadata.ClassDescriptor;
 import org.apache.ojb.broker.metadata.CollectionDescriptor;
+import org.apache.ojb.broker.metadata.FieldDescriptor;
 import org.apache.ojb.broker.metadata.JdbcType;
 import org.apache.ojb.broker.util.JdbcTypesHelper;
 import org.apache.ojb.broker.util.ObjectModificationDefaultImpl;
@@ -198,7 +200,12 @@ class DBChanges {
         if (objsToStore != null) {
             for (Object obj : objsToStore) {
                 try {
-                    pb.store(obj, ObjectModificationDefaultImpl.UPDATE);
+                    DomainModelMetadata metadata = DomainModelMetadata.getMetadataWithLazySlots(obj.getClass());
+                    if (metadata != null) {
+                        updateObjectWithLazySlots(pb, (OneBoxDomainObject) obj, metadata);
+                    } else {
+                        pb.store(obj, ObjectModificationDefaultImpl.UPDATE);
+                    }
                 } catch (OptimisticLockException ole) {
                     pb.removeFromCache(obj);
                     foundOptimisticException = true;
@@ -352,6 +359,30 @@ class DBChanges {
         }
     }
 
+    // OJB would get the value of every field to update the object, loading
+    // the lazy slots just to write them back, so the columns of the lazy
+    // slots are left out, unless they were written
+    private void updateObjectWithLazySlots(PersistenceBroker pb, OneBoxDomainObject obj, DomainModelMetadata metadata) {
+        Set<String> writtenLazySlots = new HashSet<String>();
+        for (String slotName : metadata.getLazySlots()) {
+            if (attrChangeLogs.contains(new AttrChangeLog(obj, slotName))) {
+                writtenLazySlots.add(slotName);
+            }
+        }
+
+        ClassDescriptor cld = pb.getDescriptorRepository().getDescriptorFor(obj.getClass());
+        List<FieldDescriptor> fields = metadata.getUpdateFields(cld, writtenLazySlots);
+
+        ValueContainer[] values = new ValueContainer[fields.size() + 1];
+        for (int i = 0; i < fields.size(); i++) {
+            FieldDescriptor field = fields.get(i);
+            values[i] = new ValueContainer(field.getPersistentField().get(obj), field.getJdbcType());
+        }
+        values[fields.size()] = new ValueContainer(obj.getOid(), OID_JDBC_TYPE);
+
+        pb.serviceJdbcAccess().executeUpdateSQL(metadata.getUpdateQuery(fields), cld, values, null);
+    }
+
     static class RelationTupleInfo {
         final String relation;
         final AbstractDomainObject obj1;
@@ -0,0 +1,63 @@
+package pt.ist.fenixframework.backend.jvstmojb.pstm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import jvstm.Transaction;
+import jvstm.VBoxBody;
+
+import org.apache.ojb.broker.PersistenceBroker;
+import org.apache.ojb.broker.accesslayer.LookupException;
+
+import pt.ist.fenixframework.DomainObject;
+import pt.ist.fenixframework.backend.jvstmojb.repository.DomainModelMetadata;
+
+/**
+ * Box holding the value of a slot declared with the <code>LAZY</code> option in a {@link OneBoxDomainObject}.
+ * 
+ * The columns of lazy slots are not read when the object is loaded, so this box is only filled
+ * when the slot is first accessed, by selecting its single column from the database.
+ */
+public class LazySlotBox<E> extends VBox<E> {
+
+    LazySlotBox(DomainObject ownerObj, String slotName, E initial) {
+        super(ownerObj, slotName, initial);
+    }
+
+    LazySlotBox(DomainObject ownerObj, String slotName, VBoxBody<E> body) {
+        super(ownerObj, slotName, body);
+    }
+
+    @Override
+    protected void doReload(Object obj, String attr) {
+        OneBoxDomainObject owner = (OneBoxDomainObject) obj;
+        String query = DomainModelMetadata.getMetadataForType(owner.getClass()).getLazySlotQuery(attr);
+
+        PersistenceBroker pb = TransactionSupport.getOJBBroker();
+        try {
+            Connection conn = pb.serviceConnectionManager().getConnection();
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setLong(1, owner.getOid());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        owner.readLazySlotFromResultSet(attr, rs, Transaction.current().getNumber());
+                    }
+                }
+            }
+        } catch (SQLException | LookupException e) {
+            throw new Error(e);
+        }
+    }
+
+    public static <T> LazySlotBox<T> makeNew(DomainObject ownerObj, String slotName, boolean allocateOnly) {
+        if (allocateOnly) {
+            // when a box is allocated, it is safe 
+            // to say that the version number is 0
+            return new LazySlotBox<T>(ownerObj, slotName, makeNewBody((T) NOT_LOADED_VALUE, 0, null));
+        } else {
+            return new LazySlotBox<T>(ownerObj, slotName, (T) null);
+        }
+    }
+}
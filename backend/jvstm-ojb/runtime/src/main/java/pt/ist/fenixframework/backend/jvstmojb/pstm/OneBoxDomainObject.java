@@ -109,6 +109,13 @@ public abstract class OneBoxDomainObject extends AbstractDomainObject {
 
     protected abstract void readStateFromResultSet(java.sql.ResultSet rs, DO_State state) throws java.sql.SQLException;
 
+    // each class with slots declared as LAZY will override this method to
+    // load the value of those slots, which are not part of the DO_State
+    protected void readLazySlotFromResultSet(String slotName, java.sql.ResultSet rs, int txNumber)
+            throws java.sql.SQLException {
+        throw new Error("Slot " + slotName + " of class " + getClass().getName() + " is not lazy");
+    }
+
     public abstract static class DO_State {
         private boolean committed = false;
 
@@ -1,21 +1,90 @@
 package pt.ist.fenixframework.backend.jvstmojb.pstm;
 
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jvstm.ActiveTransactionsRecord;
+import jvstm.CommitException;
 import jvstm.ResumeException;
 import jvstm.VBoxBody;
 
+import org.apache.ojb.broker.PersistenceBroker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import pt.ist.fenixframework.FenixFramework;
+import pt.ist.fenixframework.backend.jvstmojb.JvstmOJBConfig;
+
 class ReadOnlyTopLevelTransaction extends TopLevelTransaction {
 
     private static final Logger logger = LoggerFactory.getLogger(ReadOnlyTopLevelTransaction.class);
 
-    ReadOnlyTopLevelTransaction(jvstm.ActiveTransactionsRecord record) {
+    // only one read-only transaction at a time updates from the change
+    // logs, when they are throttled; the others start with the most
+    // recent version known to this server
+    private static final Lock REFRESH_LOCK = new ReentrantLock();
+
+    // set by the transaction manager while it begins read-only transactions
+    // that it restarts on a CommitException
+    private static final ThreadLocal<Boolean> RESTARTABLE = new ThreadLocal<Boolean>();
+
+    static void setRestartable(boolean restartable) {
+        if (restartable) {
+            RESTARTABLE.set(Boolean.TRUE);
+        } else {
+            RESTARTABLE.remove();
+        }
+    }
+
+    // true if the DB connection is only obtained when some box needs to be
+    // reloaded.  This is assigned from the super constructor, so it must
+    // have no initializer
+    private boolean lazyDbConnection;
+
+    // the number of the most recent commit that the lazily acquired DB
+    // connection sees, or 0 if it was not acquired yet
+    private int dbNumber;
+
+    ReadOnlyTopLevelTransaction(ActiveTransactionsRecord record) {
         super(record);
     }
 
     @Override
-    protected void checkValidity(jvstm.ActiveTransactionsRecord record) {
+    protected void initDbConnection(boolean resuming) {
+        if (!resuming) {
+            lazyDbConnection = RESTARTABLE.get() != null;
+        }
+
+        // a transaction that nobody restarts keeps its DB connection, so
+        // that it always sees the database as of its own number
+        if (!lazyDbConnection) {
+            super.initDbConnection(resuming);
+            return;
+        }
+
+        // otherwise, the connection is obtained lazily, only when some box
+        // needs to be reloaded, so there is nothing to do when resuming
+        if (resuming) {
+            return;
+        }
+
+        int interval = FenixFramework.<JvstmOJBConfig> getConfig().getReadOnlyChangeLogsRefreshInterval();
+        if (interval > 0 && (lastDbConnectionWithin(interval) || !REFRESH_LOCK.tryLock())) {
+            return;
+        }
+
+        try {
+            super.initDbConnection(false);
+        } finally {
+            if (interval > 0) {
+                REFRESH_LOCK.unlock();
+            }
+            closeBroker();
+        }
+    }
+
+    @Override
+    protected void checkValidity(ActiveTransactionsRecord record) {
         // for read-only transactions, for which we do not store the
         // read-set, it is not possible to know that we will see a
         // consistent read after resuming, unless the new record is
@@ -31,21 +100,80 @@ class ReadOnlyTopLevelTransaction extends TopLevelTransaction {
         // do nothing
     }
 
+    @Override
+    public PersistenceBroker getOJBBroker() {
+        // the boxes that the connection is used for are not known here, so
+        // any commit more recent than this transaction may have changed them
+        if (acquireDbConnection() && dbNumber > number) {
+            closeBroker();
+            restart();
+        }
+        return super.getOJBBroker();
+    }
+
+    // opens a DB connection, if this transaction has none.  Returns whether it did
+    private boolean acquireDbConnection() {
+        if (super.getOJBBroker() != null) {
+            return false;
+        }
+
+        openBroker();
+        try {
+            // the new connection sees the database as of now, which may
+            // already include commits more recent than this transaction.
+            // Those are applied to the boxes in memory before returning
+            dbNumber = updateFromTxLogsOnDatabase(this.activeTxRecord).transactionNumber;
+        } catch (RuntimeException e) {
+            closeBroker();
+            throw e;
+        }
+        return true;
+    }
+
+    /*
+     * Whether the database, as of the commit dbNumber, may hold a value of the box more recent than the one that a transaction
+     * with the given number reads. That is only the case if some commit between both numbers changed the box, which it did if
+     * the box has a version for it: the changes applied from the change logs allocate even the objects that were not cached,
+     * and the TransactionCommitRecords keep them from being collected while an older transaction runs.
+     */
+    static boolean isBehindDatabase(VBox<?> vbox, int number, int dbNumber) {
+        return dbNumber > number && vbox.body.getBody(dbNumber).version > number;
+    }
+
+    private void restart() {
+        logger.debug("Database is ahead of read-only transaction {}. Restarting.", number);
+        throw new CommitException();
+    }
+
     @Override
     public <T> T getBoxValue(VBox<T> vbox, Object obj, String attr) {
         numBoxReads++;
         VBoxBody<T> body = vbox.body.getBody(number);
         if (body.value == VBox.NOT_LOADED_VALUE) {
-            synchronized (body) {
-                if (body.value == VBox.NOT_LOADED_VALUE) {
-                    vbox.reload(obj, attr);
-                    // after the reload, the same body should have a new value
-                    // if not, then something gone wrong and its better to abort
+            // the connection is acquired before taking the monitor of the
+            // body, because that may wait for the database and for the
+            // commit lock.  It is released right after the reload, unless
+            // it was already being held by this transaction
+            boolean acquired = acquireDbConnection();
+            try {
+                if (isBehindDatabase(vbox, number, dbNumber)) {
+                    restart();
+                }
+                synchronized (body) {
                     if (body.value == VBox.NOT_LOADED_VALUE) {
-                        logger.error("Couldn't load the attribute {} for class {}", attr, obj.getClass().getName());
-                        throw new VersionNotAvailableException(attr, obj);
+                        vbox.reload(obj, attr);
+                        // after the reload, the same body should have a new value
+                        // if not, then something gone wrong and its better to abort
+                        if (body.value == VBox.NOT_LOADED_VALUE) {
+                            logger.error("Couldn't load the attribute {} for class {}", attr, obj.getClass().getName());
+                            throw new VersionNotAvailableException(attr, obj);
+                        }
                     }
                 }
+            } finally {
+                if (acquired) {
+                    closeBroker();
+                }
             }
         }
 
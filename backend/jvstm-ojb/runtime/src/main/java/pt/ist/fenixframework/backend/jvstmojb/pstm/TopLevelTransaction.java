@@ -87,13 +87,7 @@ public class TopLevelTransaction extends ConsistentTopLevelTransaction implement
 
     protected void initDbConnection(boolean resuming) {
         // first, get a new broker that will give access to the DB connection
-        this.broker = PersistenceBrokerFactory.defaultPersistenceBroker();
-
-        // update the lastDbConnectionTimestamp with the current time
-        long now = System.currentTimeMillis();
-        if (now > lastDbConnectionTimestamp) {
-            lastDbConnectionTimestamp = now;
-        }
+        openBroker();
 
         // open a connection to the database and set this tx number to the
         // number that
@@ -125,6 +119,27 @@ public class TopLevelTransaction extends ConsistentTopLevelTransaction implement
         }
     }
 
+    protected PersistenceBroker openBroker() {
+        this.broker = PersistenceBrokerFactory.defaultPersistenceBroker();
+
+        // update the lastDbConnectionTimestamp with the current time
+        long now = System.currentTimeMillis();
+        if (now > lastDbConnectionTimestamp) {
+            lastDbConnectionTimestamp = now;
+        }
+        return this.broker;
+    }
+
+    protected void closeBroker() {
+        if (broker != null) {
+            if (broker.isInTransaction()) {
+                broker.abortTransaction();
+            }
+            broker.close();
+            broker = null;
+        }
+    }
+
     protected void checkValidity(ActiveTransactionsRecord record) {
         // we must see whether any of the boxes read by this
         // transaction was changed by some transaction upto the one
@@ -142,13 +157,7 @@ public class TopLevelTransaction extends ConsistentTopLevelTransaction implement
     @Override
     protected void suspendTx() {
         // close the broker to release the db connection on suspension
-        if (broker != null) {
-            if (broker.isInTransaction()) {
-                broker.abortTransaction();
-            }
-            broker.close();
-            broker = null;
-        }
+        closeBroker();
 
         super.suspendTx();
     }
@@ -184,7 +193,7 @@ public class TopLevelTransaction extends ConsistentTopLevelTransaction implement
         throw new Error("Nested transactions not supported yet...");
     }
 
-    private ActiveTransactionsRecord updateFromTxLogsOnDatabase(ActiveTransactionsRecord record) {
+    protected ActiveTransactionsRecord updateFromTxLogsOnDatabase(ActiveTransactionsRecord record) {
         try {
             return TransactionChangeLogs.updateFromTxLogsOnDatabase(getOJBBroker(), record);
         } catch (Exception sqle) {
@@ -196,13 +205,7 @@ public class TopLevelTransaction extends ConsistentTopLevelTransaction implement
     @Override
     protected void finish() {
         super.finish();
-        if (broker != null) {
-            if (broker.isInTransaction()) {
-                broker.abortTransaction();
-            }
-            broker.close();
-            broker = null;
-        }
+        closeBroker();
         dbChanges = null;
     }
 
@@ -1,13 +1,16 @@
 package pt.ist.fenixframework.backend.jvstmojb.pstm;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.locks.Lock;
 
 import jvstm.ActiveTransactionsRecord;
@@ -22,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import pt.ist.fenixframework.FenixFramework;
+import pt.ist.fenixframework.backend.jvstmojb.JvstmOJBConfig;
 import pt.ist.fenixframework.util.FenixFrameworkThread;
 
 public class TransactionChangeLogs {
@@ -30,47 +34,112 @@ public class TransactionChangeLogs {
 
     // ------------------------------------------------------------
 
+    // alien transactions that changed at least this number of slots
+    // have their new versions added in parallel
+    private static final int PARALLEL_COMMIT_THRESHOLD = 2048;
+
+    // pool used to add the new versions of large alien transactions
+    private static final ForkJoinPool COMMIT_POOL = new ForkJoinPool();
+
     private static class AlienTransaction {
         final int txNumber;
 
-        // the set of objects is kept so that a strong reference exists 
+        // the objects are kept so that a strong reference exists 
         // for each of the objects modified by another server until no running 
         // transaction in the current VM may need to access it
-        private final Map<AbstractDomainObject, List<String>> objectAttrChanges =
-                new HashMap<AbstractDomainObject, List<String>>();
+        //
+        // objs[i] had its attribute attrs[i] changed
+        private AbstractDomainObject[] objs = new AbstractDomainObject[16];
+        private String[] attrs = new String[16];
+        private int size = 0;
 
         AlienTransaction(int txNumber) {
             this.txNumber = txNumber;
         }
 
         void register(AbstractDomainObject obj, String attrName) {
-            List<String> allAttrs = objectAttrChanges.get(obj);
-
-            if (allAttrs == null) {
-                allAttrs = new LinkedList<String>();
-                objectAttrChanges.put(obj, allAttrs);
+            if (size == objs.length) {
+                objs = Arrays.copyOf(objs, size * 2);
+                attrs = Arrays.copyOf(attrs, size * 2);
             }
 
-            allAttrs.add(attrName);
+            objs[size] = obj;
+            attrs[size] = attrName;
+            size++;
         }
 
         Cons<VBoxBody> commit() {
-            Cons<VBoxBody> newBodies = Cons.empty();
+            if (size < PARALLEL_COMMIT_THRESHOLD) {
+                return addNewVersions(0, size);
+            }
 
-            for (Map.Entry<AbstractDomainObject, List<String>> entry : objectAttrChanges.entrySet()) {
-                AbstractDomainObject obj = entry.getKey();
-                List<String> allAttrs = entry.getValue();
+            // partition the changes by oid, so that the same box is
+            // never changed by two different workers
+            int parts = COMMIT_POOL.getParallelism();
+            int[] partOf = new int[size];
+            int[] partSize = new int[parts];
+            for (int i = 0; i < size; i++) {
+                int part = (int) ((objs[i].getOid() & Long.MAX_VALUE) % parts);
+                partOf[i] = part;
+                partSize[part]++;
+            }
 
-                for (String attr : allAttrs) {
-                    VBoxBody newBody = obj.addNewVersion(attr, txNumber);
-                    // the body may be null in some cases: see the 
-                    // comment on the VBox.addNewVersion method
-                    if (newBody != null) {
-                        newBodies = newBodies.cons(newBody);
+            List<ForkJoinTask<Cons<VBoxBody>>> tasks = new ArrayList<ForkJoinTask<Cons<VBoxBody>>>(parts);
+            for (int part = 0; part < parts; part++) {
+                if (partSize[part] > 0) {
+                    int[] indexes = new int[partSize[part]];
+                    int pos = 0;
+                    for (int i = 0; i < size; i++) {
+                        if (partOf[i] == part) {
+                            indexes[pos++] = i;
+                        }
                     }
+                    tasks.add(COMMIT_POOL.submit(new AddNewVersionsTask(this, indexes)));
                 }
             }
 
+            Cons<VBoxBody> newBodies = Cons.empty();
+            for (ForkJoinTask<Cons<VBoxBody>> task : tasks) {
+                for (VBoxBody body : task.join()) {
+                    newBodies = newBodies.cons(body);
+                }
+            }
+            return newBodies;
+        }
+
+        private Cons<VBoxBody> addNewVersions(int from, int to) {
+            Cons<VBoxBody> newBodies = Cons.empty();
+            for (int i = from; i < to; i++) {
+                newBodies = addNewVersion(i, newBodies);
+            }
+            return newBodies;
+        }
+
+        private Cons<VBoxBody> addNewVersion(int i, Cons<VBoxBody> newBodies) {
+            VBoxBody newBody = objs[i].addNewVersion(attrs[i], txNumber);
+            // the body may be null in some cases: see the 
+            // comment on the VBox.addNewVersion method
+            return (newBody != null) ? newBodies.cons(newBody) : newBodies;
+        }
+    }
+
+    private static class AddNewVersionsTask extends RecursiveTask<Cons<VBoxBody>> {
+        private static final long serialVersionUID = 1L;
+
+        private final AlienTransaction alienTx;
+        private final int[] indexes;
+
+        AddNewVersionsTask(AlienTransaction alienTx, int[] indexes) {
+            this.alienTx = alienTx;
+            this.indexes = indexes;
+        }
+
+        @Override
+        protected Cons<VBoxBody> compute() {
+            Cons<VBoxBody> newBodies = Cons.empty();
+            for (int i : indexes) {
+                newBodies = alienTx.addNewVersion(i, newBodies);
+            }
             return newBodies;
         }
     }
@@ -162,6 +231,7 @@ public class TransactionChangeLogs {
             // now, it's time to process the new changeLog records
 
             AlienTransaction alienTx = new AlienTransaction(txNum);
+            ActiveTransactionsRecord lastRecord = record;
 
             while (alienTx != null) {
                 long oid = rs.getLong(1);
@@ -172,6 +242,11 @@ public class TransactionChangeLogs {
                     // doesn't represent a real change (see the
                     // comment on the DbChanges.writeAttrChangeLogs
                     // method)
+                    //
+                    // the object must be allocated even if it is not
+                    // cached: otherwise, a running transaction with an
+                    // older number that loads it afterwards would
+                    // store its older value as the only version
                     AbstractDomainObject obj = FenixFramework.getConfig().getBackEnd().fromOid(oid);
                     alienTx.register(obj, attr);
                 }
@@ -190,6 +265,7 @@ public class TransactionChangeLogs {
 
                     ActiveTransactionsRecord newRecord = new ActiveTransactionsRecord(txNum, newBodies);
                     Transaction.setMostRecentActiveRecord(newRecord);
+                    lastRecord = newRecord;
 
                     if (nextTxNum != -1) {
                         // there are more to process, create a new alien transaction
@@ -202,7 +278,8 @@ public class TransactionChangeLogs {
                 }
             }
 
-            return findActiveRecordForNumber(record, txNum);
+            // the last record created is the one for txNum
+            return lastRecord;
         } finally {
             commitLock.unlock();
         }
@@ -249,16 +326,57 @@ public class TransactionChangeLogs {
         }
     }
 
+    // ------------------------------------------------------------
+    // Metrics about the change logs, updated by the CleanThread
+
+    private static volatile long changeLogsSize = -1;
+    private static volatile long purgeLag = -1;
+    private static volatile long lastPurgedRows = 0;
+
+    /**
+     * @return The estimated number of rows in the change logs table, as seen by the last run of the clean thread, or -1 if
+     *         unknown.
+     */
+    public static long getChangeLogsSize() {
+        return changeLogsSize;
+    }
+
+    /**
+     * @return The number of transactions between the most recent committed transaction and the oldest transaction still
+     *         present in the change logs, as seen by the last run of the clean thread, or -1 if unknown.
+     */
+    public static long getPurgeLag() {
+        return purgeLag;
+    }
+
+    /**
+     * @return The number of change log rows deleted by the last run of the clean thread (rows in dropped partitions are
+     *         not counted).
+     */
+    public static long getLastPurgedRows() {
+        return lastPurgedRows;
+    }
+
     private static class CleanThread extends FenixFrameworkThread {
-        private static final long SECONDS_BETWEEN_UPDATES = 120;
+        // servers that did not update their record for this long are considered dead
+        private static final long DEAD_SERVER_SECONDS = 3600;
 
         private final String server;
+        private final long secondsBetweenUpdates;
+        private final boolean purge;
+        private final int retention;
+        private final int chunkSize;
         private int lastTxNumber = -1;
 
         CleanThread(int lastTxNumber) {
             super("CleanThread");
+            JvstmOJBConfig config = FenixFramework.getConfig();
             this.server = Util.getServerName();
             this.lastTxNumber = lastTxNumber;
+            this.secondsBetweenUpdates = config.getChangeLogsCleanInterval();
+            this.purge = config.getPurgeChangeLogs();
+            this.retention = config.getChangeLogsRetention();
+            this.chunkSize = config.getChangeLogsPurgeChunkSize();
 
             setDaemon(true);
         }
@@ -271,11 +389,15 @@ public class TransactionChangeLogs {
 
             while (true) {
                 try {
-                    sleep(SECONDS_BETWEEN_UPDATES * 1000);
+                    sleep(secondsBetweenUpdates * 1000);
                 } catch (InterruptedException ie) {
                     return;
                 }
-                updateServerRecord();
+                int minTxNumber = updateServerRecord();
+                if (purge && minTxNumber > 0) {
+                    purgeChangeLogs(minTxNumber - retention);
+                }
+                updateMetrics();
             }
         }
 
@@ -287,12 +409,27 @@ public class TransactionChangeLogs {
                 broker.beginTransaction();
 
                 Connection conn = broker.serviceConnectionManager().getConnection();
-                Statement stmt = conn.createStatement();
 
                 // delete previous record for this server and insert a new one
-                stmt.executeUpdate("DELETE FROM FF$LAST_TX_PROCESSED WHERE SERVER = '" + server
-                        + "' or LAST_UPDATE < (NOW() - interval 3600 second)");
-                stmt.executeUpdate("INSERT INTO FF$LAST_TX_PROCESSED VALUES ('" + server + "'," + lastTxNumber + ",null)");
+                PreparedStatement stmt =
+                        conn.prepareStatement("DELETE FROM FF$LAST_TX_PROCESSED WHERE SERVER = ?"
+                                + " OR LAST_UPDATE < (NOW() - INTERVAL ? SECOND)");
+                try {
+                    stmt.setString(1, server);
+                    stmt.setLong(2, DEAD_SERVER_SECONDS);
+                    stmt.executeUpdate();
+                } finally {
+                    stmt.close();
+                }
+
+                stmt = conn.prepareStatement("INSERT INTO FF$LAST_TX_PROCESSED VALUES (?,?,null)");
+                try {
+                    stmt.setString(1, server);
+                    stmt.setInt(2, lastTxNumber);
+                    stmt.executeUpdate();
+                } finally {
+                    stmt.close();
+                }
 
                 broker.commitTransaction();
 
@@ -316,7 +453,11 @@ public class TransactionChangeLogs {
             return false;
         }
 
-        private void updateServerRecord() {
+        /**
+         * Updates the record for this server and returns the oldest transaction number processed by every live server, or 0
+         * if it is not known.
+         */
+        private int updateServerRecord() {
             int currentTxNumber = Transaction.getMostRecentCommitedNumber();
 
             PersistenceBroker broker = null;
@@ -326,24 +467,36 @@ public class TransactionChangeLogs {
                 broker.beginTransaction();
 
                 Connection conn = broker.serviceConnectionManager().getConnection();
-                Statement stmt = conn.createStatement();
 
                 // update record for this server
-                stmt.executeUpdate("UPDATE FF$LAST_TX_PROCESSED SET LAST_TX=" + currentTxNumber
-                        + ",LAST_UPDATE=NULL WHERE SERVER = '" + server + "'");
+                PreparedStatement stmt =
+                        conn.prepareStatement("UPDATE FF$LAST_TX_PROCESSED SET LAST_TX = ?, LAST_UPDATE = NULL WHERE SERVER = ?");
+                try {
+                    stmt.setInt(1, currentTxNumber);
+                    stmt.setString(2, server);
+                    stmt.executeUpdate();
+                } finally {
+                    stmt.close();
+                }
 
-                // delete obsolete values
-                ResultSet rs =
-                        stmt.executeQuery("SELECT MIN(LAST_TX) FROM FF$LAST_TX_PROCESSED WHERE LAST_UPDATE > NOW() - interval "
-                                + (2 * SECONDS_BETWEEN_UPDATES) + " second");
-                int min = (rs.next() ? rs.getInt(1) : 0);
-                if (min > 0) {
-                    stmt.executeUpdate("DELETE FROM FF$TX_CHANGE_LOGS WHERE TX_NUMBER < " + min);
+                // find the oldest transaction processed by the servers that are still alive
+                int min = 0;
+                stmt =
+                        conn.prepareStatement("SELECT MIN(LAST_TX) FROM FF$LAST_TX_PROCESSED"
+                                + " WHERE LAST_UPDATE > (NOW() - INTERVAL ? SECOND)");
+                try {
+                    stmt.setLong(1, 2 * secondsBetweenUpdates);
+                    ResultSet rs = stmt.executeQuery();
+                    min = (rs.next() ? rs.getInt(1) : 0);
+                    rs.close();
+                } finally {
+                    stmt.close();
                 }
 
                 broker.commitTransaction();
 
                 this.lastTxNumber = currentTxNumber;
+                return min;
             } catch (Throwable t) {
                 t.printStackTrace();
                 logger.error("Couldn't update database in the clean thread because of a Throwable.");
@@ -358,6 +511,143 @@ public class TransactionChangeLogs {
                     broker.close();
                 }
             }
+
+            return 0;
+        }
+
+        /**
+         * Removes every change log with a transaction number lower than the given one. Whole partitions are dropped when the
+         * table is partitioned by ranges of transaction numbers, and the remaining rows are deleted in bounded chunks, each
+         * in its own database transaction.
+         */
+        private void purgeChangeLogs(int upToTxNumber) {
+            if (upToTxNumber <= 0) {
+                return;
+            }
+
+            PersistenceBroker broker = null;
+            long purgedRows = 0;
+
+            try {
+                broker = PersistenceBrokerFactory.defaultPersistenceBroker();
+
+                broker.beginTransaction();
+                dropPurgeablePartitions(broker.serviceConnectionManager().getConnection(), upToTxNumber);
+                broker.commitTransaction();
+
+                int deleted;
+                do {
+                    broker.beginTransaction();
+                    Connection conn = broker.serviceConnectionManager().getConnection();
+                    PreparedStatement stmt =
+                            conn.prepareStatement("DELETE FROM FF$TX_CHANGE_LOGS WHERE TX_NUMBER < ? ORDER BY TX_NUMBER LIMIT ?");
+                    try {
+                        stmt.setInt(1, upToTxNumber);
+                        stmt.setInt(2, chunkSize);
+                        deleted = stmt.executeUpdate();
+                    } finally {
+                        stmt.close();
+                    }
+                    broker.commitTransaction();
+                    purgedRows += deleted;
+                } while (deleted == chunkSize);
+            } catch (Throwable t) {
+                t.printStackTrace();
+                logger.error("Couldn't purge the change logs in the clean thread because of a Throwable.");
+            } finally {
+                if (broker != null) {
+                    if (broker.isInTransaction()) {
+                        broker.abortTransaction();
+                    }
+                    broker.close();
+                }
+            }
+
+            lastPurgedRows = purgedRows;
+            logger.debug("Purged {} change log rows older than transaction {}", purgedRows, upToTxNumber);
+        }
+
+        private void dropPurgeablePartitions(Connection conn, int upToTxNumber) throws SQLException {
+            List<String> purgeable = new ArrayList<String>();
+            int numPartitions = 0;
+
+            Statement stmt = conn.createStatement();
+            try {
+                // with RANGE partitioning, a partition only holds rows with TX_NUMBER < PARTITION_DESCRIPTION
+                ResultSet rs =
+                        stmt.executeQuery("SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM INFORMATION_SCHEMA.PARTITIONS"
+                                + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'FF$TX_CHANGE_LOGS'"
+                                + " AND PARTITION_METHOD = 'RANGE' ORDER BY PARTITION_ORDINAL_POSITION");
+                while (rs.next()) {
+                    numPartitions++;
+                    String name = rs.getString(1);
+                    String description = rs.getString(2);
+                    if (isPartitionUpperBoundBelow(description, upToTxNumber)) {
+                        purgeable.add(name);
+                    }
+                }
+                rs.close();
+
+                // never drop every partition, or the table would be left without any
+                for (int i = 0; (i < purgeable.size()) && (i < numPartitions - 1); i++) {
+                    stmt.executeUpdate("ALTER TABLE FF$TX_CHANGE_LOGS DROP PARTITION `" + purgeable.get(i) + "`");
+                    logger.info("Dropped change logs partition {}", purgeable.get(i));
+                }
+            } finally {
+                stmt.close();
+            }
+        }
+
+        private static boolean isPartitionUpperBoundBelow(String description, int upToTxNumber) {
+            try {
+                return (description != null) && (Long.parseLong(description.trim()) <= upToTxNumber);
+            } catch (NumberFormatException e) {
+                // MAXVALUE
+                return false;
+            }
+        }
+
+        private void updateMetrics() {
+            PersistenceBroker broker = null;
+
+            try {
+                broker = PersistenceBrokerFactory.defaultPersistenceBroker();
+                broker.beginTransaction();
+
+                Connection conn = broker.serviceConnectionManager().getConnection();
+                Statement stmt = conn.createStatement();
+                try {
+                    // use the table statistics, as counting the rows of a large table is too expensive
+                    ResultSet rs =
+                            stmt.executeQuery("SELECT TABLE_ROWS FROM INFORMATION_SCHEMA.TABLES"
+                                    + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'FF$TX_CHANGE_LOGS'");
+                    changeLogsSize = (rs.next() ? rs.getLong(1) : -1);
+                    rs.close();
+
+                    rs = stmt.executeQuery("SELECT MIN(TX_NUMBER) FROM FF$TX_CHANGE_LOGS");
+                    if (rs.next()) {
+                        int oldest = rs.getInt(1);
+                        purgeLag = rs.wasNull() ? 0 : Transaction.getMostRecentCommitedNumber() - oldest;
+                    }
+                    rs.close();
+                } finally {
+                    stmt.close();
+                }
+
+                broker.commitTransaction();
+            } catch (Throwable t) {
+                // the metrics are not crucial, so just issue a warning
+                logger.warn("Couldn't compute the change logs metrics", t);
+            } finally {
+                if (broker != null) {
+                    if (broker.isInTransaction()) {
+                        broker.abortTransaction();
+                    }
+                    broker.close();
+                }
+            }
+
+            logger.debug("Change logs size: {} rows, purge lag: {} transactions", changeLogsSize, purgeLag);
         }
     }
 }
@@ -91,4 +91,12 @@ public final class TransactionSupport {
         }
     }
 
+    /**
+     * Tells whether the read-only transactions that the current thread begins are restarted by the caller when they throw a
+     * {@link jvstm.CommitException}. Only those transactions acquire their DB connection lazily.
+     */
+    public static void setRestartableReadOnly(boolean restartable) {
+        ReadOnlyTopLevelTransaction.setRestartable(restartable);
+    }
+
 }
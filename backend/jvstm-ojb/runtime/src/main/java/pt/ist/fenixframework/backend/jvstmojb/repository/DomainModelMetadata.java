@@ -1,12 +1,24 @@
 package pt.ist.fenixframework.backend.jvstmojb.repository;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import org.apache.ojb.broker.metadata.ClassDescriptor;
+import org.apache.ojb.broker.metadata.FieldDescriptor;
+
 import pt.ist.fenixframework.DomainModelUtil;
 import pt.ist.fenixframework.DomainObject;
 import pt.ist.fenixframework.backend.jvstmojb.ojb.OJBMetadataGenerator;
+import pt.ist.fenixframework.backend.jvstmojb.pstm.OneBoxDomainObject;
 import pt.ist.fenixframework.dml.DomainClass;
+import pt.ist.fenixframework.dml.DomainEntity;
+import pt.ist.fenixframework.dml.Slot;
 
 public class DomainModelMetadata {
 
@@ -22,14 +34,51 @@ public class DomainModelMetadata {
         return metadata;
     }
 
+    /**
+     * Returns the metadata for the given type, or <code>null</code> if it has no slots declared as LAZY.
+     */
+    public static DomainModelMetadata getMetadataWithLazySlots(Class<?> type) {
+        if (OneBoxDomainObject.class.isAssignableFrom(type)) {
+            DomainModelMetadata metadata = getMetadataForType(type.asSubclass(OneBoxDomainObject.class));
+            return metadata.hasLazySlots() ? metadata : null;
+        }
+        return null;
+    }
+
     private final String tableName;
     private final String deleteQuery;
 
+    // slot name -> column name, for the slots declared as LAZY
+    private final Map<String, String> lazySlotColumns;
+    private volatile String selectByOidQuery;
+
     public DomainModelMetadata(Class<? extends DomainObject> type) {
-        DomainClass domClass = DomainModelUtil.getDomainClassFor(type);
-        this.tableName = OJBMetadataGenerator.getExpectedTableName(domClass);
+        this(DomainModelUtil.getDomainClassFor(type));
+    }
+
+    private DomainModelMetadata(DomainClass domClass) {
+        this(OJBMetadataGenerator.getExpectedTableName(domClass), getLazySlotColumns(domClass));
+    }
 
+    DomainModelMetadata(String tableName, Map<String, String> lazySlotColumns) {
+        this.tableName = tableName;
         this.deleteQuery = "DELETE FROM `" + tableName + "` WHERE OID = ";
+        this.lazySlotColumns = lazySlotColumns;
+    }
+
+    private static Map<String, String> getLazySlotColumns(DomainClass domClass) {
+        Map<String, String> lazySlotColumns = new HashMap<>();
+        DomainEntity domEntity = domClass;
+        while (domEntity instanceof DomainClass) {
+            DomainClass dClass = (DomainClass) domEntity;
+            for (Slot slot : dClass.getSlotsList()) {
+                if (slot.isLazy()) {
+                    lazySlotColumns.put(slot.getName(), DbUtil.convertToDBStyle(slot.getName()));
+                }
+            }
+            domEntity = dClass.getSuperclass();
+        }
+        return lazySlotColumns;
     }
 
     public String getTableName() {
@@ -40,4 +89,85 @@ public class DomainModelMetadata {
         return deleteQuery + oid;
     }
 
+    public boolean hasLazySlots() {
+        return !lazySlotColumns.isEmpty();
+    }
+
+    /**
+     * Returns the query that selects the object with a given OID, without the columns of the slots declared as LAZY.
+     */
+    public String getSelectByOidQuery(ClassDescriptor cld) {
+        String query = selectByOidQuery;
+        if (query == null) {
+            StringBuilder builder = new StringBuilder("SELECT ");
+            boolean first = true;
+            for (FieldDescriptor field : cld.getFieldDescriptions()) {
+                if (!lazySlotColumns.containsValue(field.getColumnName())) {
+                    if (!first) {
+                        builder.append(',');
+                    }
+                    builder.append('`').append(field.getColumnName()).append('`');
+                    first = false;
+                }
+            }
+            builder.append(" FROM `").append(tableName).append("` WHERE OID = ?");
+            query = builder.toString();
+            selectByOidQuery = query;
+        }
+        return query;
+    }
+
+    public Set<String> getLazySlots() {
+        return lazySlotColumns.keySet();
+    }
+
+    /**
+     * Returns the fields to write when updating an object: all but the primary key and the columns of the slots declared as
+     * LAZY, except for those of the given slots.
+     */
+    public List<FieldDescriptor> getUpdateFields(ClassDescriptor cld, Set<String> writtenLazySlots) {
+        Set<String> skippedColumns = new HashSet<>();
+        for (Map.Entry<String, String> entry : lazySlotColumns.entrySet()) {
+            if (!writtenLazySlots.contains(entry.getKey())) {
+                skippedColumns.add(entry.getValue());
+            }
+        }
+
+        List<FieldDescriptor> fields = new ArrayList<>();
+        for (FieldDescriptor field : cld.getNonPkRwFields()) {
+            if (!skippedColumns.contains(field.getColumnName())) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the query that updates the given fields of the object with a given OID, which is bound after the fields.
+     */
+    public String getUpdateQuery(List<FieldDescriptor> fields) {
+        StringBuilder builder = new StringBuilder("UPDATE `").append(tableName).append("` SET ");
+        boolean first = true;
+        for (FieldDescriptor field : fields) {
+            if (!first) {
+                builder.append(',');
+            }
+            builder.append('`').append(field.getColumnName()).append("` = ?");
+            first = false;
+        }
+        builder.append(" WHERE OID = ?");
+        return builder.toString();
+    }
+
+    /**
+     * Returns the query that selects the column of a LAZY slot for the object with a given OID.
+     */
+    public String getLazySlotQuery(String slotName) {
+        String column = lazySlotColumns.get(slotName);
+        if (column == null) {
+            throw new Error("Slot " + slotName + " is not lazy in table " + tableName);
+        }
+        return "SELECT `" + column + "` FROM `" + tableName + "` WHERE OID = ?";
+    }
+
 }
@@ -51,7 +51,21 @@ public class SQLTableChangeSet {
         }
     }
 
+    public boolean isNewTable() {
+        return !table.exists;
+    }
+
     public String generateSqlUpdates(boolean genDrops, String tableCharset) {
+        return generateTableUpdates(genDrops, tableCharset) + generateIndexUpdates();
+    }
+
+    /**
+     * Generates the statement that creates this table, with all its indexes,
+     * or that alters its columns and primary key, if the table already
+     * exists. Missing indexes of existing tables are generated separately by
+     * {@link #generateIndexUpdates()}.
+     */
+    public String generateTableUpdates(boolean genDrops, String tableCharset) {
         StringBuilder updates = new StringBuilder();
         updates.append(table.exists ? "alter" : "create");
         updates.append(" table " + escapeName(table.tablename));
@@ -81,12 +95,9 @@ public class SQLTableChangeSet {
                 definitions.add((table.exists ? "add " : "") + "primary key (" + StringUtils.join(fields.keySet(), ", ") + ")");
             }
         }
-        if (fields.containsKey("OID") && !indexes.contains(Collections.singleton("OID"))) {
-            indexes.add(Collections.singleton("OID"));
-        }
-        for (Set<String> index : indexes) {
-            if (!table.containsIndex(index)) {
-                definitions.add((table.exists ? "add " : "") + "index (" + StringUtils.join(index.toArray(), ", ") + ")");
+        if (!table.exists) {
+            for (Set<String> index : getMissingIndexes()) {
+                definitions.add("index (" + StringUtils.join(index.toArray(), ", ") + ")");
             }
         }
         if (!definitions.isEmpty()) {
@@ -102,6 +113,39 @@ public class SQLTableChangeSet {
         }
     }
 
+    /**
+     * Generates the statement that adds the missing indexes of an existing
+     * table. The indexes are built in place, without locking the table, so
+     * that they may be created while the application is running.
+     */
+    public String generateIndexUpdates() {
+        if (!table.exists) {
+            return "";
+        }
+        List<String> definitions = new ArrayList<String>();
+        for (Set<String> index : getMissingIndexes()) {
+            definitions.add("add index (" + StringUtils.join(index.toArray(), ", ") + ")");
+        }
+        if (definitions.isEmpty()) {
+            return "";
+        }
+        return "alter table " + escapeName(table.tablename) + " " + StringUtils.join(definitions, ", ")
+                + ", algorithm=inplace, lock=none;\n";
+    }
+
+    private List<Set<String>> getMissingIndexes() {
+        if (fields.containsKey("OID")) {
+            indexes.add(Collections.singleton("OID"));
+        }
+        List<Set<String>> missing = new ArrayList<Set<String>>();
+        for (Set<String> index : indexes) {
+            if (!table.containsIndex(index)) {
+                missing.add(index);
+            }
+        }
+        return missing;
+    }
+
     private static String escapeName(String name) {
         if (name == null || name.length() == 0) {
             return name;
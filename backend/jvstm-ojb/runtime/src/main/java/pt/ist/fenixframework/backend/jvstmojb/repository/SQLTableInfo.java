@@ -4,17 +4,10 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import com.mysql.jdbc.exceptions.MySQLSyntaxErrorException;
 
 public class SQLTableInfo {
     public static class Column {
@@ -81,48 +74,61 @@ public class SQLTableInfo {
 
     public final Map<String, Set<String>> indexes = new HashMap<String, Set<String>>();
 
-    public SQLTableInfo(final String tablename, final Connection connection) throws SQLException {
+    SQLTableInfo(final String tablename, final boolean exists) {
         this.tablename = tablename;
-        Statement statement = null;
-        ResultSet resultSet = null;
-        try {
-            statement = connection.createStatement();
-            resultSet = statement.executeQuery("show create table " + escapeName(tablename));
-            if (resultSet.next()) {
-                exists = true;
-                final String[] tableParts = extractParts(normalize(resultSet.getString(2)));
-                for (final String part : tableParts) {
-                    final String tablePart = part.trim();
-                    if (tablePart.startsWith("PRIMARY KEY")) {
-                        if (!primaryKey.isEmpty()) {
-                            throw new Error("More than one primary key for: " + tablename);
-                        }
-                        getSet(primaryKey, tablePart);
-                    } else if (tablePart.startsWith("UNIQUE KEY")) {
-                        indexes.putAll(getNamedSet(tablePart));
-                    } else if (tablePart.startsWith("KEY ")) {
-                        indexes.putAll(getNamedSet(tablePart));
-                    } else {
-                        final int indexOfFirstSpace = tablePart.indexOf(' ');
-                        final String columnName = tablePart.substring(0, indexOfFirstSpace);
-                        columns.add(new Column(columnName, tablePart.substring(indexOfFirstSpace, tablePart.length()).trim()));
-                    }
+        this.exists = exists;
+    }
+
+    /**
+     * Reads the structure of every table of the current database with three
+     * bulk queries over <code>INFORMATION_SCHEMA</code>. The names of columns
+     * and indexes are upper-cased.
+     */
+    public static Map<String, SQLTableInfo> readExistingTables(final Connection connection) throws SQLException {
+        final Map<String, SQLTableInfo> tables = new HashMap<String, SQLTableInfo>();
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet resultSet =
+                    statement.executeQuery("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES"
+                            + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_TYPE = 'BASE TABLE'")) {
+                while (resultSet.next()) {
+                    final String tablename = resultSet.getString(1);
+                    tables.put(tablename, new SQLTableInfo(tablename, true));
                 }
-            } else {
-                exists = false;
             }
-        } catch (final MySQLSyntaxErrorException mySQLSyntaxErrorException) {
-            exists = false;
-        } catch (com.mysql.jdbc.exceptions.jdbc4.MySQLSyntaxErrorException ex) {
-            exists = false;
-        } finally {
-            if (resultSet != null) {
-                resultSet.close();
+            try (ResultSet resultSet =
+                    statement.executeQuery("SELECT TABLE_NAME, COLUMN_NAME, COLUMN_TYPE FROM INFORMATION_SCHEMA.COLUMNS"
+                            + " WHERE TABLE_SCHEMA = DATABASE()")) {
+                while (resultSet.next()) {
+                    final SQLTableInfo table = tables.get(resultSet.getString(1));
+                    if (table != null) {
+                        table.columns.add(new Column(resultSet.getString(2).toUpperCase(), resultSet.getString(3).toUpperCase()));
+                    }
+                }
             }
-            if (statement != null) {
-                statement.close();
+            try (ResultSet resultSet =
+                    statement.executeQuery("SELECT TABLE_NAME, INDEX_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.STATISTICS"
+                            + " WHERE TABLE_SCHEMA = DATABASE()")) {
+                while (resultSet.next()) {
+                    final SQLTableInfo table = tables.get(resultSet.getString(1));
+                    if (table == null) {
+                        continue;
+                    }
+                    final String indexName = resultSet.getString(2).toUpperCase();
+                    final String columnName = resultSet.getString(3).toUpperCase();
+                    if (indexName.equals("PRIMARY")) {
+                        table.primaryKey.add(columnName);
+                    } else {
+                        Set<String> index = table.indexes.get(indexName);
+                        if (index == null) {
+                            index = new HashSet<String>();
+                            table.indexes.put(indexName, index);
+                        }
+                        index.add(columnName);
+                    }
+                }
             }
         }
+        return tables;
     }
 
     public boolean containsColumn(String columnName) {
@@ -138,75 +144,6 @@ public class SQLTableInfo {
         return indexes.values().contains(newIndex);
     }
 
-    private void getSet(final Set<String> set, final String tablePart) {
-        final String[] setParts = extractParts(tablePart);
-        for (final String part : setParts) {
-            set.add(part.trim());
-        }
-    }
-
-    private String[] extractParts(final String string) {
-        final int indexOfOpenP = string.indexOf('(');
-        final int indexOfCloseP = string.lastIndexOf(')');
-        final String relevantParts = string.substring(indexOfOpenP + 1, indexOfCloseP).trim();
-        final List<String> strings = new ArrayList<String>();
-        boolean insideP = false;
-        for (final String possiblePart : relevantParts.split(",")) {
-            if (isOpenP(possiblePart)) {
-                insideP = true;
-                strings.add(possiblePart);
-            } else if (isCloseP(possiblePart)) {
-                insideP = false;
-                final int lastPos = strings.size() - 1;
-                final String last = strings.get(lastPos);
-                strings.remove(lastPos);
-                strings.add(last + ", " + possiblePart);
-            } else {
-                if (insideP) {
-                    final int lastPos = strings.size() - 1;
-                    final String last = strings.get(lastPos);
-                    strings.remove(lastPos);
-                    strings.add(last + ", " + possiblePart);
-                } else {
-                    strings.add(possiblePart);
-                }
-            }
-        }
-        final String[] result = new String[strings.size()];
-        for (int i = 0; i < strings.size(); result[i] = strings.get(i++)) {
-            ;
-        }
-        return result;
-    }
-
-    private boolean isOpenP(final String possiblePart) {
-        int openCount = 0;
-        for (final char c : possiblePart.toCharArray()) {
-            if (c == '(') {
-                openCount++;
-            } else if (c == ')') {
-                openCount--;
-            }
-        }
-        return openCount > 0;
-    }
-
-    private boolean isCloseP(final String possiblePart) {
-        int closeCount = 0;
-        for (final char c : possiblePart.toCharArray()) {
-            if (c == '(') {
-                closeCount--;
-            } else if (c == ')') {
-                closeCount++;
-            }
-        }
-        return closeCount > 0;
-    }
-
-    private String normalize(final String string) {
-        return string.replace('`', ' ').replace('\n', ' ').replace('\t', ' ').replace("  ", " ").toUpperCase().trim();
-    }
-
     private static String escapeName(String name) {
         if (name == null || name.length() == 0) {
             return name;
@@ -216,14 +153,4 @@ public class SQLTableInfo {
         }
         return "`" + name + "`";
     }
-
-    public Map<String, Set<String>> getNamedSet(String source) {
-        Map<String, Set<String>> map = new HashMap<String, Set<String>>();
-        Pattern namedSet = Pattern.compile("([^\\s]+?)\\s*\\((.*)\\)");
-        Matcher m = namedSet.matcher(source);
-        if (m.find()) {
-            map.put(m.group(1), new HashSet<String>(Arrays.asList(m.group(2).replaceAll("\\s*", "").split(","))));
-        }
-        return map;
-    }
 }
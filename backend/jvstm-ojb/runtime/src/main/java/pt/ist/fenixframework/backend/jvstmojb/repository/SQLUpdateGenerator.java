@@ -2,14 +2,13 @@ package pt.ist.fenixframework.backend.jvstmojb.repository;
 
 import java.net.URL;
 import java.sql.Connection;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.ojb.broker.PersistenceBroker;
 import org.apache.ojb.broker.PersistenceBrokerFactory;
@@ -41,32 +40,33 @@ public class SQLUpdateGenerator {
         return generateSqlUpdates(FenixFramework.getDomainModel(), connection, charset, genDrops);
     }
 
+    /**
+     * Computes the differences between the tables required by the domain
+     * model and the tables of the database, returning the script that
+     * updates the database. The structure of the database is read upfront
+     * in bulk, and the differences are computed in memory.
+     * 
+     * The statements of the script are ordered so that each one only
+     * depends on the ones before it: first the drops of unused tables (if
+     * requested), then the creation of new tables, then the changes to the
+     * columns of existing tables, and finally the creation of the missing
+     * indexes of existing tables.
+     */
     public static String generateSqlUpdates(DomainModel model, Connection connection, String charset, boolean genDrops)
             throws SQLException {
-        Set<String> existingTables = getExistingTables(connection);
-        Map<String, SQLTableChangeSet> changes = new HashMap<String, SQLTableChangeSet>();
+        Map<String, SQLTableInfo> existingTables = SQLTableInfo.readExistingTables(connection);
+        Map<String, SQLTableChangeSet> changes = new TreeMap<String, SQLTableChangeSet>();
         for (ClassDescriptor clazz : getDescriptorTable().values()) {
             String tablename = clazz.getFullTableName();
             if (!tablename.startsWith("OJB")) {
-                if (!changes.containsKey(tablename)) {
-                    existingTables.remove(tablename);
-                    changes.put(tablename, new SQLTableChangeSet(new SQLTableInfo(tablename, connection)));
-                }
-                SQLTableChangeSet change = changes.get(tablename);
-                change.addClassDescriptor(clazz);
+                getChangeSet(changes, existingTables, tablename).addClassDescriptor(clazz);
             }
 
             for (final Iterator iterator = clazz.getCollectionDescriptors().iterator(); iterator.hasNext();) {
                 final CollectionDescriptor collectionDescriptor = (CollectionDescriptor) iterator.next();
                 final String indirectionTablename = collectionDescriptor.getIndirectionTable();
                 if (indirectionTablename != null) {
-                    if (!changes.containsKey(indirectionTablename)) {
-                        existingTables.remove(indirectionTablename);
-                        changes.put(indirectionTablename, new SQLTableChangeSet(
-                                new SQLTableInfo(indirectionTablename, connection)));
-                    }
-                    SQLTableChangeSet change = changes.get(indirectionTablename);
-                    change.addCollectionDescriptor(collectionDescriptor);
+                    getChangeSet(changes, existingTables, indirectionTablename).addCollectionDescriptor(collectionDescriptor);
                 }
             }
         }
@@ -84,39 +84,45 @@ public class SQLUpdateGenerator {
                 }
             }
         }
+        return generateSqlUpdates(changes.values(), existingTables.keySet(), charset, genDrops);
+    }
+
+    // package-private for tests. The unused tables are the existing ones that the domain model does not require
+    static String generateSqlUpdates(Collection<SQLTableChangeSet> changes, Set<String> unusedTables, String charset,
+            boolean genDrops) {
         StringBuilder updates = new StringBuilder();
         if (genDrops) {
-            for (String table : existingTables) {
+            for (String table : new TreeSet<String>(unusedTables)) {
                 if (!table.startsWith("OJB_") && !table.startsWith("FF$")) {
                     updates.append("drop table " + table + ";\n");
                 }
             }
         }
-        for (SQLTableChangeSet change : changes.values()) {
-            updates.append(change.generateSqlUpdates(genDrops, charset));
+        for (SQLTableChangeSet change : changes) {
+            if (change.isNewTable()) {
+                updates.append(change.generateTableUpdates(genDrops, charset));
+            }
+        }
+        for (SQLTableChangeSet change : changes) {
+            if (!change.isNewTable()) {
+                updates.append(change.generateTableUpdates(genDrops, charset));
+            }
+        }
+        for (SQLTableChangeSet change : changes) {
+            updates.append(change.generateIndexUpdates());
         }
         return updates.toString();
     }
 
-    private static Set<String> getExistingTables(Connection connection) throws SQLException {
-        Statement statement = null;
-        ResultSet resultSet = null;
-        Set<String> existing = new HashSet<String>();
-        try {
-            statement = connection.createStatement();
-            resultSet = statement.executeQuery("show tables");
-            while (resultSet.next()) {
-                existing.add(resultSet.getString(1));
-            }
-            return existing;
-        } finally {
-            if (resultSet != null) {
-                resultSet.close();
-            }
-            if (statement != null) {
-                statement.close();
-            }
+    private static SQLTableChangeSet getChangeSet(Map<String, SQLTableChangeSet> changes,
+            Map<String, SQLTableInfo> existingTables, String tablename) {
+        SQLTableChangeSet change = changes.get(tablename);
+        if (change == null) {
+            SQLTableInfo table = existingTables.remove(tablename);
+            change = new SQLTableChangeSet(table != null ? table : new SQLTableInfo(tablename, false));
+            changes.put(tablename, change);
         }
+        return change;
     }
 
     private static ClassDescriptor getOtherRoleClassDescriptor(Role role) {
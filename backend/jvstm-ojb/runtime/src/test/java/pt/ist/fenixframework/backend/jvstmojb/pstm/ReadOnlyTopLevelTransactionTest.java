@@ -0,0 +1,53 @@
+package pt.ist.fenixframework.backend.jvstmojb.pstm;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ReadOnlyTopLevelTransactionTest {
+
+    // a box of an object that was allocated, but never loaded
+    private static VBox<String> makeBox() {
+        return VBox.makeNew(null, "name", true, false);
+    }
+
+    @Test
+    public void testUnchangedBoxIsReadFromNewerDatabase() {
+        assertFalse(ReadOnlyTopLevelTransaction.isBehindDatabase(makeBox(), 10, 12));
+    }
+
+    @Test
+    public void testBoxChangedSinceTransactionRestarts() {
+        VBox<String> box = makeBox();
+        box.addNewVersion("name", 11);
+
+        assertTrue(ReadOnlyTopLevelTransaction.isBehindDatabase(box, 10, 12));
+        assertTrue(ReadOnlyTopLevelTransaction.isBehindDatabase(box, 10, 11));
+        assertFalse(ReadOnlyTopLevelTransaction.isBehindDatabase(box, 11, 12));
+    }
+
+    @Test
+    public void testChangesAfterDatabaseAreIgnored() {
+        VBox<String> box = makeBox();
+        box.addNewVersion("name", 5);
+        // committed after the connection was acquired, so it does not see it
+        box.addNewVersion("name", 13);
+
+        assertFalse(ReadOnlyTopLevelTransaction.isBehindDatabase(box, 10, 12));
+    }
+
+    @Test
+    public void testDatabaseNotAhead() {
+        VBox<String> box = makeBox();
+        box.addNewVersion("name", 11);
+
+        // the connection was acquired eagerly, or sees no commit more recent than the transaction
+        assertFalse(ReadOnlyTopLevelTransaction.isBehindDatabase(box, 10, 0));
+        assertFalse(ReadOnlyTopLevelTransaction.isBehindDatabase(box, 10, 10));
+    }
+
+}
@@ -0,0 +1,77 @@
+package pt.ist.fenixframework.backend.jvstmojb.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ojb.broker.metadata.ClassDescriptor;
+import org.apache.ojb.broker.metadata.DescriptorRepository;
+import org.apache.ojb.broker.metadata.FieldDescriptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DomainModelMetadataTest {
+
+    private ClassDescriptor cld;
+    private DomainModelMetadata metadata;
+
+    @Before
+    public void setUp() {
+        cld = new ClassDescriptor(new DescriptorRepository());
+        addField(1, "OID", true);
+        addField(2, "OID_DOMAIN_META_OBJECT", false);
+        addField(3, "NAME", false);
+        addField(4, "PHOTO", false);
+        addField(5, "NOTES", false);
+
+        Map<String, String> lazySlotColumns = new HashMap<>();
+        lazySlotColumns.put("photo", "PHOTO");
+        lazySlotColumns.put("notes", "NOTES");
+        metadata = new DomainModelMetadata("STUFF", lazySlotColumns);
+    }
+
+    private void addField(int id, String column, boolean primaryKey) {
+        FieldDescriptor field = new FieldDescriptor(cld, id);
+        field.setColumnName(column);
+        field.setAccess("readwrite");
+        field.setPrimaryKey(primaryKey);
+        cld.addFieldDescriptor(field);
+    }
+
+    @Test
+    public void testLoadLeavesOutLazyColumns() {
+        assertEquals("SELECT `OID`,`OID_DOMAIN_META_OBJECT`,`NAME` FROM `STUFF` WHERE OID = ?",
+                metadata.getSelectByOidQuery(cld));
+        assertEquals("SELECT `PHOTO` FROM `STUFF` WHERE OID = ?", metadata.getLazySlotQuery("photo"));
+    }
+
+    @Test(expected = Error.class)
+    public void testLoadOfEagerSlot() {
+        metadata.getLazySlotQuery("name");
+    }
+
+    @Test
+    public void testUpdateLeavesOutLazyColumnsNotWritten() {
+        List<FieldDescriptor> fields = metadata.getUpdateFields(cld, Collections.<String> emptySet());
+        assertEquals(2, fields.size());
+        assertEquals("UPDATE `STUFF` SET `OID_DOMAIN_META_OBJECT` = ?,`NAME` = ? WHERE OID = ?", metadata.getUpdateQuery(fields));
+
+        fields = metadata.getUpdateFields(cld, Collections.singleton("notes"));
+        assertEquals(3, fields.size());
+        assertEquals("UPDATE `STUFF` SET `OID_DOMAIN_META_OBJECT` = ?,`NAME` = ?,`NOTES` = ? WHERE OID = ?",
+                metadata.getUpdateQuery(fields));
+    }
+
+    @Test
+    public void testNotADomainObject() {
+        assertNull(DomainModelMetadata.getMetadataWithLazySlots(String.class));
+    }
+
+}
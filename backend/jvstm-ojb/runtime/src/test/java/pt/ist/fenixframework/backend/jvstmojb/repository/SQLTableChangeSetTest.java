@@ -0,0 +1,98 @@
+package pt.ist.fenixframework.backend.jvstmojb.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.apache.ojb.broker.metadata.ClassDescriptor;
+import org.apache.ojb.broker.metadata.DescriptorRepository;
+import org.apache.ojb.broker.metadata.FieldDescriptor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import pt.ist.fenixframework.backend.jvstmojb.repository.SQLTableInfo.Column;
+
+@RunWith(JUnit4.class)
+public class SQLTableChangeSetTest {
+
+    // the columns are given as pairs of name and JDBC type
+    private static SQLTableChangeSet makeChangeSet(SQLTableInfo table, String... columns) {
+        ClassDescriptor cld = new ClassDescriptor(new DescriptorRepository());
+        for (int i = 0; i < columns.length; i += 2) {
+            FieldDescriptor field = new FieldDescriptor(cld, i / 2 + 1);
+            field.setColumnName(columns[i]);
+            field.setColumnType(columns[i + 1]);
+            cld.addFieldDescriptor(field);
+        }
+
+        SQLTableChangeSet changeSet = new SQLTableChangeSet(table);
+        changeSet.addClassDescriptor(cld);
+        return changeSet;
+    }
+
+    // an existing table with the given columns, whose primary key is the OID
+    private static SQLTableInfo makeExistingTable(String tablename, String... columns) {
+        SQLTableInfo table = new SQLTableInfo(tablename, true);
+        for (String column : columns) {
+            table.columns.add(new Column(column, column.equals("OID") ? "BIGINT(20) UNSIGNED" : "TEXT"));
+        }
+        table.primaryKey.add("OID");
+        return table;
+    }
+
+    @Test
+    public void testNewTableIsCreatedWithItsIndexes() {
+        SQLTableChangeSet changeSet = makeChangeSet(new SQLTableInfo("THING", false), "OID", "BIGINT");
+
+        assertEquals("create table `THING` (`OID` bigint unsigned, primary key (OID), index (OID)) ENGINE=InnoDB, "
+                + "character set utf8;\n", changeSet.generateTableUpdates(false, null));
+        assertEquals("", changeSet.generateIndexUpdates());
+    }
+
+    @Test
+    public void testMissingIndexesOfExistingTableAreBuiltInPlace() {
+        SQLTableChangeSet changeSet = makeChangeSet(makeExistingTable("THING", "OID"), "OID", "BIGINT", "NAME", "VARCHAR");
+
+        assertEquals("alter table `THING` add `NAME` text;\n", changeSet.generateTableUpdates(false, null));
+        assertEquals("alter table `THING` add index (OID), algorithm=inplace, lock=none;\n", changeSet.generateIndexUpdates());
+    }
+
+    @Test
+    public void testUpToDateTable() {
+        SQLTableInfo table = makeExistingTable("THING", "OID", "NAME");
+        table.indexes.put("OID", Collections.singleton("OID"));
+        SQLTableChangeSet changeSet = makeChangeSet(table, "OID", "BIGINT", "NAME", "VARCHAR");
+
+        assertEquals("", changeSet.generateSqlUpdates(true, null));
+    }
+
+    @Test
+    public void testDropsOfUnusedColumnsAndKeys() {
+        SQLTableInfo table = makeExistingTable("THING", "OID", "OLD_NAME");
+        table.indexes.put("OID", Collections.singleton("OID"));
+        table.indexes.put("OLD_KEY", Collections.singleton("OLD_NAME"));
+        SQLTableChangeSet changeSet = makeChangeSet(table, "OID", "BIGINT");
+
+        assertEquals("", changeSet.generateTableUpdates(false, null));
+        assertEquals("alter table `THING` drop key OLD_KEY, drop OLD_NAME;\n", changeSet.generateTableUpdates(true, null));
+    }
+
+    @Test
+    public void testStatementOrder() {
+        SQLTableChangeSet existing = makeChangeSet(makeExistingTable("A_THING", "OID"), "OID", "BIGINT", "NAME", "VARCHAR");
+        SQLTableChangeSet created = makeChangeSet(new SQLTableInfo("B_THING", false), "OID", "BIGINT");
+
+        String updates =
+                SQLUpdateGenerator.generateSqlUpdates(Arrays.asList(existing, created),
+                        new HashSet<String>(Arrays.asList("OLD_THING", "OJB_HL_SEQ", "FF$DOMAIN_CLASS_INFO")), "latin1", true);
+
+        assertEquals("drop table OLD_THING;\n"
+                + "create table `B_THING` (`OID` bigint unsigned, primary key (OID), index (OID)) ENGINE=InnoDB, "
+                + "character set latin1;\n" + "alter table `A_THING` add `NAME` text;\n"
+                + "alter table `A_THING` add index (OID), algorithm=inplace, lock=none;\n", updates);
+    }
+
+}
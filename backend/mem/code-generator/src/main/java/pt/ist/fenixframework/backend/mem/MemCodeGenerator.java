@@ -1,8 +1,12 @@
 package pt.ist.fenixframework.backend.mem;
 
+import java.io.PrintWriter;
+
 import pt.ist.fenixframework.dml.CompilerArgs;
 import pt.ist.fenixframework.dml.DomainModel;
 import pt.ist.fenixframework.dml.IndexesCodeGenerator;
+import pt.ist.fenixframework.dml.Role;
+import pt.ist.fenixframework.dml.Slot;
 
 public class MemCodeGenerator extends IndexesCodeGenerator {
 
@@ -25,4 +29,21 @@ public class MemCodeGenerator extends IndexesCodeGenerator {
         return MemConfig.class.getName();
     }
 
+    @Override
+    protected void generateSetterBody(String setterName, Slot slot, PrintWriter out) {
+        // lets the transaction detect write conflicts and undo the change on rollback
+        println(out, "registerWrite$(" + dC.getBaseName() + ".class, \"" + slot.getName() + "\", "
+                + getSlotExpression(slot.getName()) + ");");
+        super.generateSetterBody(setterName, slot, out);
+    }
+
+    @Override
+    protected void generateStaticRoleSlotsMultOneSetterBody(Role role, Role otherRole, PrintWriter out) {
+        // the relation setters change the role slots directly, without going through generateSetterBody
+        String baseName = otherRole.getType().getBaseName();
+        println(out, "((" + baseName + ")o1).registerWrite$(" + baseName + ".class, \"" + role.getName() + "\", ((" + baseName
+                + ")o1)." + role.getName() + ");");
+        super.generateStaticRoleSlotsMultOneSetterBody(role, otherRole, out);
+    }
+
 }
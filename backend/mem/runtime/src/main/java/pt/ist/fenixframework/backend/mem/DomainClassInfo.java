@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -115,14 +116,8 @@ public class DomainClassInfo {
     }
 
     public static long getNextOidFor(Class objClass) {
-        int nextKey;
         DomainClassInfo info = classInfoMap.get(objClass);
-
-        synchronized (info) {
-            int lastKey = info.getLastKey();
-            nextKey = lastKey + 1;
-            info.setLastKey(nextKey);
-        }
+        int nextKey = info.lastKey.incrementAndGet();
 
         if (logger.isDebugEnabled()) {
             StringBuilder message = new StringBuilder();
@@ -156,7 +151,7 @@ public class DomainClassInfo {
     public final transient Class domainClass;
     public final int classId;
     /** The maximum object key used for objects of this class in this server */
-    private transient int lastKey = 0;
+    private final transient AtomicInteger lastKey = new AtomicInteger(0);
 
     public DomainClassInfo(Class domainClass, int classId) {
         this.domainClass = domainClass;
@@ -164,11 +159,11 @@ public class DomainClassInfo {
     }
 
     protected int getLastKey() {
-        return this.lastKey;
+        return this.lastKey.get();
     }
 
     protected void setLastKey(int lastKey) {
-        this.lastKey = lastKey;
+        this.lastKey.set(lastKey);
     }
 
 }
@@ -12,14 +12,33 @@ import pt.ist.fenixframework.hibernatesearch.HibernateSearchConfig;
  * 
  */
 public class MemConfig extends HibernateSearchConfig {
+    /**
+     * This <strong>optional</strong> parameter specifies whether to detect conflicts between concurrent transactions that
+     * change the same object. When enabled, the first change to an object makes the transaction its only writer until it
+     * finishes, and any other transaction that tries to change it is restarted. Changes to slots are undone on rollback.
+     * Changing a relation changes the role slots that refer to a single object, and the objects of the collections that refer
+     * to many. Changes to collections are thus only detected when they are domain based, such as the B+Tree.
+     * Reads are not validated. The default value for this parameter is <code>false</code>.
+     */
+    protected boolean writeConflictDetection = false;
+
     protected final BackEnd backEnd;
 
     public MemConfig() {
         this.backEnd = new MemBackEnd();
     }
 
+    protected void writeConflictDetectionFromString(String value) {
+        writeConflictDetection = Boolean.parseBoolean(value);
+    }
+
+    public boolean getWriteConflictDetection() {
+        return writeConflictDetection;
+    }
+
     @Override
     protected void init() {
+        MemTransaction.writeConflictDetection = writeConflictDetection;
         DomainClassInfo.initializeClassInfos(FenixFramework.getDomainModel(), 0);
         super.init();
     }
@@ -1,5 +1,7 @@
 package pt.ist.fenixframework.backend.mem;
 
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,9 +12,15 @@ import pt.ist.fenixframework.core.SharedIdentityMap;
 public class MemDomainObject extends AbstractDomainObjectAdapter {
     private static final Logger logger = LoggerFactory.getLogger(MemDomainObject.class);
 
+    private static final AtomicReferenceFieldUpdater<MemDomainObject, MemTransaction> WRITER_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(MemDomainObject.class, MemTransaction.class, "writer");
+
     // this should be final, but the ensureOid and restoreOid methods prevent it
     private long oid;
 
+    // the running transaction that has changed this object, if any.  Only used when detecting write conflicts
+    private volatile MemTransaction writer = null;
+
     // We need to have the default constructor, because we've added the allocate-instance constructor
     protected MemDomainObject() {
         super();
@@ -35,6 +43,32 @@ public class MemDomainObject extends AbstractDomainObjectAdapter {
         }
     }
 
+    /**
+     * Invoked by the generated setters before changing a slot. When write conflicts are being detected, this registers the
+     * change in the current transaction.
+     * 
+     * @param declaringClass The class that declares the slot
+     * @param slotName The name of the slot
+     * @param oldValue The value of the slot before the change
+     */
+    protected final void registerWrite$(Class<?> declaringClass, String slotName, Object oldValue) {
+        if (!MemTransaction.writeConflictDetection) {
+            return;
+        }
+        MemTransaction tx = MemTransactionManager.currentTransaction();
+        if (tx != null) {
+            tx.registerWrite(this, declaringClass, slotName, oldValue);
+        }
+    }
+
+    boolean acquireWriter(MemTransaction tx) {
+        return this.writer == tx || WRITER_UPDATER.compareAndSet(this, null, tx);
+    }
+
+    void releaseWriter(MemTransaction tx) {
+        WRITER_UPDATER.compareAndSet(this, tx, null);
+    }
+
     // dealing with domain object identifiers
 
     @Override
@@ -1,5 +1,9 @@
 package pt.ist.fenixframework.backend.mem;
 
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
 import javax.transaction.RollbackException;
@@ -10,17 +14,71 @@ import pt.ist.fenixframework.txintrospector.TxStats;
 
 public class MemTransaction extends AbstractTransaction {
 
+    // set by the MemConfig
+    static volatile boolean writeConflictDetection = false;
+
+    private static final ConcurrentHashMap<String, Field> SLOT_FIELDS = new ConcurrentHashMap<String, Field>();
+
     private final TxStats txIntrospector = TxStats.newInstance();
 
+    // only used when detecting write conflicts
+    private final ArrayList<MemDomainObject> objectsWritten = new ArrayList<MemDomainObject>();
+    private final ArrayList<SlotUndo> undoLog = new ArrayList<SlotUndo>();
+
+    /**
+     * Records that this transaction is about to change a slot of the given object. The first change to an object makes this
+     * transaction its only writer, until it finishes. The previous value of the slot is kept, so that the change can be undone
+     * on rollback.
+     * 
+     * @throws WriteConflictError If another running transaction has changed the object
+     */
+    void registerWrite(MemDomainObject obj, Class<?> declaringClass, String slotName, Object oldValue) {
+        if (!obj.acquireWriter(this)) {
+            throw new WriteConflictError();
+        }
+        if (objectsWritten.isEmpty() || objectsWritten.get(objectsWritten.size() - 1) != obj) {
+            // may add the same object more than once, which is harmless
+            objectsWritten.add(obj);
+        }
+        undoLog.add(new SlotUndo(obj, getSlotField(declaringClass, slotName), oldValue));
+    }
+
+    private static Field getSlotField(Class<?> declaringClass, String slotName) {
+        String key = declaringClass.getName() + "." + slotName;
+        Field field = SLOT_FIELDS.get(key);
+        if (field == null) {
+            try {
+                field = declaringClass.getDeclaredField(slotName);
+            } catch (NoSuchFieldException e) {
+                throw new Error("Slot " + key + " does not exist", e);
+            }
+            field.setAccessible(true);
+            SLOT_FIELDS.putIfAbsent(key, field);
+        }
+        return field;
+    }
+
     @Override
     protected void backendCommit() throws RollbackException, HeuristicMixedException, HeuristicRollbackException,
             SecurityException, IllegalStateException, SystemException {
-
+        releaseObjectsWritten();
     }
 
     @Override
     protected void backendRollback() throws IllegalStateException, SystemException {
+        // undo in reverse order, so that each slot gets back the value it had before this transaction
+        for (int i = undoLog.size() - 1; i >= 0; i--) {
+            undoLog.get(i).undo();
+        }
+        releaseObjectsWritten();
+    }
 
+    private void releaseObjectsWritten() {
+        for (MemDomainObject obj : objectsWritten) {
+            obj.releaseWriter(this);
+        }
+        objectsWritten.clear();
+        undoLog.clear();
     }
 
     @Override
@@ -28,4 +86,24 @@ public class MemTransaction extends AbstractTransaction {
         return txIntrospector;
     }
 
+    private static final class SlotUndo {
+        private final MemDomainObject obj;
+        private final Field field;
+        private final Object oldValue;
+
+        SlotUndo(MemDomainObject obj, Field field, Object oldValue) {
+            this.obj = obj;
+            this.field = field;
+            this.oldValue = oldValue;
+        }
+
+        void undo() {
+            try {
+                field.set(obj, oldValue);
+            } catch (IllegalAccessException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
 }
@@ -9,37 +9,39 @@ import javax.transaction.NotSupportedException;
 import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import pt.ist.fenixframework.Atomic;
 import pt.ist.fenixframework.CallableWithoutException;
 import pt.ist.fenixframework.Transaction;
 import pt.ist.fenixframework.core.AbstractTransactionManager;
 
 public class MemTransactionManager extends AbstractTransactionManager {
+    private static final Logger logger = LoggerFactory.getLogger(MemTransactionManager.class);
+
+    // each thread runs its own transaction
+    private static final ThreadLocal<MemTransaction> currentTransaction = new ThreadLocal<MemTransaction>();
 
-    private MemTransaction transaction;
+    static MemTransaction currentTransaction() {
+        return currentTransaction.get();
+    }
 
     @Override
     public Transaction getTransaction() {
-        return this.transaction;
+        return currentTransaction.get();
     }
 
     @Override
-    public <T> T withTransaction(CallableWithoutException<T> command) {
-        if (transaction != null)
-            return command.call();
-
+    public <T> T withTransaction(final CallableWithoutException<T> command) {
         try {
-            T ret = null;
-            begin();
-            ret = command.call();
-            commit();
-            return ret;
+            return withTransaction(new Callable<T>() {
+                @Override
+                public T call() {
+                    return command.call();
+                }
+            }, null);
         } catch (RuntimeException e) {
-            try {
-                rollback();
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
-            }
             throw e;
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -48,41 +50,41 @@ public class MemTransactionManager extends AbstractTransactionManager {
 
     @Override
     public <T> T withTransaction(Callable<T> command) throws Exception {
-        if (transaction != null)
-            return command.call();
-
-        try {
-            T ret = null;
-            begin();
-            ret = command.call();
-            commit();
-            return ret;
-        } catch (Exception e) {
-            rollback();
-            throw e;
-        }
+        return withTransaction(command, null);
     }
 
+    /**
+     * Transactions that fail with a {@link WriteConflictError} are rolled back and restarted. All other exceptions roll back
+     * the transaction and are thrown to the caller.
+     */
     @Override
     public <T> T withTransaction(Callable<T> command, Atomic atomic) throws Exception {
-        if (transaction != null)
+        if (currentTransaction.get() != null) {
             return command.call();
+        }
 
-        try {
-            T ret = null;
+        while (true) {
             begin();
-            ret = command.call();
-            commit();
-            return ret;
-        } catch (Exception e) {
-            rollback();
-            throw e;
+            boolean finished = false;
+            try {
+                T ret = command.call();
+                commit();
+                finished = true;
+                return ret;
+            } catch (WriteConflictError e) {
+                logger.debug("Transaction {} found a write conflict. Restarting.", command);
+            } finally {
+                // commit() may have already rolled back the transaction
+                if (!finished && currentTransaction.get() != null) {
+                    rollback();
+                }
+            }
         }
     }
 
     @Override
     public void begin(boolean readOnly) throws NotSupportedException, SystemException {
-        this.transaction = new MemTransaction();
+        currentTransaction.set(new MemTransaction());
     }
 
     @Override
@@ -91,7 +93,7 @@ public class MemTransactionManager extends AbstractTransactionManager {
         if (!(tobj instanceof MemTransaction))
             throw new InvalidTransactionException(String.valueOf(tobj));
 
-        this.transaction = (MemTransaction) tobj;
+        currentTransaction.set((MemTransaction) tobj);
     }
 
     @Override
@@ -101,9 +103,9 @@ public class MemTransactionManager extends AbstractTransactionManager {
 
     @Override
     public javax.transaction.Transaction suspend() throws SystemException {
-        Transaction tx = this.transaction;
+        Transaction tx = currentTransaction.get();
 
-        this.transaction = null;
+        currentTransaction.remove();
 
         return tx;
     }
@@ -111,13 +113,13 @@ public class MemTransactionManager extends AbstractTransactionManager {
     @Override
     protected void backendCommit() throws RollbackException, HeuristicMixedException, HeuristicRollbackException,
             SecurityException, IllegalStateException, SystemException {
-        this.transaction.commit();
-        this.transaction = null;
+        currentTransaction.get().commit();
+        currentTransaction.remove();
     }
 
     @Override
     protected void backendRollback() throws SecurityException, SystemException {
-        this.transaction.rollback();
-        this.transaction = null;
+        currentTransaction.get().rollback();
+        currentTransaction.remove();
     }
 }
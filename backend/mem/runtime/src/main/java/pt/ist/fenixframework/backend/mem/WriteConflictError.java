@@ -0,0 +1,17 @@
+package pt.ist.fenixframework.backend.mem;
+
+import pt.ist.fenixframework.core.TransactionError;
+
+/**
+ * Thrown when a transaction tries to change an object that was already changed by another transaction that is still running.
+ * Only thrown when the detection of write conflicts is enabled.
+ * 
+ * @see MemConfig#getWriteConflictDetection()
+ */
+public class WriteConflictError extends TransactionError {
+    private static final long serialVersionUID = 1L;
+
+    public WriteConflictError() {
+        super();
+    }
+}
@@ -5,7 +5,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 import pt.ist.fenixframework.dml.CompilerArgs;
 import pt.ist.fenixframework.dml.DomainClass;
@@ -15,8 +17,27 @@ import pt.ist.fenixframework.dml.Role;
 import pt.ist.fenixframework.dml.Slot;
 import pt.ist.fenixframework.dml.ValueTypeSerializationGenerator;
 
+/**
+ * Code generator for the OGM backend. Besides the domain classes, it generates the <code>orm.xml</code> and the
+ * <code>persistence.xml</code> files.
+ * 
+ * Hibernate's second-level cache is disabled by default. You can enable it for all domain classes by adding
+ * <params>
+ * <ogmSecondLevelCache>true</ogmSecondLevelCache>
+ * </params>
+ * to the configuration section of the dml-maven-plugin plugin in your pom.xml. To cache only some of the classes, also list
+ * their full names, separated by commas, in the <code>ogmCacheableClasses</code> parameter. The cache region factory defaults
+ * to Infinispan's, which must then be available in the application's classpath, and can be changed with the
+ * <code>ogmCacheRegionFactory</code> parameter.
+ */
 public class OgmCodeGenerator extends IndexesCodeGenerator {
 
+    public static final String SECOND_LEVEL_CACHE_CONFIG_KEY = "ogmSecondLevelCache";
+    public static final String CACHEABLE_CLASSES_CONFIG_KEY = "ogmCacheableClasses";
+    public static final String CACHE_REGION_FACTORY_CONFIG_KEY = "ogmCacheRegionFactory";
+
+    protected static final String DEFAULT_CACHE_REGION_FACTORY = "org.hibernate.cache.infinispan.InfinispanRegionFactory";
+
     protected static final String VT_SERIALIZER = ValueTypeSerializationGenerator.SERIALIZER_CLASS_SIMPLE_NAME + "."
             + ValueTypeSerializationGenerator.SERIALIZATION_METHOD_PREFIX;
 
@@ -34,12 +55,36 @@ public class OgmCodeGenerator extends IndexesCodeGenerator {
     protected ArrayList<Role> ormRoleManyToMany;
     protected ArrayList<String> ormTransientSlots;
 
+    protected final boolean secondLevelCache;
+    // when empty, all classes are cacheable
+    protected final Set<String> cacheableClasses = new HashSet<String>();
+    protected final String cacheRegionFactory;
+
     public OgmCodeGenerator(CompilerArgs compArgs, DomainModel domainModel) {
         super(compArgs, domainModel);
         String collectionName = compArgs.getParams().get(COLLECTION_CLASS_NAME_KEY);
         if (collectionName == null || collectionName.isEmpty()) {
             setCollectionToUse("pt.ist.fenixframework.adt.bplustree.BPlusTree");
         }
+
+        String param = compArgs.getParams().get(SECOND_LEVEL_CACHE_CONFIG_KEY);
+        this.secondLevelCache = (param != null) && param.trim().equalsIgnoreCase("true");
+
+        param = compArgs.getParams().get(CACHEABLE_CLASSES_CONFIG_KEY);
+        if (param != null) {
+            for (String className : param.split(",")) {
+                if (!className.trim().isEmpty()) {
+                    this.cacheableClasses.add(className.trim());
+                }
+            }
+        }
+
+        param = compArgs.getParams().get(CACHE_REGION_FACTORY_CONFIG_KEY);
+        this.cacheRegionFactory = (param == null || param.trim().isEmpty()) ? DEFAULT_CACHE_REGION_FACTORY : param.trim();
+    }
+
+    protected boolean isCacheable(String className) {
+        return this.secondLevelCache && (this.cacheableClasses.isEmpty() || this.cacheableClasses.contains(className));
     }
 
     @Override
@@ -187,6 +232,17 @@ public class OgmCodeGenerator extends IndexesCodeGenerator {
         this.ormSlots.add(addHibernateToSlotName(slot.getName()));
     }
 
+    @Override
+    protected void generateSetterBody(String setterName, Slot slot, PrintWriter out) {
+        generateWriteCheck(out);
+        super.generateSetterBody(setterName, slot, out);
+    }
+
+    // read-only transactions must fail on the first write, so that speculative ones are restarted as read-write
+    protected void generateWriteCheck(PrintWriter out) {
+        println(out, "OgmBackEnd.getInstance().getTransactionManager().checkWrite();");
+    }
+
     protected void generateHibernateSlotGetter(Slot slot, PrintWriter out) {
         String slotName = slot.getName();
         String typeNameFrom = slot.getTypeName();
@@ -416,6 +472,7 @@ public class OgmCodeGenerator extends IndexesCodeGenerator {
         newline(out);
         printMethod(out, methodModifiers, "void", setterName + "$unidirectional", makeArg(typeName, slotName));
         startMethodBody(out);
+        generateWriteCheck(out);
         println(out, getSlotExpression(slotName) + " = " + slotName + ";");
         generateRoleSlotMethodsMultOneGetterUpdateToFK("set" + capitalize(makeForeignKeyName(slotName)), slotName, out);
         endMethodBody(out);
@@ -664,7 +721,11 @@ public class OgmCodeGenerator extends IndexesCodeGenerator {
             buf.append(className);
             buf.append("\" name=\"");
             buf.append(className);
-            buf.append("\" metadata-complete=\"true\"/>\n");
+            buf.append("\" metadata-complete=\"true\"");
+            if (isCacheable(className)) {
+                buf.append(" cacheable=\"true\"");
+            }
+            buf.append("/>\n");
         }
         this.ormWriter.println(buf.toString());
     }
@@ -762,6 +823,11 @@ public class OgmCodeGenerator extends IndexesCodeGenerator {
         text.append("             Otherwise only the jar file containing this persistence.xml will\n");
         text.append("             be scanned for orm.xml -->\n");
         text.append("        <mapping-file>META-INF/orm.xml</mapping-file>\n");
+        if (this.secondLevelCache) {
+            text.append("\n");
+            text.append("        <!-- only the entities marked as cacheable in orm.xml go to the second-level cache -->\n");
+            text.append("        <shared-cache-mode>ENABLE_SELECTIVE</shared-cache-mode>\n");
+        }
         text.append("\n");
         text.append("        <!-- Provided by Scott Marlow -->\n");
         text.append("        <!-- <jta-data-source>java:jboss/datasources/ExampleDS</jta-data-source> -->\n");
@@ -787,7 +853,12 @@ public class OgmCodeGenerator extends IndexesCodeGenerator {
         text.append("\n");
         text.append("            <!-- <property name=\"hibernate.connection.datasource\" value=\"XPTO\" /> -->\n");
         text.append("\n");
-        text.append("            <property name=\"hibernate.cache.use_second_level_cache\" value=\"false\" />\n");
+        text.append("            <property name=\"hibernate.cache.use_second_level_cache\" value=\"" + this.secondLevelCache + "\" />\n");
+        if (this.secondLevelCache) {
+            text.append("            <property name=\"hibernate.cache.region.factory_class\" value=\"" + this.cacheRegionFactory
+                    + "\" />\n");
+            text.append("            <property name=\"hibernate.cache.default_cache_concurrency_strategy\" value=\"transactional\" />\n");
+        }
         text.append("\n");
         text.append("            <!-- set to false to disable container managed JPA access to the\n");
         text.append("                 persistence unit.  The default is true, which enables\n");
@@ -796,7 +867,11 @@ public class OgmCodeGenerator extends IndexesCodeGenerator {
         text.append("\n");
         text.append("            <property name=\"hibernate.ejb.interceptor\" value=\"pt.ist.fenixframework.backend.ogm.AllocationInterceptor\" />\n");
         text.append("            <!-- <property name=\"hibernate.ogm.infinispan.configuration_resourcename\" value=\"infinispanNoFile.xml\" /> -->\n");
-        text.append("            <!-- <property name=\"hibernate.cache.use_query_cache\" value=\"true\" /> -->\n");
+        if (this.secondLevelCache) {
+            text.append("            <property name=\"hibernate.cache.use_query_cache\" value=\"true\" />\n");
+        } else {
+            text.append("            <!-- <property name=\"hibernate.cache.use_query_cache\" value=\"true\" /> -->\n");
+        }
         text.append("        </properties>\n");
         text.append("    </persistence-unit>\n");
         text.append("</persistence>\n");
@@ -71,6 +71,7 @@ public class OgmBackEnd implements BackEnd {
 
     public void save(AbstractDomainObject obj) {
         logger.debug("Saving " + obj.getClass());
+        transactionManager.checkWrite();
         transactionManager.getEntityManager().persist(obj);
     }
 
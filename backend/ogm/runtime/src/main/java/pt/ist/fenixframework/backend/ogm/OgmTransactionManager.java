@@ -1,7 +1,9 @@
 package pt.ist.fenixframework.backend.ogm;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.persistence.EntityManager;
@@ -15,6 +17,8 @@ import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.hibernate.ejb.AvailableSettings;
 import org.hibernate.ejb.HibernateEntityManagerFactory;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
@@ -25,9 +29,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
 import pt.ist.fenixframework.CallableWithoutException;
 import pt.ist.fenixframework.CommitListener;
 import pt.ist.fenixframework.TransactionManager;
+import pt.ist.fenixframework.core.WriteOnReadError;
 import pt.ist.fenixframework.util.Misc;
 import pt.ist.fenixframework.util.TxMap;
 
@@ -54,11 +60,24 @@ public class OgmTransactionManager implements TransactionManager {
     }
 
     private final ThreadLocal<EntityManager> currentEntityManager = new ThreadLocal<EntityManager>();
+    private final ThreadLocal<Boolean> currentReadOnly = new ThreadLocal<Boolean>();
 
     EntityManager getEntityManager() {
         return currentEntityManager.get();
     }
 
+    /**
+     * Check whether the current transaction may write. This method is used by the code generated in the Domain Objects,
+     * before changing any of their slots.
+     * 
+     * @throws WriteOnReadError If the current transaction is read-only
+     */
+    public void checkWrite() {
+        if (currentReadOnly.get() == Boolean.TRUE) {
+            throw new WriteOnReadError();
+        }
+    }
+
     @Override
     public void begin() throws NotSupportedException, SystemException {
         begin(false);
@@ -66,16 +85,18 @@ public class OgmTransactionManager implements TransactionManager {
 
     @Override
     public void begin(boolean readOnly) throws NotSupportedException, SystemException {
-        if (readOnly) {
-            logger.warn("OgmBackEnd does not enforce read-only transactions. Starting as normal transaction");
-        }
-
-        logger.trace("Begin transaction");
+        logger.trace("Begin transaction (readOnly={})", readOnly);
         delegateTxManager.begin();
 
-        EntityManager em = null;
-        em = emf.createEntityManager();
+        EntityManager em = emf.createEntityManager();
+        if (readOnly) {
+            // entities are loaded without snapshots, so there is nothing to dirty-check, and nothing is ever flushed
+            Session session = em.unwrap(Session.class);
+            session.setFlushMode(FlushMode.MANUAL);
+            session.setDefaultReadOnly(true);
+        }
         currentEntityManager.set(em);
+        currentReadOnly.set(readOnly);
     }
 
     @Override
@@ -99,11 +120,14 @@ public class OgmTransactionManager implements TransactionManager {
         try {
             EntityManager em = currentEntityManager.get();
 
-            em.flush();
+            if (currentReadOnly.get() != Boolean.TRUE) {
+                em.flush();
+            }
             delegateTxManager.commit();
             em.close();
 
             currentEntityManager.set(null);
+            currentReadOnly.set(null);
         } finally {
             for (CommitListener listener : listeners) {
                 listener.afterCommit(tx);
@@ -124,9 +148,14 @@ public class OgmTransactionManager implements TransactionManager {
     @Override
     public void rollback() throws SystemException {
         logger.trace("Rollback transaction");
-        delegateTxManager.rollback();
-
+        EntityManager em = currentEntityManager.get();
         currentEntityManager.set(null);
+        currentReadOnly.set(null);
+        if (em != null) {
+            em.close();
+        }
+
+        delegateTxManager.rollback();
     }
 
     @Override
@@ -143,20 +172,35 @@ public class OgmTransactionManager implements TransactionManager {
         return withTransaction(command, null);
     }
 
+    // the commands that wrote in a speculative read-only transaction, which are begun as read-write from then on
+    private static final Map<String, String> knownWriteServices = new ConcurrentHashMap<String, String>();
+
     /**
-     * For now, it ignores the value of the atomic parameter.
+     * Of the atomic parameter, only the mode is considered. A transaction in {@link TxMode#SPECULATIVE_READ} mode starts as
+     * read-only and is restarted as read-write on its first write. Once a command wrote, its later transactions start as
+     * read-write. Without the atomic parameter, transactions are read-write.
      */
     @Override
     public <T> T withTransaction(Callable<T> command, Atomic atomic) throws Exception {
+        final String commandName = command.getClass().getName();
+
+        boolean readOnly = false;
+        boolean tryReadOnly = false;
+        if (atomic != null) {
+            readOnly = (atomic.mode() == TxMode.READ);
+            tryReadOnly =
+                    readOnly || (atomic.mode() == TxMode.SPECULATIVE_READ && !knownWriteServices.containsKey(commandName));
+        }
+
         T result = null;
         boolean txFinished = false;
         while (!txFinished) {
+            boolean inTopLevelTransaction = false;
             try {
-                boolean inTopLevelTransaction = false;
                 // the purpose of this test is to enable reuse of the existing transaction
                 if (getTransaction() == null) {
                     logger.trace("No previous transaction.  Will begin a new one.");
-                    begin();
+                    begin(tryReadOnly);
                     inTopLevelTransaction = true;
                 } else {
                     logger.trace("Already inside a transaction. Not nesting.");
@@ -171,6 +215,15 @@ public class OgmTransactionManager implements TransactionManager {
                 }
                 txFinished = true;
                 return result;
+            } catch (WriteOnReadError wore) {
+                // read-only transactions will end, and so will inner transactions, for the outer one to restart
+                if (readOnly || !tryReadOnly || !inTopLevelTransaction) {
+                    throw wore;
+                }
+                // restart as read-write
+                knownWriteServices.put(commandName, commandName);
+                tryReadOnly = false;
+                logger.debug("Transaction wrote while read-only. Restarting as read-write.");
             } catch (CacheException ce) {
                 //If the execution fails
                 logException(ce);
@@ -24,7 +24,7 @@ tokens {
     DOMAIN_DEFS; CLASS_DEF; EXTENDS_CLAUSE; OBJBLOCK; IMPLEMENTS_CLAUSE;
     RELATION_DEF; SLOT_DEF; RELATION_BLOCK; ROLE; ROLE_NAME; ROLE_OPTIONS;
     MULTIPLICITY; MULTIPLICITY_RANGE; EXTERNAL;
-    INDEXED; ORDERED; VALUE_TYPE; SLOT_OPTIONS; REQUIRED_OPTION; MODIFIERS;
+    INDEXED; ORDERED; VALUE_TYPE; SLOT_OPTIONS; REQUIRED_OPTION; LAZY_OPTION; MODIFIERS;
     ENUM_TYPE; PACKAGE; ABSOLUTE_NAME; VALUE_TYPE_BLOCK; EXTERNALIZATION_CLAUSE;
     EXTERNALIZATION_ELEMENT; INTERNALIZATION_CLAUSE; TYPE;
     WILDCARD; WILDCARD_EXTENDS; WILDCARD_SUPER;
@@ -173,7 +173,7 @@ protected classSlotInternal![AST type, AST mods]
 
 slotOptions
     : ( LPAREN! 
-         slotOption
+         slotOption ( COMMA! slotOption )*
         RPAREN!
       )?
       {#slotOptions = #([SLOT_OPTIONS, "SLOT_OPTIONS"], #slotOptions);}
@@ -184,6 +184,9 @@ slotOption!
     :
         "REQUIRED"
         {#slotOption = #([REQUIRED_OPTION,"REQUIRED_OPTION"]);}
+    |
+        "LAZY"
+        {#slotOption = #([LAZY_OPTION,"LAZY_OPTION"]);}
     ;
 
 
@@ -150,6 +150,7 @@ slotOptions[Slot slotDef]
 
 slotOption[Slot slotDef]
     : #(REQUIRED_OPTION { slotDef.addOption(Slot.Option.REQUIRED); } )
+    | #(LAZY_OPTION { slotDef.addOption(Slot.Option.LAZY); } )
     ;
 
 modifiers[ModifiableEntity entityDef]
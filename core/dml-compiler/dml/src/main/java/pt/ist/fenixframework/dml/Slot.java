@@ -7,7 +7,7 @@ import java.util.Set;
 public class Slot extends ModifiableEntity implements Serializable {
 
     public enum Option {
-        REQUIRED
+        REQUIRED, LAZY
     }
 
     private final String name;
@@ -48,4 +48,12 @@ public class Slot extends ModifiableEntity implements Serializable {
         return slotOptions.contains(option);
     }
 
+    /**
+     * Whether this slot should be loaded only when first accessed. Slots of primitive types are
+     * always loaded together with the rest of the object, even if declared as LAZY.
+     */
+    public boolean isLazy() {
+        return hasOption(Option.LAZY) && DomainModel.isNullableType(type);
+    }
+
 }
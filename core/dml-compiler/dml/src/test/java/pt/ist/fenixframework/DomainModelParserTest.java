@@ -1,6 +1,8 @@
 package pt.ist.fenixframework;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -14,7 +16,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import pt.ist.fenixframework.dml.DomainClass;
 import pt.ist.fenixframework.dml.DomainModel;
+import pt.ist.fenixframework.dml.Slot;
 
 @RunWith(JUnit4.class)
 public class DomainModelParserTest {
@@ -39,6 +43,25 @@ public class DomainModelParserTest {
         assertNotNull(model);
     }
 
+    @Test
+    public void testSlotOptions() throws IOException {
+        URL url = dml("class stuff {\n String name (REQUIRED);\n bytearray photo (LAZY);\n String notes (REQUIRED, LAZY);\n}");
+        DomainModel model = DomainModelParser.getDomainModel(Collections.singletonList(url));
+        DomainClass stuff = model.findClass("stuff");
+
+        Slot name = stuff.findSlot("name");
+        assertTrue(name.hasOption(Slot.Option.REQUIRED));
+        assertFalse(name.hasOption(Slot.Option.LAZY));
+
+        Slot photo = stuff.findSlot("photo");
+        assertFalse(photo.hasOption(Slot.Option.REQUIRED));
+        assertTrue(photo.hasOption(Slot.Option.LAZY));
+
+        Slot notes = stuff.findSlot("notes");
+        assertTrue(notes.hasOption(Slot.Option.REQUIRED));
+        assertTrue(notes.hasOption(Slot.Option.LAZY));
+    }
+
     private URL dml(String contents) throws IOException {
         File file = File.createTempFile("dml", "tmp");
         file.deleteOnExit();
@@ -1,4 +1,7 @@
 #!/bin/bash
 
 \mvn clean test -DforkCount=1.5C -Dcode.generator.class=pt.ist.fenixframework.backend.jvstm.JVSTMCodeGenerator && \
-    \mvn clean test -DforkCount=1 -Dcode.generator.class=pt.ist.fenixframework.backend.jvstm.infinispan.JvstmIspnCodeGenerator -Dtest=test.backend.jvstm.ConcurrentUpdatesTest,test.backend.jvstm.SequentialUpdatesTest,test.backend.jvstm.SimpleTest
+    \mvn clean test -DforkCount=1 -Dcode.generator.class=pt.ist.fenixframework.backend.jvstm.infinispan.JvstmIspnCodeGenerator -Dtest=test.backend.jvstm.ConcurrentUpdatesTest,test.backend.jvstm.SequentialUpdatesTest,test.backend.jvstm.SimpleTest && \
+    \mvn clean test -DforkCount=1 -Dcode.generator.class=pt.ist.fenixframework.backend.jvstmmem.JVSTMMemCodeGenerator -Dtest=test.backend.jvstm.SimpleTest,test.backend.jvstm.SnapshotTest && \
+    \mvn clean test -DforkCount=1 -Dcode.generator.class=pt.ist.fenixframework.backend.jvstm.JVSTMCodeGenerator -Dfenixframework.logDirectory=target/ff-log -Dtest=test.backend.jvstm.SequentialUpdatesTest,test.backend.jvstm.SimpleTest,test.backend.jvstm.LogRecoveryTest && \
+    \mvn clean test -DforkCount=1 -Dcode.generator.class=pt.ist.fenixframework.backend.jvstm.JVSTMCodeGenerator -Dfenixframework.logDirectory=target/ff-log -Dfenixframework.asyncPersistence=true -Dfenixframework.asyncPersistenceMaxPending=16 -Dtest=test.backend.jvstm.ConcurrentUpdatesTest,test.backend.jvstm.SimpleTest,test.backend.jvstm.AsyncPersistenceTest
@@ -0,0 +1,159 @@
+package test.backend.jvstm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Config;
+import pt.ist.fenixframework.FenixFramework;
+import pt.ist.fenixframework.backend.jvstm.JVSTMConfig;
+import pt.ist.fenixframework.backend.jvstm.JVSTMTransaction;
+import pt.ist.fenixframework.backend.jvstm.repository.PersistenceException;
+import test.backend.jvstm.domain.Counter;
+
+/**
+ * Only runs with the jvstm backend persisted in a log in the background, i.e. when a <code>logDirectory</code> is given and
+ * <code>asyncPersistence</code> is enabled.
+ */
+public class AsyncPersistenceTest {
+
+    private static final int TX_COUNT = 200;
+
+    @Test
+    public void testDurability() throws Exception {
+        Assume.assumeTrue(isAsyncPersistence());
+
+        String counterId = createCounter(41);
+        JVSTMTransaction tx = incCounter(counterId);
+        await(tx.getDurability());
+        Assert.assertTrue(tx.getDurability().isDone());
+
+        restart();
+
+        Assert.assertEquals(42, getCounterValue(counterId));
+    }
+
+    @Test
+    public void testDurableInCommitOrder() throws Exception {
+        Assume.assumeTrue(isAsyncPersistence());
+
+        String counterId = createCounter(0);
+
+        List<Future<Void>> durabilities = new ArrayList<Future<Void>>();
+        for (int i = 0; i < TX_COUNT; i++) {
+            durabilities.add(incCounter(counterId).getDurability());
+        }
+
+        await(durabilities.get(TX_COUNT - 1));
+        for (Future<Void> durability : durabilities) {
+            Assert.assertTrue("Earlier transactions must be durable before later ones", durability.isDone());
+        }
+
+        restart();
+
+        Assert.assertEquals(TX_COUNT, getCounterValue(counterId));
+    }
+
+    @Test
+    public void testShutdownPersistsPendingChanges() {
+        Assume.assumeTrue(isAsyncPersistence());
+
+        String counterId = createCounter(0);
+
+        // do not wait for durability
+        for (int i = 0; i < TX_COUNT; i++) {
+            incCounter(counterId);
+        }
+
+        restart();
+
+        Assert.assertEquals(TX_COUNT, getCounterValue(counterId));
+    }
+
+    @Test
+    public void testFailureStopsCommits() throws Exception {
+        Assume.assumeTrue(isAsyncPersistence());
+
+        String counterId = createCounter(4);
+        await(incCounter(counterId).getDurability());
+
+        // the log can no longer be appended to
+        ((JVSTMConfig) FenixFramework.getConfig()).getBackEnd().getRepository().closeRepository();
+
+        Future<Void> lostDurability = incCounter(counterId).getDurability();
+        try {
+            await(lostDurability);
+            Assert.fail("The changes cannot be durable");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof PersistenceException);
+        }
+
+        try {
+            incCounter(counterId);
+            Assert.fail("Transactions must not commit after the pipeline failed");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        restart();
+
+        // the transaction committed in memory was lost
+        Assert.assertEquals(5, getCounterValue(counterId));
+    }
+
+    private static boolean isAsyncPersistence() {
+        Config config = FenixFramework.getConfig();
+        return config instanceof JVSTMConfig && ((JVSTMConfig) config).getLogDirectory() != null
+                && ((JVSTMConfig) config).getAsyncPersistence();
+    }
+
+    private static void await(Future<Void> durability) throws InterruptedException, ExecutionException, TimeoutException {
+        durability.get(30, TimeUnit.SECONDS);
+    }
+
+    private void restart() {
+        final JVSTMConfig oldConfig = FenixFramework.getConfig();
+        JVSTMConfig newConfig = new JVSTMConfig() {
+            {
+                this.appName = oldConfig.getAppName();
+                this.domainModelURLs = oldConfig.getDomainModelURLs();
+                this.logDirectory = oldConfig.getLogDirectory();
+                this.logSyncPolicy = oldConfig.getLogSyncPolicy();
+                this.asyncPersistence = oldConfig.getAsyncPersistence();
+                this.asyncPersistenceMaxPending = oldConfig.getAsyncPersistenceMaxPending();
+            }
+        };
+
+        FenixFramework.shutdown();
+        FenixFramework.initialize(newConfig);
+    }
+
+    @Atomic
+    private String createCounter(int value) {
+        Counter counter = new Counter();
+        counter.setValue(value);
+        FenixFramework.getDomainRoot().addMultipleCounter(counter);
+        return counter.getExternalId();
+    }
+
+    // the durability of a transaction is only known after it commits
+    @Atomic
+    private JVSTMTransaction incCounter(String counterId) {
+        FenixFramework.<Counter> getDomainObject(counterId).inc();
+        return (JVSTMTransaction) FenixFramework.getTransaction();
+    }
+
+    @Atomic
+    private int getCounterValue(String counterId) {
+        return FenixFramework.<Counter> getDomainObject(counterId).getValue();
+    }
+
+}
@@ -0,0 +1,186 @@
+package test.backend.jvstm;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Config;
+import pt.ist.fenixframework.FenixFramework;
+import pt.ist.fenixframework.backend.jvstm.JVSTMConfig;
+import pt.ist.fenixframework.backend.jvstm.pstm.OwnedVBox;
+import pt.ist.fenixframework.backend.jvstm.repository.LogRepository;
+import test.backend.jvstm.domain.Counter;
+
+/**
+ * Only runs with the jvstm backend persisted in a log, i.e. when a <code>logDirectory</code> is given.
+ */
+public class LogRecoveryTest {
+
+    @Test
+    public void testRestartFromCheckpointAndLog() throws IOException {
+        Assume.assumeTrue(getRepository() != null);
+
+        String checkpointedId = createCounter(42);
+        getRepository().checkpoint();
+        Assert.assertEquals(1, listFiles("checkpoint-", ".ckp").length);
+
+        // these changes are only in the log, after the checkpoint
+        incCounter(checkpointedId);
+        String loggedId = createCounter(7);
+        int txNumber = jvstm.Transaction.getMostRecentCommitedNumber();
+
+        restart();
+
+        Assert.assertFalse(FenixFramework.getConfig().getBackEnd().isNewInstance());
+        Assert.assertEquals(txNumber, jvstm.Transaction.getMostRecentCommitedNumber());
+        Assert.assertEquals(43, getCounterValue(checkpointedId));
+        Assert.assertEquals(7, getCounterValue(loggedId));
+        Assert.assertTrue(isAttachedToRoot(checkpointedId));
+        Assert.assertTrue(isAttachedToRoot(loggedId));
+    }
+
+    @Test
+    public void testReadAcrossCheckpoint() throws Exception {
+        Assume.assumeTrue(getRepository() != null);
+
+        final String counterId = createCounter(1);
+
+        FenixFramework.getTransactionManager().begin(true);
+        try {
+            // a newer version, which the checkpoint covers
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    incCounter(counterId);
+                }
+            };
+            writer.start();
+            writer.join();
+            getRepository().checkpoint();
+
+            // the reload needs the version that this transaction reads, not only the newest one
+            OwnedVBox box = OwnedVBox.lookupCachedVBox("value:" + counterId);
+            Assert.assertNotNull(box);
+            getRepository().reloadAttribute(box);
+            Assert.assertEquals(1, FenixFramework.<Counter> getDomainObject(counterId).getValue());
+        } finally {
+            FenixFramework.getTransactionManager().commit();
+        }
+
+        Assert.assertEquals(2, getCounterValue(counterId));
+    }
+
+    @Test
+    public void testRestartWithTornTail() throws IOException {
+        Assume.assumeTrue(getRepository() != null);
+
+        String counterId = createCounter(10);
+        int txNumber = jvstm.Transaction.getMostRecentCommitedNumber();
+
+        FenixFramework.shutdown();
+
+        // a crash in the middle of an append leaves a header whose payload was not completely written
+        File[] segments = listFiles("segment-", ".log");
+        File lastSegment = segments[segments.length - 1];
+        long validSize = lastSegment.length();
+        RandomAccessFile out = new RandomAccessFile(lastSegment, "rw");
+        try {
+            out.seek(validSize);
+            out.writeInt(64);
+            out.writeInt(0);
+            out.write(new byte[10]);
+        } finally {
+            out.close();
+        }
+
+        initialize();
+
+        Assert.assertEquals("The incomplete record must be discarded", validSize, lastSegment.length());
+        Assert.assertEquals(txNumber, jvstm.Transaction.getMostRecentCommitedNumber());
+        Assert.assertEquals(10, getCounterValue(counterId));
+
+        // the log remains usable after the discarded record
+        incCounter(counterId);
+        String newCounterId = createCounter(0);
+        Assert.assertTrue("New objects must not reuse the keys of recovered ones",
+                Long.parseLong(newCounterId) > Long.parseLong(counterId));
+
+        restart();
+
+        Assert.assertEquals(11, getCounterValue(counterId));
+        Assert.assertEquals(0, getCounterValue(newCounterId));
+    }
+
+    private static LogRepository getRepository() {
+        Config config = FenixFramework.getConfig();
+        if (!(config instanceof JVSTMConfig) || ((JVSTMConfig) config).getLogDirectory() == null) {
+            return null;
+        }
+        return (LogRepository) ((JVSTMConfig) config).getBackEnd().getRepository();
+    }
+
+    private static File[] listFiles(final String prefix, final String suffix) {
+        File directory = new File(((JVSTMConfig) FenixFramework.getConfig()).getLogDirectory());
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.endsWith(suffix);
+            }
+        });
+        // the sequence numbers are zero-padded
+        Arrays.sort(files);
+        return files;
+    }
+
+    private void restart() {
+        FenixFramework.shutdown();
+        initialize();
+    }
+
+    private void initialize() {
+        final JVSTMConfig oldConfig = (JVSTMConfig) FenixFramework.getConfig();
+        JVSTMConfig newConfig = new JVSTMConfig() {
+            {
+                this.appName = oldConfig.getAppName();
+                this.domainModelURLs = oldConfig.getDomainModelURLs();
+                this.logDirectory = oldConfig.getLogDirectory();
+                this.logSyncPolicy = oldConfig.getLogSyncPolicy();
+                // the test writes its own checkpoints
+                this.logCheckpointInterval = 0;
+            }
+        };
+
+        FenixFramework.initialize(newConfig);
+    }
+
+    @Atomic
+    private String createCounter(int value) {
+        Counter counter = new Counter();
+        counter.setValue(value);
+        FenixFramework.getDomainRoot().addMultipleCounter(counter);
+        return counter.getExternalId();
+    }
+
+    @Atomic
+    private void incCounter(String counterId) {
+        FenixFramework.<Counter> getDomainObject(counterId).inc();
+    }
+
+    @Atomic
+    private int getCounterValue(String counterId) {
+        return FenixFramework.<Counter> getDomainObject(counterId).getValue();
+    }
+
+    @Atomic
+    private boolean isAttachedToRoot(String counterId) {
+        return FenixFramework.getDomainRoot().getMultipleCounterSet().contains(FenixFramework.getDomainObject(counterId));
+    }
+
+}
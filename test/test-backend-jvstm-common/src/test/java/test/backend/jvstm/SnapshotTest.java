@@ -0,0 +1,82 @@
+package test.backend.jvstm;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Config;
+import pt.ist.fenixframework.FenixFramework;
+import pt.ist.fenixframework.backend.jvstmmem.JVSTMMemConfig;
+import pt.ist.fenixframework.backend.jvstmmem.Snapshot;
+import test.backend.jvstm.domain.Counter;
+
+/**
+ * Only runs with the jvstm-mem backend.
+ */
+public class SnapshotTest {
+
+    @Test
+    public void testRestartFromSnapshot() throws IOException {
+        Assume.assumeTrue(FenixFramework.getConfig() instanceof JVSTMMemConfig);
+
+        File file = File.createTempFile("snapshot", ".ffs");
+        file.deleteOnExit();
+
+        String counterId = createCounter(42);
+        Snapshot.write(file);
+        // this change is not in the snapshot
+        incCounter(counterId);
+
+        restart(file);
+
+        Assert.assertFalse(FenixFramework.getConfig().getBackEnd().isNewInstance());
+        Assert.assertEquals(42, getCounterValue(counterId));
+        Assert.assertTrue(isAttachedToRoot(counterId));
+
+        String newCounterId = createCounter(0);
+        Assert.assertTrue("New objects must not reuse the keys of restored ones",
+                Long.parseLong(newCounterId) > Long.parseLong(counterId));
+    }
+
+    private void restart(final File file) {
+        final Config oldConfig = FenixFramework.getConfig();
+        JVSTMMemConfig newConfig = new JVSTMMemConfig() {
+            {
+                this.appName = oldConfig.getAppName();
+                this.domainModelURLs = oldConfig.getDomainModelURLs();
+                this.snapshotFile = file.getPath();
+            }
+        };
+
+        FenixFramework.shutdown();
+        FenixFramework.initialize(newConfig);
+    }
+
+    @Atomic
+    private String createCounter(int value) {
+        Counter counter = new Counter();
+        counter.setValue(value);
+        FenixFramework.getDomainRoot().addMultipleCounter(counter);
+        return counter.getExternalId();
+    }
+
+    @Atomic
+    private void incCounter(String counterId) {
+        FenixFramework.<Counter> getDomainObject(counterId).inc();
+    }
+
+    @Atomic
+    private int getCounterValue(String counterId) {
+        return FenixFramework.<Counter> getDomainObject(counterId).getValue();
+    }
+
+    @Atomic
+    private boolean isAttachedToRoot(String counterId) {
+        return FenixFramework.getDomainRoot().getMultipleCounterSet().contains(FenixFramework.getDomainObject(counterId));
+    }
+
+}
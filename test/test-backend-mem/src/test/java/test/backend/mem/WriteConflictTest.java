@@ -0,0 +1,128 @@
+package test.backend.mem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.FenixFramework;
+import test.backend.mem.domain.Player;
+import test.backend.mem.domain.Team;
+
+/**
+ * Runs with <code>writeConflictDetection</code> enabled.
+ */
+@RunWith(JUnit4.class)
+public class WriteConflictTest {
+
+    private Team team;
+    private Player first;
+    private Player second;
+
+    @AfterClass
+    public static void shutdown() {
+        FenixFramework.shutdown();
+    }
+
+    @Before
+    public void createObjects() {
+        team = newTeam();
+        first = newPlayer("first");
+        second = newPlayer("second");
+    }
+
+    @Test
+    public void testConcurrentRelationChangeRestarts() throws InterruptedException {
+        final AtomicInteger otherRuns = new AtomicInteger();
+        final CountDownLatch otherRestarted = new CountDownLatch(1);
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                setCaptain(second, otherRuns, otherRestarted);
+            }
+        };
+
+        // the other thread changes the relation while this transaction has changed it, but not yet committed
+        setCaptainAndWait(first, other, otherRestarted);
+        other.join();
+
+        assertTrue(otherRuns.get() > 1);
+        assertEquals(second, getCaptain());
+        assertNull(getTeam(first));
+        assertEquals(team, getTeam(second));
+    }
+
+    @Test
+    public void testRelationChangeIsUndoneOnRollback() {
+        try {
+            setCaptainAndFail(first);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertNull(getCaptain());
+        assertNull(getTeam(first));
+    }
+
+    @Atomic
+    private void setCaptainAndWait(Player captain, Thread other, CountDownLatch otherRestarted) {
+        team.setCaptain(captain);
+        other.start();
+        try {
+            assertTrue("The other transaction must conflict with this one", otherRestarted.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Atomic
+    private void setCaptain(Player captain, AtomicInteger runs, CountDownLatch restarted) {
+        if (runs.incrementAndGet() > 1) {
+            restarted.countDown();
+        }
+        team.setCaptain(captain);
+    }
+
+    @Atomic
+    private void setCaptainAndFail(Player captain) {
+        team.setCaptain(captain);
+        throw new IllegalStateException();
+    }
+
+    @Atomic
+    private Player getCaptain() {
+        return team.getCaptain();
+    }
+
+    @Atomic
+    private Team getTeam(Player player) {
+        return player.getTeam();
+    }
+
+    @Atomic
+    private Team newTeam() {
+        Team team = new Team();
+        team.setName("team");
+        return team;
+    }
+
+    @Atomic
+    private Player newPlayer(String name) {
+        Player player = new Player();
+        player.setName(name);
+        return player;
+    }
+
+}
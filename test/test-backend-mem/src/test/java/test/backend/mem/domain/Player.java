@@ -0,0 +1,9 @@
+package test.backend.mem.domain;
+
+public class Player extends Player_Base {
+
+    public Player() {
+        super();
+    }
+
+}
@@ -0,0 +1,9 @@
+package test.backend.mem.domain;
+
+public class Team extends Team_Base {
+
+    public Team() {
+        super();
+    }
+
+}
@@ -0,0 +1,9 @@
+package test.domain;
+
+public class Book extends Book_Base {
+
+    public Book() {
+        super();
+    }
+
+}
@@ -0,0 +1,178 @@
+package test.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
+import pt.ist.fenixframework.FenixFramework;
+import pt.ist.fenixframework.core.WriteOnReadError;
+
+@RunWith(JUnit4.class)
+public class TransactionModeTest {
+
+    private String bookId;
+
+    // how many times the body of the top-level transaction ran
+    private int runs;
+
+    @AfterClass
+    public static void shutdown() {
+        FenixFramework.shutdown();
+    }
+
+    @Before
+    public void createBook() {
+        bookId = newBook();
+        runs = 0;
+    }
+
+    @Test
+    public void testReadOnlyRead() {
+        assertEquals(0, readCopies());
+        assertEquals(1, runs);
+    }
+
+    @Test
+    public void testWriteFailsInReadOnly() {
+        try {
+            readOnlyAddCopy();
+            fail("Expected a WriteOnReadError");
+        } catch (WriteOnReadError e) {
+            // expected
+        }
+
+        assertEquals(1, runs);
+        assertEquals(0, getCopies());
+    }
+
+    @Test
+    public void testSpeculativeReadRestartsOnWrite() {
+        speculativeAddCopy();
+
+        // the first run was read-only, and the restarted one committed once
+        assertEquals(2, runs);
+        assertEquals(1, getCopies());
+    }
+
+    @Test
+    public void testKnownWriterStartsReadWrite() {
+        knownWriterAddCopy();
+        assertEquals(2, runs);
+
+        // the command is known to write, so it is no longer tried as read-only
+        runs = 0;
+        knownWriterAddCopy();
+        assertEquals(1, runs);
+        assertEquals(2, getCopies());
+    }
+
+    @Test
+    public void testNestedWriteInReadWrite() {
+        readWriteAddCopyNested();
+
+        assertEquals(1, runs);
+        assertEquals(2, getCopies());
+    }
+
+    @Test
+    public void testNestedWriteRestartsSpeculativeRead() {
+        speculativeAddCopyNested();
+
+        assertEquals(2, runs);
+        assertEquals(2, getCopies());
+    }
+
+    @Test
+    public void testNestedWriteFailsInReadOnly() {
+        try {
+            readOnlyAddCopyNested();
+            fail("Expected a WriteOnReadError");
+        } catch (WriteOnReadError e) {
+            // expected
+        }
+
+        assertEquals(1, runs);
+        assertEquals(0, getCopies());
+    }
+
+    @Atomic(mode = TxMode.READ)
+    private int readCopies() {
+        runs++;
+        return getBook().getCopies();
+    }
+
+    @Atomic(mode = TxMode.READ)
+    private void readOnlyAddCopy() {
+        runs++;
+        addCopy();
+    }
+
+    @Atomic(mode = TxMode.SPECULATIVE_READ)
+    private void speculativeAddCopy() {
+        runs++;
+        addCopy();
+    }
+
+    // only used by one test, as the commands known to write are remembered across tests
+    @Atomic(mode = TxMode.SPECULATIVE_READ)
+    private void knownWriterAddCopy() {
+        runs++;
+        addCopy();
+    }
+
+    @Atomic(mode = TxMode.WRITE)
+    private void readWriteAddCopyNested() {
+        runs++;
+        addCopy();
+        nestedAddCopy();
+    }
+
+    @Atomic(mode = TxMode.SPECULATIVE_READ)
+    private void speculativeAddCopyNested() {
+        runs++;
+        nestedAddCopy();
+        addCopy();
+    }
+
+    @Atomic(mode = TxMode.READ)
+    private void readOnlyAddCopyNested() {
+        runs++;
+        nestedAddCopy();
+        fail("Expected an exception before this point");
+    }
+
+    @Atomic(mode = TxMode.WRITE)
+    private void nestedAddCopy() {
+        addCopy();
+    }
+
+    private void addCopy() {
+        Book book = getBook();
+        book.setCopies(book.getCopies() + 1);
+    }
+
+    private Book getBook() {
+        return FenixFramework.getDomainObject(bookId);
+    }
+
+    @Atomic(mode = TxMode.WRITE)
+    private String newBook() {
+        Book book = new Book();
+        book.setTitle("Fenix Framework");
+        book.setCopies(0);
+        return book.getExternalId();
+    }
+
+    @Atomic(mode = TxMode.READ)
+    private int getCopies() {
+        return getBook().getCopies();
+    }
+
+}